@@ -0,0 +1,74 @@
+package com.amg.rubik.benchmarks;
+
+import com.amg.rubik.cube.Cube;
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of single layer rotations, which is what every scramble, solver dry run and
+ * animation frame ends up calling.
+ *
+ * The moves are picked in advance so that the random generator isn't measured.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CubeRotateBenchmark {
+
+    private static final int MOVE_COUNT = 1024;
+
+    @Param({"2", "3", "4", "5", "6", "7", "8", "10", "12", "15", "20"})
+    public int size;
+
+    private BenchCube mCube;
+    private final Axis[] mAxes = new Axis[MOVE_COUNT];
+    private final Direction[] mDirections = new Direction[MOVE_COUNT];
+    private final int[] mLayers = new int[MOVE_COUNT];
+    private int mNext;
+
+    /**
+     * Cube.rotate is meant to be called by the cube subclasses only
+     * */
+    static class BenchCube extends Cube {
+
+        BenchCube(int size) {
+            super(size, size, size);
+        }
+
+        void turn(Axis axis, Direction direction, int layer) {
+            rotate(axis, direction, layer);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Headless.init();
+        mCube = new BenchCube(size);
+        Random random = new Random(size);
+        for (int i = 0; i < MOVE_COUNT; i++) {
+            mAxes[i] = Axis.values()[random.nextInt(3)];
+            mDirections[i] = random.nextBoolean() ?
+                    Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
+            mLayers[i] = random.nextInt(size);
+        }
+    }
+
+    @Benchmark
+    public void rotate() {
+        int i = mNext;
+        mCube.turn(mAxes[i], mDirections[i], mLayers[i]);
+        mNext = (i + 1) % MOVE_COUNT;
+    }
+}
@@ -0,0 +1,53 @@
+package com.amg.rubik.benchmarks;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.backends.headless.HeadlessApplication;
+import com.badlogic.gdx.backends.headless.HeadlessApplicationConfiguration;
+import com.badlogic.gdx.graphics.GL20;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Runs libgdx without a window so that cubes, which build a model for every square,
+ * can be created in benchmarks.
+ *
+ * The headless backend doesn't provide any GL implementation. Every GL call is answered by
+ * a stub that returns 1 for handles and zero for everything else, which is enough for
+ * creating meshes that are never drawn.
+ * */
+public class Headless {
+
+    private static boolean sInitialized = false;
+
+    public static synchronized void init() {
+        if (sInitialized) return;
+        HeadlessApplicationConfiguration config = new HeadlessApplicationConfiguration();
+        // Benchmarks drive the cubes themselves; a negative interval never calls render()
+        config.renderInterval = -1;
+        new HeadlessApplication(new ApplicationAdapter() {}, config);
+        Gdx.gl = Gdx.gl20 = createStubGL();
+        // Keep the cube's status messages out of the measurements
+        Gdx.app.setLogLevel(Application.LOG_ERROR);
+        sInitialized = true;
+    }
+
+    private static GL20 createStubGL() {
+        InvocationHandler handler = new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                Class<?> type = method.getReturnType();
+                if (type == int.class) return 1;
+                if (type == boolean.class) return false;
+                if (type == float.class) return 0f;
+                if (type == String.class) return "";
+                return null;
+            }
+        };
+        return (GL20) Proxy.newProxyInstance(GL20.class.getClassLoader(),
+                new Class<?>[] {GL20.class}, handler);
+    }
+}
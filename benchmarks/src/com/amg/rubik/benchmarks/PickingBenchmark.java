@@ -0,0 +1,87 @@
+package com.amg.rubik.benchmarks;
+
+import com.amg.rubik.InputHandler;
+import com.amg.rubik.cube.RubiksCube;
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.math.collision.Ray;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of finding the square under a touch, which runs on every touch and drag event.
+ *
+ * The camera is set up like the one in CubeApp, with a fixed viewport since the headless
+ * backend doesn't have a screen. Half of the touches miss the cube, which is the slow case
+ * for a linear search.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PickingBenchmark {
+
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int TOUCH_COUNT = 256;
+
+    @Param({"2", "3", "5", "10", "20"})
+    public int size;
+
+    private InputHandler mHandler;
+    private final int[] mTouchX = new int[TOUCH_COUNT];
+    private final int[] mTouchY = new int[TOUCH_COUNT];
+    private int mNext;
+
+    /**
+     * Camera.getPickRay(x, y) reads the viewport from Gdx.graphics, which is empty when
+     * headless; use the camera's own viewport instead.
+     * */
+    static class FixedViewportCamera extends PerspectiveCamera {
+
+        FixedViewportCamera(float fieldOfView, float width, float height) {
+            super(fieldOfView, width, height);
+        }
+
+        @Override
+        public Ray getPickRay(float screenX, float screenY) {
+            return getPickRay(screenX, screenY, 0, 0, viewportWidth, viewportHeight);
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Headless.init();
+        RubiksCube cube = new RubiksCube(size);
+
+        FixedViewportCamera camera = new FixedViewportCamera(67, WIDTH, HEIGHT);
+        camera.position.set(10, 10, 10);
+        camera.lookAt(0, 0, 0);
+        camera.near = 1;
+        camera.far = 300;
+        camera.update();
+        mHandler = new InputHandler(cube, camera);
+
+        // Touches around the middle of the screen, where the cube is drawn
+        Random random = new Random(size);
+        for (int i = 0; i < TOUCH_COUNT; i++) {
+            mTouchX[i] = WIDTH / 4 + random.nextInt(WIDTH / 2);
+            mTouchY[i] = random.nextInt(HEIGHT);
+        }
+    }
+
+    @Benchmark
+    public int getObject() {
+        int i = mNext;
+        mNext = (i + 1) % TOUCH_COUNT;
+        return mHandler.getObject(mTouchX[i], mTouchY[i]);
+    }
+}
@@ -0,0 +1,63 @@
+package com.amg.rubik.benchmarks;
+
+import com.amg.rubik.cube.RubiksCube;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * randomize(int), as used when starting a new game, and the solved check done after
+ * every rotation.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScrambleBenchmark {
+
+    @Param({"2", "3", "4", "5", "7", "10", "20"})
+    public int size;
+
+    @Param({"25", "100"})
+    public int moves;
+
+    private BenchCube mCube;
+
+    /**
+     * isSolved is meant to be called by the cube itself
+     * */
+    static class BenchCube extends RubiksCube {
+
+        BenchCube(int size) {
+            super(size);
+        }
+
+        boolean checkSolved() {
+            return isSolved();
+        }
+    }
+
+    @Setup
+    public void setup() {
+        Headless.init();
+        mCube = new BenchCube(size);
+        mCube.randomize(moves);
+    }
+
+    @Benchmark
+    public void randomize() {
+        mCube.randomize(moves);
+    }
+
+    @Benchmark
+    public boolean isSolved() {
+        return mCube.checkSolved();
+    }
+}
@@ -0,0 +1,58 @@
+package com.amg.rubik.benchmarks;
+
+import com.amg.rubik.cube.Algorithm;
+import com.amg.rubik.cube.RubiksCube3x3x3;
+import com.amg.rubik.solver.TwoPhaseTables;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of computing the complete solution of a freshly scrambled 3x3x3, the same way
+ * RubiksCube3x3x3 :: solve does before animating it.
+ *
+ * The two phase tables are built during the trial setup, so their one time cost isn't part
+ * of the samples.
+ * */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SolveBenchmark {
+
+    private static final int SCRAMBLE_MOVES = 50;
+
+    @Param({"TWO_PHASE", "BEGINNER"})
+    public RubiksCube3x3x3.SolveMethod method;
+
+    private RubiksCube3x3x3 mCube;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Headless.init();
+        TwoPhaseTables.getInstance();
+        mCube = new RubiksCube3x3x3();
+        mCube.setSolveMethod(method);
+    }
+
+    /**
+     * A scramble takes microseconds, which doesn't distort millisecond solves
+     * */
+    @Setup(Level.Invocation)
+    public void scramble() {
+        mCube.randomize(SCRAMBLE_MOVES);
+    }
+
+    @Benchmark
+    public Algorithm solve() {
+        return mCube.computeSolution();
+    }
+}
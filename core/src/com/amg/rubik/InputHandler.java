@@ -1,16 +1,8 @@
 package com.amg.rubik;
 
-import com.amg.rubik.cube.Piece;
 import com.amg.rubik.cube.RubiksCube;
-import com.amg.rubik.cube.Square;
 import com.badlogic.gdx.InputAdapter;
 import com.badlogic.gdx.graphics.Camera;
-import com.badlogic.gdx.graphics.g3d.ModelInstance;
-import com.badlogic.gdx.math.Intersector;
-import com.badlogic.gdx.math.Vector3;
-import com.badlogic.gdx.math.collision.Ray;
-
-import java.util.ArrayList;
 
 /**
  * Created by amar on 3/2/17.
@@ -61,25 +53,10 @@ public class InputHandler extends InputAdapter {
         return true;
     }
 
+    /**
+     * Index of the square under the given screen position, or -1
+     * */
     public int getObject(int x, int y) {
-        Vector3 position = new Vector3();
-        Ray ray = camera.getPickRay(x, y);
-        int result = -1;
-        float distance = -1;
-        ArrayList<Square> squares = cube.getSquares();
-        for (int i = 0; i < squares.size(); i++) {
-            final Square square = squares.get(i);
-            final ModelInstance inst = square.getModelInstance();
-            inst.transform.getTranslation(position);
-            position.add(square.center());
-            float dist2 = ray.origin.dst2(position);
-            if (distance > 0 && dist2 > distance)
-                continue;
-            if (Intersector.intersectRaySphere(ray, position, square.radius(), null)) {
-                result = i;
-                distance = dist2;
-            }
-        }
-        return result;
+        return cube.getSquareIndex(camera.getPickRay(x, y));
     }
 }
@@ -9,14 +9,25 @@ import com.badlogic.gdx.Gdx;
 public class Log {
 
     public static void w(String tag, String msg) {
-        Gdx.app.log(tag, msg);
+        log(tag, msg);
     }
 
     public static void d(String tag, String msg) {
-        Gdx.app.log(tag, msg);
+        log(tag, msg);
     }
 
     public static void e(String tag, String msg) {
-        Gdx.app.log(tag, msg);
+        log(tag, msg);
+    }
+
+    /**
+     * Solvers and table generation also run without a libgdx application
+     * */
+    private static void log(String tag, String msg) {
+        if (Gdx.app != null) {
+            Gdx.app.log(tag, msg);
+        } else {
+            System.out.println(tag + ": " + msg);
+        }
     }
 }
@@ -5,16 +5,27 @@ import com.amg.rubik.graphics.Axis;
 import com.amg.rubik.graphics.Direction;
 
 import java.util.ArrayList;
-
+import java.util.Arrays;
+
+/**
+ * A sequence of rotations. Steps are stored as rotation ids, and getNextStep returns the
+ * interned Rotation instances, so building and replaying algorithms doesn't allocate
+ * anything per step.
+ *
+ * @see Rotation
+ * */
 public class Algorithm {
 
     private static final String tag = "rubik-algo";
 
-    private ArrayList<Rotation> steps;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] steps;
+    private int stepCount;
     private int currentPosition;
 
     public Algorithm() {
-        steps = new ArrayList<>();
+        steps = new int[INITIAL_CAPACITY];
         reset();
     }
 
@@ -26,51 +37,87 @@ public class Algorithm {
     }
 
     private void reset() {
-        steps.clear();
+        stepCount = 0;
         currentPosition = 0;
     }
 
     public void addStep(Axis axis, Direction direction, int face, int faceCount) {
-        addStep(new Rotation(axis, direction, face, faceCount));
+        addStepId(Rotation.getId(axis, direction, face, faceCount));
     }
 
     public void addStep(Axis axis, Direction direction, int face) {
-        addStep(new Rotation(axis, direction, face));
+        addStepId(Rotation.getId(axis, direction, face, 1));
     }
 
     public void addStep(Rotation rotation) {
-        steps.add(rotation);
+        addStepId(rotation.getId());
+    }
+
+    public void addStepId(int id) {
+        if (stepCount == steps.length) {
+            steps = Arrays.copyOf(steps, steps.length * 2);
+        }
+        steps[stepCount++] = id;
     }
 
     public void append(Algorithm algo) {
         if (algo == null) return;
-        for (Rotation rot: algo.steps) {
-            addStep(rot.duplicate());
+        for (int i = 0; i < algo.stepCount; i++) {
+            addStepId(algo.steps[i]);
         }
     }
 
     public void repeatLastStep() {
-        addStep(steps.get(steps.size() - 1).duplicate());
+        addStepId(steps[stepCount - 1]);
     }
 
     public boolean isDone() {
-        return currentPosition >= steps.size();
+        return currentPosition >= stepCount;
     }
 
     public Rotation getNextStep() {
-        if (currentPosition >= steps.size()) {
-            Log.w(tag, "No more steps: " + currentPosition + ", " + steps.size());
+        if (currentPosition >= stepCount) {
+            Log.w(tag, "No more steps: " + currentPosition + ", " + stepCount);
             return null;
         }
-        return steps.get(currentPosition++).duplicate();
+        return Rotation.fromId(steps[currentPosition++]);
+    }
+
+    /**
+     * Apply all the steps instantly to a headless cube, from the beginning, irrespective of
+     * the current position. Whole cube rotations on axes without 90' symmetry reorient the
+     * cube, the same way RubiksCube :: finishRotation does.
+     * */
+    public void applyTo(FaceletCube cube) {
+        for (int i = 0; i < stepCount; i++) {
+            cube.rotate(Rotation.fromId(steps[i]));
+        }
+    }
+
+    public int size() {
+        return stepCount;
+    }
+
+    Rotation getStep(int index) {
+        if (index < 0 || index >= stepCount) {
+            throw new IndexOutOfBoundsException("Step " + index + " of " + stepCount);
+        }
+        return Rotation.fromId(steps[index]);
+    }
+
+    /**
+     * Start over from the first step
+     * */
+    public void rewind() {
+        currentPosition = 0;
     }
 
     public static Algorithm rotateWhole (Axis axis, Direction direction,
                                          int cubeSize, int count) {
         Algorithm algo = new Algorithm();
+        int id = Rotation.getId(axis, direction, 0, cubeSize);
         for (int i = 0; i < count; i++) {
-            Rotation rot = new Rotation(axis, direction, 0, cubeSize);
-            algo.addStep(rot);
+            algo.addStepId(id);
         }
         return algo;
     }
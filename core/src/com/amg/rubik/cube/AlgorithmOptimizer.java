@@ -0,0 +1,229 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Shortens an algorithm for an NxNxN cube without changing its effect.
+ *
+ * - Whole cube rotations are removed by relabelling the axes of the moves that follow them.
+ * - Consecutive moves around the same axis commute, so they are collected into a single run
+ *   where the quarter turns of every layer are added up modulo 4. This cancels X X' pairs,
+ *   merges X X X into X' and so on, even when moves of other layers around the same axis
+ *   are in between.
+ * - Each run is emitted with as few rotations as possible: neighbouring layers turning the
+ *   same amount become one multi layer rotation, and if it is cheaper, part of the run is
+ *   treated as a whole cube rotation and folded into the following moves.
+ *
+ * If @keepOrientation is false, the result may leave the cube in a different orientation,
+ * which is fine for solutions since the cube is solved irrespective of its orientation.
+ * Otherwise the required whole cube rotations are appended at the end.
+ * */
+public class AlgorithmOptimizer {
+
+    /**
+     * Axes are stored as signed integers: (ordinal + 1) * sign
+     *
+     * A move around axis a made after a clockwise whole cube rotation around the axis of
+     * the row is the same as a move around wholeRotationMap[row][a] made before it.
+     * A negative axis means that the direction and the layers are mirrored.
+     * */
+    private static final int[][] wholeRotationMap = {
+            {1, 3, -2},     // X: X -> +X, Y -> +Z, Z -> -Y
+            {-3, 2, 1},     // Y: X -> -Z, Y -> +Y, Z -> +X
+            {2, -1, 3},     // Z: X -> +Y, Y -> -X, Z -> +Z
+    };
+
+    private static final int[] identity = {1, 2, 3};
+
+    // Longest sequence of whole cube rotations needed to reach any orientation
+    private static final int MAX_REORIENT_STEPS = 3;
+
+    private final int mSize;
+    private final Algorithm mResult = new Algorithm();
+
+    /**
+     * Maps axes of the moves read from the input to axes of the moves written to the output
+     * */
+    private int[] mFrame = identity.clone();
+
+    private Axis mRunAxis = null;
+    private final int[] mRunAmounts;
+
+    private AlgorithmOptimizer(int size) {
+        mSize = size;
+        mRunAmounts = new int[size];
+    }
+
+    public static Algorithm optimize(Algorithm algo, int size, boolean keepOrientation) {
+        if (size < 1) {
+            throw new InvalidParameterException("Invalid size " + size);
+        }
+        AlgorithmOptimizer optimizer = new AlgorithmOptimizer(size);
+        for (int i = 0; i < algo.size(); i++) {
+            optimizer.add(algo.getStep(i));
+        }
+        optimizer.flushRun();
+        if (keepOrientation) {
+            optimizer.restoreOrientation();
+        }
+        return optimizer.mResult;
+    }
+
+    private void add(Rotation rot) {
+        if (rot.startFace < 0 || rot.faceCount < 1 || rot.startFace + rot.faceCount > mSize) {
+            throw new InvalidParameterException("Rotation doesn't fit the cube: " + rot);
+        }
+        if (rot.faceCount == mSize) {
+            mFrame = compose(mFrame, getWholeRotationMap(rot.axis, rot.direction));
+            return;
+        }
+
+        int mapped = mFrame[rot.axis.ordinal()];
+        Axis axis = Axis.values()[Math.abs(mapped) - 1];
+        if (axis != mRunAxis) {
+            flushRun();
+            // Flushing may fold a whole cube rotation into the frame
+            mapped = mFrame[rot.axis.ordinal()];
+            axis = Axis.values()[Math.abs(mapped) - 1];
+            mRunAxis = axis;
+        }
+
+        int start = rot.startFace;
+        int amount = rot.direction == Direction.CLOCKWISE ? 1 : 3;
+        if (mapped < 0) {
+            start = mSize - rot.startFace - rot.faceCount;
+            amount = 4 - amount;
+        }
+        for (int layer = start; layer < start + rot.faceCount; layer++) {
+            mRunAmounts[layer] = (mRunAmounts[layer] + amount) % 4;
+        }
+    }
+
+    /**
+     * Write out the collected run, with or without a whole cube rotation folded into it
+     * */
+    private void flushRun() {
+        if (mRunAxis == null) return;
+
+        int best = 0;
+        int bestCost = getRunCost(0);
+        for (int whole = 1; whole < 4; whole++) {
+            int cost = getRunCost(whole);
+            if (cost < bestCost) {
+                best = whole;
+                bestCost = cost;
+            }
+        }
+
+        int[] amounts = new int[mSize];
+        for (int layer = 0; layer < mSize; layer++) {
+            amounts[layer] = (mRunAmounts[layer] - best + 4) % 4;
+        }
+        int layer = 0;
+        while (layer < mSize) {
+            int end = layer + 1;
+            while (end < mSize && amounts[end] == amounts[layer]) end++;
+            if (amounts[layer] != 0) {
+                Direction direction = amounts[layer] == 3 ?
+                        Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+                mResult.addStep(mRunAxis, direction, layer, end - layer);
+                if (amounts[layer] == 2) {
+                    mResult.repeatLastStep();
+                }
+            }
+            layer = end;
+        }
+
+        // The skipped whole cube rotation happens on the output side
+        int[] map = getWholeRotationMap(mRunAxis, Direction.CLOCKWISE);
+        for (int i = 0; i < best; i++) {
+            mFrame = compose(map, mFrame);
+        }
+
+        mRunAxis = null;
+        Arrays.fill(mRunAmounts, 0);
+    }
+
+    /**
+     * Number of rotations needed to write the run after removing @whole quarter turns of
+     * the whole cube from every layer
+     * */
+    private int getRunCost(int whole) {
+        int cost = 0;
+        int previous = 0;
+        for (int layer = 0; layer < mSize; layer++) {
+            int amount = (mRunAmounts[layer] - whole + 4) % 4;
+            if (amount != previous && amount != 0) {
+                cost += amount == 2 ? 2 : 1;
+            }
+            previous = amount;
+        }
+        return cost;
+    }
+
+    /**
+     * Append whole cube rotations so that the output ends in the same orientation as the input
+     * */
+    private void restoreOrientation() {
+        if (Arrays.equals(mFrame, identity)) return;
+
+        // Breadth first search over the 24 orientations
+        ArrayList<int[]> frames = new ArrayList<>();
+        ArrayList<ArrayList<Rotation>> paths = new ArrayList<>();
+        frames.add(mFrame);
+        paths.add(new ArrayList<Rotation>());
+        for (int i = 0; i < frames.size(); i++) {
+            if (paths.get(i).size() >= MAX_REORIENT_STEPS) continue;
+            for (Axis axis: Axis.values()) {
+                for (Direction direction: Direction.values()) {
+                    // Rotating the output by W relabels its following moves with W's inverse
+                    Direction reverse = direction == Direction.CLOCKWISE ?
+                            Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+                    int[] frame = compose(getWholeRotationMap(axis, reverse), frames.get(i));
+                    ArrayList<Rotation> path = new ArrayList<>(paths.get(i));
+                    path.add(Rotation.get(axis, direction, 0, mSize));
+                    if (Arrays.equals(frame, identity)) {
+                        for (Rotation rot: path) {
+                            mResult.addStep(rot);
+                        }
+                        return;
+                    }
+                    frames.add(frame);
+                    paths.add(path);
+                }
+            }
+        }
+        throw new AssertionError("Unreachable orientation " + Arrays.toString(mFrame));
+    }
+
+    private static int[] getWholeRotationMap(Axis axis, Direction direction) {
+        int[] map = wholeRotationMap[axis.ordinal()];
+        if (direction == Direction.CLOCKWISE) {
+            return map;
+        }
+        int[] inverse = new int[3];
+        for (int a = 0; a < 3; a++) {
+            int target = Math.abs(map[a]) - 1;
+            inverse[target] = Integer.signum(map[a]) * (a + 1);
+        }
+        return inverse;
+    }
+
+    /**
+     * result[a] = outer[inner[a]], with the signs multiplied
+     * */
+    private static int[] compose(int[] outer, int[] inner) {
+        int[] result = new int[3];
+        for (int a = 0; a < 3; a++) {
+            int mid = inner[a];
+            int mapped = outer[Math.abs(mid) - 1];
+            result[a] = Integer.signum(mid) * mapped;
+        }
+        return result;
+    }
+}
@@ -4,6 +4,8 @@ import com.amg.rubik.Log;
 import com.amg.rubik.graphics.Axis;
 import com.amg.rubik.graphics.Direction;
 
+import com.badlogic.gdx.math.collision.Ray;
+
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 
@@ -63,6 +65,9 @@ public class Cube {
 
     private static final float GAP = 0.1f;
 
+    // Color indices are stored in bytes
+    private static final int MAX_COLORS = 128;
+
     private int mSizeX;
     private int mSizeY;
     private int mSizeZ;
@@ -77,6 +82,21 @@ public class Cube {
     ArrayList<Square> mRightSquares;
     ArrayList<Square>[] mAllFaces;
 
+    /**
+     * The colors of the cube are stored here as indices into mPalette. Squares are only a view
+     * of this state; their colors are updated from here by updateSquareColors().
+     * */
+    FaceletCube mFacelets;
+    private int[] mPalette;
+    private int mPaletteSize;
+
+    /**
+     * Square showing each facelet, i.e. all the face lists one after the other
+     * */
+    private Square[] mFaceletSquares;
+
+    private SquarePicker mPicker;
+
     /**
      * Pieces are used to draw squares during animation. We keep separate sets of layers for each
      * axis and animate pieces from the selected layer of the appropriate set during rotation.
@@ -111,7 +131,12 @@ public class Cube {
         mLeftSquares = new ArrayList<>();
         mRightSquares = new ArrayList<>();
         mAllFaces = new ArrayList[FACE_COUNT];
+        mPicker = new SquarePicker(squareSize + GAP);
         createAllSquares();
+        createPalette();
+        mFacelets = new FaceletCube(mSizeX, mSizeY, mSizeZ);
+        // The squares were created with the colors of a reset cube
+        mFacelets.clearDirty();
 
         createFaces();
     }
@@ -127,6 +152,82 @@ public class Cube {
         }
     }
 
+    /**
+     * Palette index of each face color is the same as the face index, so that a reset
+     * FaceletCube matches the colors of the squares created by createAllSquares()
+     * */
+    protected void createPalette() {
+        mPalette = new int[MAX_COLORS];
+        mPalette[FACE_FRONT] = COLOR_FRONT;
+        mPalette[FACE_RIGHT] = COLOR_RIGHT;
+        mPalette[FACE_BACK] = COLOR_BACK;
+        mPalette[FACE_LEFT] = COLOR_LEFT;
+        mPalette[FACE_TOP] = COLOR_TOP;
+        mPalette[FACE_BOTTOM] = COLOR_BOTTOM;
+        mPaletteSize = FACE_COUNT;
+    }
+
+    /**
+     * Returns the palette index of the color, adding it to the palette if needed
+     * */
+    protected byte getColorIndex(int color) {
+        for (int i = 0; i < mPaletteSize; i++) {
+            if (mPalette[i] == color) return (byte) i;
+        }
+        if (mPaletteSize == MAX_COLORS) {
+            throw new InvalidParameterException("Too many colors: " + mPaletteSize);
+        }
+        mPalette[mPaletteSize] = color;
+        return (byte) mPaletteSize++;
+    }
+
+    protected int getPaletteColor(byte index) {
+        return mPalette[index];
+    }
+
+    protected int[] getPalette() {
+        return mPalette;
+    }
+
+    protected int getPaletteSize() {
+        return mPaletteSize;
+    }
+
+    /**
+     * Replace the palette. The facelets must be repainted to match it.
+     * */
+    protected void setPalette(int[] colors) {
+        if (colors.length > MAX_COLORS) {
+            throw new InvalidParameterException("Too many colors: " + colors.length);
+        }
+        System.arraycopy(colors, 0, mPalette, 0, colors.length);
+        mPaletteSize = colors.length;
+    }
+
+    /**
+     * Copy the colors of the facelets changed since the last call to the squares.
+     * This is the only place where rotations reach the libgdx objects; it's called once
+     * per frame no matter how many moves were made in between.
+     * */
+    protected void updateSquareColors() {
+        FaceletCube facelets = mFacelets;
+        for (int i = facelets.nextDirty(0); i >= 0; i = facelets.nextDirty(i + 1)) {
+            mFaceletSquares[i].setColor(mPalette[facelets.getFacelet(i)]);
+        }
+        facelets.clearDirty();
+    }
+
+    protected void invalidateSquareColors() {
+        mFacelets.markAllDirty();
+    }
+
+    /**
+     * Returns a copy of the current state that can be rotated without affecting this cube
+     * */
+    public FaceletCube getFacelets() {
+        return new FaceletCube(mFacelets);
+    }
+
     /**
      * Create the squares and store them in their respective lists
      *
@@ -161,6 +262,8 @@ public class Cube {
                 startX,  startY - squareSize, startZ + squareSize,
                 startX,  startY, startZ + squareSize
         };
+        mPicker.addGrid(Axis.X_AXIS, false, vertices, Axis.Y_AXIS, false, Axis.Z_AXIS, true,
+                mSizeY, mSizeZ, mAllSquares.size());
 
         for (int i = 0; i < mSizeY; i++) {
             vertices[1] = startY - i * (squareSize + GAP);
@@ -198,6 +301,8 @@ public class Cube {
                 startX,  startY - squareSize, startZ - squareSize,
                 startX,  startY, startZ - squareSize
         };
+        mPicker.addGrid(Axis.X_AXIS, true, vertices, Axis.Y_AXIS, false, Axis.Z_AXIS, false,
+                mSizeY, mSizeZ, mAllSquares.size());
 
         for (int i = 0; i < mSizeY; i++) {
             vertices[1] = startY - i * (squareSize + GAP);
@@ -235,6 +340,8 @@ public class Cube {
                 startX + squareSize,  startY, startZ + squareSize,
                 startX + squareSize,  startY, startZ
         };
+        mPicker.addGrid(Axis.Y_AXIS, true, vertices, Axis.Z_AXIS, true, Axis.X_AXIS, true,
+                mSizeZ, mSizeX, mAllSquares.size());
 
         for (int i = 0; i < mSizeZ; i++) {
             vertices[2] = startZ + i * (squareSize + GAP);
@@ -272,6 +379,8 @@ public class Cube {
                 startX + squareSize,  startY, startZ - squareSize,
                 startX + squareSize,  startY, startZ
         };
+        mPicker.addGrid(Axis.Y_AXIS, false, vertices, Axis.Z_AXIS, false, Axis.X_AXIS, true,
+                mSizeZ, mSizeX, mAllSquares.size());
 
         for (int i = 0; i < mSizeZ; i++) {
             vertices[2] = startZ - i * (squareSize + GAP);
@@ -308,6 +417,8 @@ public class Cube {
                 startX + squareSize,  startY - squareSize, startZ,
                 startX + squareSize,  startY, startZ
         };
+        mPicker.addGrid(Axis.Z_AXIS, true, vertices, Axis.Y_AXIS, false, Axis.X_AXIS, true,
+                mSizeY, mSizeX, mAllSquares.size());
 
         for (int i = 0; i < mSizeY; i++) {
             vertices[1] = startY - i * (squareSize + GAP);
@@ -344,6 +455,8 @@ public class Cube {
                 startX - squareSize,  startY - squareSize, startZ,
                 startX - squareSize,  startY, startZ
         };
+        mPicker.addGrid(Axis.Z_AXIS, false, vertices, Axis.Y_AXIS, false, Axis.X_AXIS, false,
+                mSizeY, mSizeX, mAllSquares.size());
 
         for (int i = 0; i < mSizeY; i++) {
             vertices[1] = startY - i * (squareSize + GAP);
@@ -369,14 +482,11 @@ public class Cube {
      * */
     private Piece createPieceWithSquares(ArrayList<Square> squares, Piece.PieceType type) {
         Piece piece = null;
-        for (Piece p: mAllPieces) {
-            for (Square sq: squares) {
-                if (p.mSquares.contains(sq)) {
-                    piece = p;
-                    break;
-                }
+        for (Square sq: squares) {
+            if (sq.getPiece() != null) {
+                piece = sq.getPiece();
+                break;
             }
-            if (piece != null) break;
         }
         if (piece == null) {
             piece = new Piece(type);
@@ -384,6 +494,7 @@ public class Cube {
         }
         for (Square sq: squares) {
             piece.addSquare(sq);
+            sq.setPiece(piece);
         }
         return piece;
     }
@@ -393,8 +504,8 @@ public class Cube {
      * corresponding to each dimension (m*axisFaceList). A piece can have anywhere from
      * one to six squares (in a 1x1x1 cube).
      *
-     * To avoid creating duplicate pieces, we store all pieces in a separate list and search it
-     * for any existing pieces with the given square before creating a new one.
+     * To avoid creating duplicate pieces, every square links to its piece, and a new piece is
+     * created only if none of the given squares has one yet.
      *
      * The order of pieces is used in solutions and should not be changed. The outer layers follow
      * the same order as the corresponding face.
@@ -407,6 +518,9 @@ public class Cube {
         mAllFaces[FACE_TOP] = mTopSquares;
         mAllFaces[FACE_BOTTOM] = mBottomSquares;
         mAllPieces = new ArrayList<>();
+        for (Square square: mAllSquares) {
+            square.setPiece(null);
+        }
 
         mXaxisLayers = new ArrayList<>(mSizeX);
         mYaxisLayers = new ArrayList<>(mSizeY);
@@ -614,101 +728,58 @@ public class Cube {
         }
         mZaxisLayers.add(frontFace);
         Log.w(tag, "total pieces: " + mAllPieces.size());
+
+        indexSquares();
     }
 
     /**
-     * Rotate the colors in the border. This is the first part of rotating a layer.
+     * Store the position of every square in the square itself, so that the face, row, column
+     * and layers of a square can be found without searching the lists.
      * */
-    private static void rotateRingColors(ArrayList<ArrayList<Square>> squareList, Direction dir, int size) {
-        ArrayList<ArrayList<Square>> workingCopy;
-        ArrayList<Integer> tempColors = new ArrayList<>(size);
-        ArrayList<Square> dst;
-        ArrayList<Square> src;
-
-        if (dir == Direction.COUNTER_CLOCKWISE) {
-            // input is in clockwise order
-            workingCopy = squareList;
-        } else {
-            // reverse and rotate
-            workingCopy = new ArrayList<>(size);
-            for (int i = 0; i < CUBE_SIDES; i++) {
-                workingCopy.add(squareList.get(CUBE_SIDES - 1 - i));
+    private void indexSquares() {
+        mFaceletSquares = new Square[mAllSquares.size()];
+        int facelet = 0;
+        for (int face = 0; face < FACE_COUNT; face++) {
+            ArrayList<Square> squares = mAllFaces[face];
+            int width = getFaceWidth(face);
+            for (int i = 0; i < squares.size(); i++) {
+                Square square = squares.get(i);
+                square.setPosition(face, i, i / width, i % width);
+                mFaceletSquares[facelet++] = square;
             }
         }
+        indexLayers(Axis.X_AXIS, mXaxisLayers);
+        indexLayers(Axis.Y_AXIS, mYaxisLayers);
+        indexLayers(Axis.Z_AXIS, mZaxisLayers);
+    }
 
-        src = workingCopy.get(0);
-        for (int i = 0; i < size; i++) {
-            tempColors.add(src.get(i).getColor());
-        }
-
-        for (int i = 0; i < CUBE_SIDES - 1; i++) {
-            dst = workingCopy.get(i);
-            src = workingCopy.get(i + 1);
-            for (int j = 0; j < size; j++) {
-                dst.get(j).setColor(src.get(j).getColor());
+    private static void indexLayers(Axis axis, ArrayList<ArrayList<Piece>> layers) {
+        for (int layer = 0; layer < layers.size(); layer++) {
+            for (Piece piece: layers.get(layer)) {
+                for (Square square: piece.mSquares) {
+                    square.setLayer(axis, layer);
+                }
             }
         }
-
-        dst = workingCopy.get(CUBE_SIDES-1);
-        for (int i = 0; i < size; i++) {
-            dst.get(i).setColor(tempColors.get(i));
-        }
     }
 
     /**
-     * Rotate colors of a given face. This is the second part of rotating a face.
-     * This function calls itself recursively to rotate inner squares.
-     *
-     * We cannot use rotateMatrix functions here as we need an in-place update of colors.
+     * Number of squares in a row of the given face
      * */
-    private void rotateFaceColors(ArrayList<Square> squares, Direction direction, int size) {
-        ArrayList<Integer> tempColors = new ArrayList<>(size);
-        if (direction == Direction.COUNTER_CLOCKWISE) {
-            for (int i = 0; i < size - 1; i++) {
-                tempColors.add(squares.get(i).getColor());
-                squares.get(i).setColor(squares.get(i * size + size - 1).getColor());
-            }
-
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(i * size + size - 1).setColor(
-                        squares.get(size * size - 1 - i).getColor());
-            }
-
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(size * size - 1 - i).setColor(
-                        squares.get(size * (size - 1 - i)).getColor());
-            }
+    int getFaceWidth(int face) {
+        return face == FACE_LEFT || face == FACE_RIGHT ? mSizeZ : mSizeX;
+    }
 
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(size * (size - 1 - i)).setColor(tempColors.get(i));
-            }
-        } else {
-            for (int i = 0; i < size - 1; i++) {
-                tempColors.add(squares.get(i).getColor());
-                squares.get(i).setColor(squares.get(size * (size - 1 - i)).getColor());
-            }
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(size * (size - 1 - i)).setColor(
-                        squares.get(size * size - 1 - i).getColor());
-            }
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(size * size - 1 - i).setColor(
-                        squares.get(i * size + size - 1).getColor());
-            }
-            for (int i = 0; i < size - 1; i++) {
-                squares.get(i * size + size - 1).setColor(tempColors.get(i));
-            }
-        }
+    public Square getSquare(int face, int row, int column) {
+        return mAllFaces[face].get(row * getFaceWidth(face) + column);
+    }
 
-        if (size > 3) {
-            ArrayList<Square> subset = new ArrayList<>(size - 2);
-            for (int i = 1; i < size - 1; i++) {
-                for (int j = 1; j < size - 1; j++) {
-                    subset.add(squares.get(i * size + j));
-                }
-            }
-            rotateFaceColors(subset, direction, size - 2);
-        }
+    /**
+     * Index of the square hit by @ray in the list of all squares, or -1 if the ray misses
+     * the cube. This doesn't depend on the number of squares.
+     * */
+    public int getSquareIndex(Ray ray) {
+        return mPicker.pick(ray);
     }
 
     public float getFrontFaceZ() {
@@ -781,202 +852,11 @@ public class Cube {
      * Front face clockwise: (Z, CW, 2)
      * Left face clockwise: (X, CCW, 0)
      * Bottom face clockwise: (Y, CCW, 0)
+     *
+     * Only the facelet state is updated here. Squares are updated in updateSquareColors().
      * */
     protected void rotate(Axis axis, Direction direction, int face) {
-        int maxSize = getAxisSize(axis);
-        if (face >= maxSize) {
-            throw new AssertionError(String.format("face mismsatch %d %d %d: axis %s, face %d",
-                    mSizeX, mSizeY, mSizeZ, axis.toString(), face));
-        }
-
-        int w = 0, h = 0;
-
-        // The face to be rotated (in case we are rotating an edge layer.
-        ArrayList<Square> faceSquares = null;
-
-        // Additional face to be rotated if the dimension along the axis of rotation is 1
-        ArrayList<Square> oppositeFace = null;
-
-        // This list holds the squares from the sides of the layer being rotated
-        ArrayList<ArrayList<Square>> squareList = new ArrayList<>(CUBE_SIDES);
-
-        for (int i = 0; i < CUBE_SIDES; i++) {
-            squareList.add(new ArrayList<Square>());
-        }
-        switch (axis) {
-            case X_AXIS:
-                for (int i = 0; i < mSizeY; i++) {
-                    squareList.get(0).add(mFrontSquares.get(mSizeX * i + face));
-                    squareList.get(2).add(mBackSquares.get((mSizeY - 1 - i) * mSizeX +
-                            (mSizeX - 1 - face)));
-                }
-                for (int i = 0; i < mSizeZ; i++) {
-                    squareList.get(1).add(mTopSquares.get(mSizeX * i + face));
-                    squareList.get(3).add(mBottomSquares.get(mSizeX * i + face));
-                }
-
-                if (face == 0) {
-                    faceSquares = mLeftSquares;
-                } else if (face == mSizeX - 1) {
-                    faceSquares = mRightSquares;
-                }
-                if (mSizeX == 1)
-                    oppositeFace = mRightSquares;
-                w = mSizeZ;
-                h = mSizeY;
-                break;
-
-            case Y_AXIS:
-                for (int i = 0; i < mSizeX; i++) {
-                    squareList.get(0).add(
-                            mFrontSquares.get((mSizeY - 1 - face) * mSizeX + i));
-                    squareList.get(2).add(
-                            mBackSquares.get((mSizeY - 1 - face) * mSizeX + i));
-                }
-                for (int i = 0; i < mSizeZ; i++) {
-                    squareList.get(1).add(
-                            mLeftSquares.get((mSizeY - 1 - face) * mSizeZ + i));
-                    squareList.get(3).add(
-                            mRightSquares.get((mSizeY - 1 - face) * mSizeZ + i));
-                }
-
-                if (face == 0) {
-                    faceSquares = mBottomSquares;
-                } else if (face == mSizeY - 1) {
-                    faceSquares = mTopSquares;
-                }
-                if (mSizeY == 1)
-                    oppositeFace = mTopSquares;
-                w = mSizeX;
-                h = mSizeZ;
-                break;
-
-            case Z_AXIS:
-                for (int i = 0; i < mSizeX; i++) {
-                    squareList.get(0).add(mTopSquares.get(mSizeX * face + i));
-                    squareList.get(2).add(mBottomSquares.get(
-                            mSizeX * (mSizeZ - 1 - face) + mSizeX - 1 - i));
-                }
-                for (int i = 0; i < mSizeY; i++) {
-                    squareList.get(1).add(
-                            mRightSquares.get(mSizeZ * i + mSizeZ - 1 - face));
-                    squareList.get(3).add(
-                            mLeftSquares.get(mSizeZ * (mSizeY - 1 - i) + face));
-                }
-
-                if (face == 0) {
-                    faceSquares = mBackSquares;
-                } else if (face == mSizeZ - 1) {
-                    faceSquares = mFrontSquares;
-                }
-                if (mSizeZ == 1)
-                    oppositeFace = mFrontSquares;
-                w = mSizeX;
-                h = mSizeY;
-                break;
-        }
-
-        boolean symmetric = isSymmetricAroundAxis(axis);
-        if (symmetric) {
-            int size = axis == Axis.X_AXIS ? mSizeY : mSizeX;
-            rotateRingColors(squareList, direction, size);
-
-            if (faceSquares != null) {
-                if (face == 0) {
-                    /**
-                     * Lower layers store colors in opposite direction, and needs to be rotated
-                     * in the opposite direction
-                     * */
-                    rotateFaceColors(faceSquares,
-                            direction == Direction.CLOCKWISE ?
-                                    Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE, size);
-                } else {
-                    // Rotate a face that is on the positive edge of the
-                    // corresponding axis (front, top or right).
-                    // As squares are stored in clockwise order, rotation is straightforward.
-                    rotateFaceColors(faceSquares, direction, size);
-                }
-            }
-
-            /**
-             * "Opposite face" will be always on the positive edge of the axis
-             * */
-            if (oppositeFace != null) {
-                rotateFaceColors(oppositeFace, direction, size);
-            }
-        } else {
-            /**
-             * If not symmetric, rotate 180' along the given axis
-             * */
-            skewedRotateRingColors(squareList);
-            if (faceSquares != null)
-                skewedRotateFaceColors(faceSquares, w, h);
-            if (oppositeFace != null)
-                skewedRotateFaceColors(oppositeFace, w, h);
-        }
-    }
-
-    private static void skewedRotateFaceColors(ArrayList<Square> squares, int w, int h) {
-        /**
-         * If its a single row/column, just reverse the list.
-         * */
-        if (w == 1 || h == 1) {
-            int len = Math.max(w, h);
-            for (int i = 0; i < len / 2; i++) {
-                Square src = squares.get(i);
-                Square dst = squares.get(len - 1 - i);
-                int color = src.getColor();
-                src.setColor(dst.getColor());
-                dst.setColor(color);
-            }
-            return;
-        }
-
-        for (int i = 0; i < w - 1; i++) {
-            Square src = squares.get(i);
-            Square dst = squares.get(w*h - 1 - i);
-            int color = src.getColor();
-            src.setColor(dst.getColor());
-            dst.setColor(color);
-        }
-        for (int i = 1; i < h; i++) {
-            Square src = squares.get(i*w);
-            Square dst = squares.get(w* (h-i) - 1);
-            int color = src.getColor();
-            src.setColor(dst.getColor());
-            dst.setColor(color);
-        }
-        if (w + h <= 6 || w < 3 || h < 3) return;
-        ArrayList<Square> subset = new ArrayList<>();
-        for (int i = 1; i < w - 1; i++) {
-            for (int j = 1; j < h -1; j++) {
-                subset.add(squares.get(j*w + i));
-            }
-        }
-        skewedRotateFaceColors(subset, w-2, h-2);
-    }
-
-    private static void skewedRotateRingColors(ArrayList<ArrayList<Square>> squareList) {
-        ArrayList<ArrayList<Square>> workingCopy;
-        ArrayList<Integer> tempColors = new ArrayList<>();
-        ArrayList<Square> dst;
-        ArrayList<Square> src;
-
-        src = squareList.get(0);
-        dst = squareList.get(2);
-        for (int i = 0; i < src.size(); i++) {
-            int color = src.get(i).getColor();
-            src.get(i).setColor(dst.get(i).getColor());
-            dst.get(i).setColor(color);
-        }
-
-        src = squareList.get(1);
-        dst = squareList.get(3);
-        for (int i = 0; i < src.size(); i++) {
-            int color = src.get(i).getColor();
-            src.get(i).setColor(dst.get(i).getColor());
-            dst.get(i).setColor(color);
-        }
+        mFacelets.rotate(axis, direction, face);
     }
 
     public int getSizeX() {
@@ -1042,7 +922,7 @@ public class Cube {
             }
         }
         createFaces();
-        updateSquareFaces();
+        mFacelets.rotate(axis, direction);
 
         for (Square sq: mAllSquares) {
             sq.rotateCoordinates(x, y, z, angle);
@@ -1135,15 +1015,6 @@ public class Cube {
         mSizeX = temp;
     }
 
-    private void updateSquareFaces() {
-        for (int i = 0; i < FACE_COUNT; i++) {
-            ArrayList<Square> face = mAllFaces[i];
-            for (Square sq: face) {
-                sq.setFace(i);
-            }
-        }
-    }
-
     public static int[] getOrderedFaces(Axis axis) {
         if (axis == Axis.X_AXIS) return orderedFacesXaxis;
         else if (axis == Axis.Y_AXIS) return orderedFacesYaxis;
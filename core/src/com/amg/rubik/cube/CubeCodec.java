@@ -0,0 +1,297 @@
+package com.amg.rubik.cube;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.InvalidParameterException;
+
+/**
+ * Compact snapshots of a cube state.
+ *
+ * Binary layout (little endian):
+ *  short magic, byte format version,
+ *  short sizeX, short sizeY, short sizeZ,
+ *  byte bits per facelet, byte palette size, int color for each palette entry,
+ *  followed by the palette index of every facelet in FaceletCube order, packed with the given
+ *  number of bits starting from the low bits of each byte, and padded to a whole byte.
+ *
+ * With the six colors of a standard cube each facelet takes 3 bits, so a 3x3x3 snapshot is
+ * 56 bytes including the color scheme.
+ *
+ * The 54 character facelet string of a 3x3x3 cube lists the facelets in the URFDLB order used
+ * by most solver tools. Each letter stands for the color of that face in a reset cube, i.e.
+ * 'U' is palette index FACE_TOP and so on, so converting back and forth is lossless for any
+ * cube painted with the six face colors, whatever its orientation.
+ * */
+public final class CubeCodec {
+
+    public static final short MAGIC = 0x4352;   // "RC"
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int FACELET_STRING_LENGTH = 54;
+
+    private static final String faceLetters = "URFDLB";
+
+    /**
+     * Cube face for each of the URFDLB faces
+     * */
+    private static final int[] letterFaces = {
+            Cube.FACE_TOP, Cube.FACE_RIGHT, Cube.FACE_FRONT,
+            Cube.FACE_BOTTOM, Cube.FACE_LEFT, Cube.FACE_BACK
+    };
+
+    // magic, version, sizes, bits, palette size
+    private static final int HEADER_SIZE = 2 + 1 + 3 * 2 + 1 + 1;
+
+    private static final int MAX_SIZE = Short.MAX_VALUE;
+
+    /**
+     * A decoded snapshot: the facelets hold indices into the palette
+     * */
+    public static class Snapshot {
+        public final FaceletCube facelets;
+        public final int[] palette;
+
+        Snapshot(FaceletCube facelets, int[] palette) {
+            this.facelets = facelets;
+            this.palette = palette;
+        }
+    }
+
+    private CubeCodec() {
+    }
+
+    /**
+     * Number of bits needed to store any index into a palette of @paletteSize colors
+     * */
+    public static int getBitsPerFacelet(int paletteSize) {
+        int bits = 1;
+        while ((1 << bits) < paletteSize) bits++;
+        return bits;
+    }
+
+    public static int getEncodedLength(FaceletCube facelets, int paletteSize) {
+        return HEADER_SIZE + paletteSize * 4 +
+                getPackedLength(facelets.getFaceletCount(), getBitsPerFacelet(paletteSize));
+    }
+
+    public static byte[] encode(FaceletCube facelets, int[] palette, int paletteSize) {
+        ByteBuffer buffer = ByteBuffer.allocate(getEncodedLength(facelets, paletteSize));
+        encode(facelets, palette, paletteSize, buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Write the snapshot at the position of @out, which must have getEncodedLength() bytes left.
+     * Callers storing many snapshots can reuse the same buffer.
+     * */
+    public static void encode(FaceletCube facelets, int[] palette, int paletteSize,
+                              ByteBuffer out) {
+        if (paletteSize < 1 || paletteSize > palette.length || paletteSize > 0xFF) {
+            throw new InvalidParameterException("Invalid palette size " + paletteSize);
+        }
+        int sizeX = facelets.getSizeX();
+        int sizeY = facelets.getSizeY();
+        int sizeZ = facelets.getSizeZ();
+        if (sizeX > MAX_SIZE || sizeY > MAX_SIZE || sizeZ > MAX_SIZE) {
+            throw new InvalidParameterException(
+                    String.format("Cube too large: %d %d %d", sizeX, sizeY, sizeZ));
+        }
+        int bitsPerFacelet = getBitsPerFacelet(paletteSize);
+
+        ByteOrder order = out.order();
+        out.order(ByteOrder.LITTLE_ENDIAN);
+        out.putShort(MAGIC);
+        out.put((byte) FORMAT_VERSION);
+        out.putShort((short) sizeX);
+        out.putShort((short) sizeY);
+        out.putShort((short) sizeZ);
+        out.put((byte) bitsPerFacelet);
+        out.put((byte) paletteSize);
+        for (int i = 0; i < paletteSize; i++) {
+            out.putInt(palette[i]);
+        }
+
+        packFacelets(facelets.getFaceletArray(), paletteSize, bitsPerFacelet, out);
+        out.order(order);
+    }
+
+    /**
+     * Number of bytes taken by the facelets of a snapshot, without the header and palette
+     * */
+    static int getPackedLength(int faceletCount, int bitsPerFacelet) {
+        long bits = (long) faceletCount * bitsPerFacelet;
+        return (int) ((bits + 7) >> 3);
+    }
+
+    /**
+     * Write the palette index of every facelet with @bitsPerFacelet bits each, the way snapshots
+     * store them. @colors is in FaceletCube order.
+     * */
+    static void packFacelets(byte[] colors, int paletteSize, int bitsPerFacelet,
+                             ByteBuffer out) {
+        long bits = 0;
+        int bitCount = 0;
+        for (int i = 0; i < colors.length; i++) {
+            int color = colors[i] & 0xFF;
+            if (color < 0 || color >= paletteSize) {
+                throw new InvalidParameterException(
+                        String.format("Facelet %d: color %d not in palette", i, color));
+            }
+            bits |= (long) color << bitCount;
+            bitCount += bitsPerFacelet;
+            while (bitCount >= 8) {
+                out.put((byte) bits);
+                bits >>>= 8;
+                bitCount -= 8;
+            }
+        }
+        if (bitCount > 0) {
+            out.put((byte) bits);
+        }
+    }
+
+    /**
+     * Inverse of packFacelets(), filling @facelets
+     *
+     * @throws BufferUnderflowException if @in is too short
+     * */
+    static void unpackFacelets(ByteBuffer in, int paletteSize, int bitsPerFacelet,
+                               FaceletCube facelets) {
+        long bits = 0;
+        int bitCount = 0;
+        int mask = (1 << bitsPerFacelet) - 1;
+        int count = facelets.getFaceletCount();
+        for (int i = 0; i < count; i++) {
+            while (bitCount < bitsPerFacelet) {
+                bits |= (long) (in.get() & 0xFF) << bitCount;
+                bitCount += 8;
+            }
+            int color = (int) bits & mask;
+            if (color >= paletteSize) {
+                throw new InvalidParameterException(
+                        String.format("Facelet %d: color %d not in palette", i, color));
+            }
+            facelets.setFacelet(i, (byte) color);
+            bits >>>= bitsPerFacelet;
+            bitCount -= bitsPerFacelet;
+        }
+    }
+
+    public static Snapshot decode(byte[] data) {
+        return decode(ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Read a snapshot from the position of @in, leaving it right after the snapshot
+     *
+     * @throws InvalidParameterException if the data is not a valid snapshot
+     * */
+    public static Snapshot decode(ByteBuffer in) {
+        ByteOrder order = in.order();
+        in.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            if (in.getShort() != MAGIC) {
+                throw new InvalidParameterException("Not a cube snapshot");
+            }
+            int version = in.get();
+            if (version != FORMAT_VERSION) {
+                throw new InvalidParameterException("Unsupported snapshot version " + version);
+            }
+            int sizeX = in.getShort();
+            int sizeY = in.getShort();
+            int sizeZ = in.getShort();
+            int bitsPerFacelet = in.get();
+            int paletteSize = in.get() & 0xFF;
+            if (paletteSize < 1 || bitsPerFacelet != getBitsPerFacelet(paletteSize)) {
+                throw new InvalidParameterException(String.format(
+                        "Invalid palette: %d colors, %d bits", paletteSize, bitsPerFacelet));
+            }
+            int[] palette = new int[paletteSize];
+            for (int i = 0; i < paletteSize; i++) {
+                palette[i] = in.getInt();
+            }
+
+            FaceletCube facelets = new FaceletCube(sizeX, sizeY, sizeZ);
+            unpackFacelets(in, paletteSize, bitsPerFacelet, facelets);
+            return new Snapshot(facelets, palette);
+        } catch (BufferUnderflowException e) {
+            throw new InvalidParameterException("Truncated cube snapshot");
+        } finally {
+            in.order(order);
+        }
+    }
+
+    /**
+     * 54 character facelet string of a 3x3x3 cube painted with face indices, the way
+     * FaceletCube :: reset does
+     * */
+    public static String toFaceletString(FaceletCube facelets) {
+        check3x3x3(facelets);
+        StringBuilder builder = new StringBuilder(FACELET_STRING_LENGTH);
+        for (int i = 0; i < FACELET_STRING_LENGTH; i++) {
+            byte color = facelets.getColor(letterFaces[i / 9], i % 9);
+            int letter = -1;
+            for (int face = 0; face < letterFaces.length; face++) {
+                if (letterFaces[face] == color) {
+                    letter = face;
+                    break;
+                }
+            }
+            if (letter < 0) {
+                throw new InvalidParameterException(
+                        String.format("Facelet %d: color %d is not a face color", i, color));
+            }
+            builder.append(faceLetters.charAt(letter));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Inverse of toFaceletString(). Every letter must appear 9 times and the centers must be
+     * different letters; whether the pieces make up a reachable cube is not checked.
+     * */
+    public static FaceletCube fromFaceletString(String colors) {
+        if (!isFaceletString(colors)) {
+            throw new InvalidParameterException("Invalid facelet string: " + colors);
+        }
+        int[] counts = new int[faceLetters.length()];
+        int centers = 0;
+        for (int i = 0; i < FACELET_STRING_LENGTH; i++) {
+            int letter = faceLetters.indexOf(colors.charAt(i));
+            counts[letter]++;
+            if (i % 9 == 4) {
+                centers |= 1 << letter;
+            }
+        }
+        for (int letter = 0; letter < counts.length; letter++) {
+            if (counts[letter] != 9) {
+                throw new InvalidParameterException(String.format("%d facelets of %c in %s",
+                        counts[letter], faceLetters.charAt(letter), colors));
+            }
+        }
+        if (centers != (1 << faceLetters.length()) - 1) {
+            throw new InvalidParameterException("Centers are not six different colors: " + colors);
+        }
+        FaceletCube facelets = new FaceletCube(3);
+        for (int i = 0; i < FACELET_STRING_LENGTH; i++) {
+            int letter = faceLetters.indexOf(colors.charAt(i));
+            facelets.setColor(letterFaces[i / 9], i % 9, (byte) letterFaces[letter]);
+        }
+        return facelets;
+    }
+
+    public static boolean isFaceletString(String colors) {
+        if (colors.length() != FACELET_STRING_LENGTH) return false;
+        for (int i = 0; i < FACELET_STRING_LENGTH; i++) {
+            if (faceLetters.indexOf(colors.charAt(i)) < 0) return false;
+        }
+        return true;
+    }
+
+    private static void check3x3x3(FaceletCube facelets) {
+        if (facelets.getSizeX() != 3 || facelets.getSizeY() != 3 || facelets.getSizeZ() != 3) {
+            throw new InvalidParameterException("Facelet strings are only for 3x3x3");
+        }
+    }
+}
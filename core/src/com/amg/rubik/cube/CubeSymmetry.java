@@ -0,0 +1,523 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+import com.amg.rubik.solver.CubieCube;
+import com.amg.rubik.solver.CubieSymmetry;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Canonical form of a cube state up to the 48 symmetries of the cube and any relabelling of
+ * the colors, so that states which only differ by a whole cube rotation, a mirror image or the
+ * color scheme can be recognized, e.g. to share cached solutions or to drop duplicates in
+ * batch jobs.
+ *
+ * Each symmetry is stored as a precomputed permutation of the facelets, worked out once per
+ * cube size from the layer permutations of FaceletCube. Under a symmetry, the colors are
+ * renumbered in the order they first show up, which takes care of the color scheme; the
+ * canonical form is the smallest of these 48 sequences. Most symmetries differ from the
+ * smallest one so far within the first few facelets, so the comparison usually stops there.
+ *
+ * getKey() returns a 64 bit hash of the canonical form. Equivalent states always get the same
+ * key, but the key is a hash, not a numbering of the states: two different states collide with
+ * a chance of about 1 in 2^64, and from the 4x4x4 on there are far more states than keys
+ * anyway. Use isEquivalent() or compare getCanonicalForm() where a collision would matter.
+ *
+ * The 3x3x3 takes a faster path: its colors are mapped to cubies, whose canonical form is
+ * found by CubieSymmetry with precomputed conjugation tables, and the key is a hash of that.
+ * Mirror images don't map to cubies directly, so they are mirrored back first; states that
+ * aren't made of 3x3x3 pieces at all fall back to the facelets. getCanonicalForm() and
+ * isEquivalent() always compare the facelets.
+ *
+ * getSymmetry() tells which symmetry gave the canonical form, and transform() maps the moves
+ * of a state to the moves of its image under a symmetry. So a solution of the canonical form
+ * can be stored once and mapped back to every state with the same key.
+ *
+ * An instance keeps scratch buffers, so use one per thread; the permutations are shared.
+ * */
+public class CubeSymmetry {
+
+    public static final int SYMMETRY_COUNT = 48;
+
+    private static final Axis[] axes = Axis.values();
+    private static final Direction[] directions = Direction.values();
+
+    // Orderings of the X, Y and Z axes
+    private static final int[][] axisOrders = {
+            {0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}
+    };
+
+    // Reflects the X axis
+    private static final int MIRROR = 1;
+
+    private static final HashMap<Integer, int[][]> sPermutations = new HashMap<>();
+    private static final HashMap<Integer, int[][]> sTurnMaps = new HashMap<>();
+
+    // Symmetry of the product of two symmetries, applying the second one first
+    private static final int[][] sProducts = createProducts();
+    private static final int[] sInverses = createInverses();
+
+    private final int mSize;
+    private final int[][] mPermutations;
+    private final int mFaceletCount;
+    private final CubieSymmetry mCubies;
+    private int[][] mTurnMaps;
+
+    // The smallest numbering so far and the one being compared with it
+    private Numbering mBest;
+    private Numbering mCandidate;
+    private int mStamp;
+    private int mSymmetry;
+    private boolean mMirrored;
+
+    /**
+     * Colors of a cube seen through one symmetry, renumbered in the order they show up, and
+     * worked out only as far as they are needed
+     * */
+    private static final class Numbering {
+        final byte[] form;
+        // Number of each color, valid where stamps matches stamp
+        final byte[] labels = new byte[256];
+        final int[] stamps = new int[256];
+        int[] perm;
+        int symmetry;
+        int stamp;
+        int length;
+        byte next;
+
+        Numbering(int count) {
+            form = new byte[count];
+        }
+
+        void start(int[] perm, int stamp) {
+            this.perm = perm;
+            this.stamp = stamp;
+            length = 0;
+            next = 0;
+        }
+
+        byte extend(byte[] facelets) {
+            int color = facelets[perm[length]] & 0xFF;
+            if (stamps[color] != stamp) {
+                stamps[color] = stamp;
+                labels[color] = next++;
+            }
+            return form[length++] = labels[color];
+        }
+
+        void finish(byte[] facelets) {
+            int count = form.length;
+            byte next = this.next;
+            for (int i = length; i < count; i++) {
+                int color = facelets[perm[i]] & 0xFF;
+                if (stamps[color] != stamp) {
+                    stamps[color] = stamp;
+                    labels[color] = next++;
+                }
+                form[i] = labels[color];
+            }
+            this.next = next;
+            length = count;
+        }
+
+        void clearStamps() {
+            for (int i = 0; i < stamps.length; i++) {
+                stamps[i] = 0;
+            }
+        }
+    }
+
+    public CubeSymmetry(int size) {
+        if (size < 2) {
+            throw new InvalidParameterException("No symmetries for size " + size);
+        }
+        mSize = size;
+        mPermutations = getPermutations(size);
+        mFaceletCount = mPermutations[0].length;
+        mBest = new Numbering(mFaceletCount);
+        mCandidate = new Numbering(mFaceletCount);
+        mCubies = size == 3 ? new CubieSymmetry() : null;
+    }
+
+    private static int[][] getPermutations(int size) {
+        synchronized (sPermutations) {
+            int[][] permutations = sPermutations.get(size);
+            if (permutations == null) {
+                permutations = createPermutations(size);
+                sPermutations.put(size, permutations);
+            }
+            return permutations;
+        }
+    }
+
+    /**
+     * Where each facelet of the image of a @size cube under @symmetry comes from: the image
+     * has the color of facelet perm[i] at facelet i
+     * */
+    public static int[] getPermutation(int size, int symmetry) {
+        return getPermutations(size)[symmetry].clone();
+    }
+
+    /**
+     * Locate every facelet by the layer it is in along each axis, and the axis it faces, then
+     * reflect and swap the axes in all 48 ways.
+     * */
+    private static int[][] createPermutations(int size) {
+        FaceletCube cube = new FaceletCube(size);
+        int count = cube.getFaceletCount();
+        int[][] layers = new int[3][count];
+        for (int axis = 0; axis < 3; axis++) {
+            for (int i = 0; i < count; i++) {
+                layers[axis][i] = -1;
+            }
+            for (int layer = 0; layer < size; layer++) {
+                int[] perm = cube.getLayerPermutation(axes[axis], Direction.CLOCKWISE, layer);
+                for (int i = 0; i < count; i++) {
+                    if (perm[i] != i) layers[axis][i] = layer;
+                }
+            }
+        }
+
+        int[] normals = new int[count];
+        for (int face = 0; face < Cube.FACE_COUNT; face++) {
+            int first = cube.getFaceOffset(face);
+            int last = first + cube.getFaceSize(face) - 1;
+            int normal = -1;
+            for (int axis = 0; axis < 3; axis++) {
+                // The center of an odd face doesn't move with its own layer
+                for (int i = first; i <= last; i++) {
+                    if (layers[axis][i] < 0) layers[axis][i] = layers[axis][first];
+                }
+                if (layers[axis][first] == layers[axis][last]) normal = axis;
+            }
+            for (int i = first; i <= last; i++) {
+                normals[i] = normal;
+            }
+        }
+
+        int[] facelets = new int[size * size * size * 3];
+        for (int i = 0; i < count; i++) {
+            int x = layers[0][i], y = layers[1][i], z = layers[2][i];
+            facelets[((x * size + y) * size + z) * 3 + normals[i]] = i;
+        }
+
+        int[][] permutations = new int[SYMMETRY_COUNT][count];
+        int[] from = new int[3];
+        int[] to = new int[3];
+        for (int s = 0; s < SYMMETRY_COUNT; s++) {
+            int[] order = axisOrders[s / 8];
+            int mirror = s % 8;
+            boolean[] seen = new boolean[count];
+            for (int i = 0; i < count; i++) {
+                int normal = -1;
+                for (int axis = 0; axis < 3; axis++) {
+                    from[axis] = layers[axis][i];
+                }
+                for (int axis = 0; axis < 3; axis++) {
+                    int layer = from[order[axis]];
+                    to[axis] = (mirror & (1 << axis)) != 0 ? size - 1 - layer : layer;
+                    if (order[axis] == normals[i]) normal = axis;
+                }
+                int j = facelets[((to[0] * size + to[1]) * size + to[2]) * 3 + normal];
+                if (seen[j]) {
+                    throw new AssertionError("Symmetry " + s + " maps two facelets to " + j);
+                }
+                seen[j] = true;
+                permutations[s][i] = j;
+            }
+        }
+        return permutations;
+    }
+
+    /**
+     * The symmetries act the same way on every size, so work out their products on the 2x2x2
+     * */
+    private static int[][] createProducts() {
+        int[][] permutations = createPermutations(2);
+        int count = permutations[0].length;
+        int[][] products = new int[SYMMETRY_COUNT][SYMMETRY_COUNT];
+        int[] product = new int[count];
+        for (int a = 0; a < SYMMETRY_COUNT; a++) {
+            for (int b = 0; b < SYMMETRY_COUNT; b++) {
+                // The image under b of the image under a
+                for (int i = 0; i < count; i++) {
+                    product[i] = permutations[a][permutations[b][i]];
+                }
+                products[a][b] = findPermutation(permutations, product);
+            }
+        }
+        return products;
+    }
+
+    private static int[] createInverses() {
+        int[] inverses = new int[SYMMETRY_COUNT];
+        for (int a = 0; a < SYMMETRY_COUNT; a++) {
+            for (int b = 0; b < SYMMETRY_COUNT; b++) {
+                if (sProducts[a][b] == 0) inverses[a] = b;
+            }
+        }
+        return inverses;
+    }
+
+    private static int findPermutation(int[][] permutations, int[] perm) {
+        for (int s = 0; s < permutations.length; s++) {
+            if (Arrays.equals(permutations[s], perm)) return s;
+        }
+        throw new AssertionError("Not a symmetry: " + Arrays.toString(perm));
+    }
+
+    private static int[][] getTurnMaps(int size) {
+        synchronized (sTurnMaps) {
+            int[][] maps = sTurnMaps.get(size);
+            if (maps == null) {
+                maps = createTurnMaps(size);
+                sTurnMaps.put(size, maps);
+            }
+            return maps;
+        }
+    }
+
+    /**
+     * For every symmetry, the layer turn of the image for each layer turn of the cube. Turns
+     * are numbered (axis * 2 + direction) * size + layer.
+     * */
+    private static int[][] createTurnMaps(int size) {
+        FaceletCube cube = new FaceletCube(size);
+        int count = cube.getFaceletCount();
+        int[][] turns = new int[axes.length * directions.length * size][];
+        for (int turn = 0; turn < turns.length; turn++) {
+            int variant = turn / size;
+            turns[turn] = cube.getLayerPermutation(axes[variant / directions.length],
+                    directions[variant % directions.length], turn % size);
+        }
+
+        int[][] permutations = getPermutations(size);
+        int[][] maps = new int[SYMMETRY_COUNT][turns.length];
+        int[] inverse = new int[count];
+        int[] image = new int[count];
+        for (int s = 0; s < SYMMETRY_COUNT; s++) {
+            int[] perm = permutations[s];
+            for (int i = 0; i < count; i++) {
+                inverse[perm[i]] = i;
+            }
+            for (int turn = 0; turn < turns.length; turn++) {
+                // The facelet read from perm[i] moves to where the image reads the target from
+                for (int i = 0; i < count; i++) {
+                    image[i] = inverse[turns[turn][perm[i]]];
+                }
+                maps[s][turn] = findPermutation(turns, image);
+            }
+        }
+        return maps;
+    }
+
+    /**
+     * Compute the canonical form of @cube into mBest. A symmetry is dropped as soon as its
+     * numbering is larger than the best one, which is only extended as far as it is compared.
+     * */
+    private byte[] canonicalize(FaceletCube cube) {
+        checkSize(cube);
+        byte[] facelets = cube.getFaceletArray();
+        int count = mFaceletCount;
+        Numbering best = mBest;
+        Numbering candidate = mCandidate;
+        best.start(mPermutations[0], nextStamp());
+        best.symmetry = 0;
+        best.extend(facelets);
+        for (int s = 1; s < SYMMETRY_COUNT; s++) {
+            int[] perm = mPermutations[s];
+            int stamp = nextStamp();
+            byte[] labels = candidate.labels;
+            int[] stamps = candidate.stamps;
+            byte[] form = candidate.form;
+            byte[] bestForm = best.form;
+            int bestLength = best.length;
+            // The first facelet is always numbered 0
+            int color = facelets[perm[0]] & 0xFF;
+            stamps[color] = stamp;
+            labels[color] = 0;
+            form[0] = 0;
+            byte next = 1;
+            for (int i = 1; i < count; i++) {
+                color = facelets[perm[i]] & 0xFF;
+                byte label;
+                if (stamps[color] == stamp) {
+                    label = labels[color];
+                } else {
+                    stamps[color] = stamp;
+                    label = labels[color] = next++;
+                }
+                form[i] = label;
+                byte other;
+                if (i < bestLength) {
+                    other = bestForm[i];
+                } else {
+                    other = best.extend(facelets);
+                    bestLength++;
+                }
+                if (label != other) {
+                    if (label < other) {
+                        candidate.perm = perm;
+                        candidate.symmetry = s;
+                        candidate.stamp = stamp;
+                        candidate.length = i + 1;
+                        candidate.next = next;
+                        Numbering smaller = candidate;
+                        candidate = best;
+                        best = smaller;
+                    }
+                    break;
+                }
+            }
+        }
+        best.finish(facelets);
+        mBest = best;
+        mCandidate = candidate;
+        mSymmetry = best.symmetry;
+        return best.form;
+    }
+
+    private void checkSize(FaceletCube cube) {
+        if (cube.getSizeX() != mSize || cube.getSizeY() != mSize || cube.getSizeZ() != mSize) {
+            throw new InvalidParameterException("Symmetries are for " + mSize + " layers");
+        }
+    }
+
+    /**
+     * Cubies of a 3x3x3, or of its image under MIRROR if its corners go the wrong way round,
+     * or null if the colors don't make up 3x3x3 pieces at all
+     * */
+    private CubieCube getCubies(FaceletCube cube) {
+        mMirrored = false;
+        try {
+            return new CubieCube(cube);
+        } catch (InvalidParameterException e) {
+            // Try the mirror image
+        }
+        int[] perm = mPermutations[MIRROR];
+        FaceletCube mirror = new FaceletCube(3);
+        for (int i = 0; i < mFaceletCount; i++) {
+            mirror.setFacelet(i, cube.getFacelet(perm[i]));
+        }
+        try {
+            CubieCube cubies = new CubieCube(mirror);
+            mMirrored = true;
+            return cubies;
+        } catch (InvalidParameterException e) {
+            return null;
+        }
+    }
+
+    private int nextStamp() {
+        if (++mStamp == 0) {
+            mBest.clearStamps();
+            mCandidate.clearStamps();
+            mStamp = 1;
+        }
+        return mStamp;
+    }
+
+    /**
+     * 64 bit hash of the canonical form; equal for all the symmetric and recolored versions of
+     * a state
+     * */
+    public long getKey(FaceletCube cube) {
+        if (mCubies != null) {
+            checkSize(cube);
+            CubieCube cubies = getCubies(cube);
+            if (cubies != null) {
+                long key = mCubies.getKey(cubies);
+                mSymmetry = mMirrored ? sProducts[MIRROR][mCubies.getSymmetry()] :
+                        mCubies.getSymmetry();
+                return key;
+            }
+        }
+        byte[] best = canonicalize(cube);
+        long key = mSize;
+        int i = 0;
+        while (i < mFaceletCount) {
+            long word = 0;
+            for (int end = Math.min(i + 8, mFaceletCount); i < end; i++) {
+                word = (word << 8) | best[i];
+            }
+            key = SplitMix64.mix64(key ^ word) + i;
+        }
+        return key;
+    }
+
+    /**
+     * 64 bit hash of the canonical form of a 3x3x3 given by its cubies, the same as
+     * getKey(FaceletCube) of its colors
+     * */
+    public long getKey(CubieCube cube) {
+        if (mCubies == null) {
+            throw new InvalidParameterException("Cubies are for 3 layers, not " + mSize);
+        }
+        long key = mCubies.getKey(cube);
+        mSymmetry = mCubies.getSymmetry();
+        return key;
+    }
+
+    /**
+     * The symmetry whose image of the state is the canonical form, as found by the last
+     * getKey(), getCanonicalForm() or isEquivalent()
+     * */
+    public int getSymmetry() {
+        return mSymmetry;
+    }
+
+    /**
+     * The symmetry that undoes @symmetry
+     * */
+    public static int getInverse(int symmetry) {
+        return sInverses[symmetry];
+    }
+
+    /**
+     * The rotation of the image under @symmetry that matches @rotation of the cube: turning
+     * the cube and taking the image gives the same state as taking the image and turning it.
+     * */
+    public Rotation transform(Rotation rotation, int symmetry) {
+        if (mTurnMaps == null) {
+            mTurnMaps = getTurnMaps(mSize);
+        }
+        int[] map = mTurnMaps[symmetry];
+        int size = mSize;
+        int variant = rotation.axis.ordinal() * directions.length + rotation.direction.ordinal();
+        int first = map[variant * size + rotation.startFace];
+        int last = map[variant * size + rotation.startFace + rotation.faceCount - 1];
+        int image = first / size;
+        return Rotation.get(axes[image / directions.length],
+                directions[image % directions.length],
+                Math.min(first % size, last % size), rotation.faceCount);
+    }
+
+    /**
+     * @see #transform(Rotation, int)
+     * */
+    public Algorithm transform(Algorithm algo, int symmetry) {
+        Algorithm image = new Algorithm();
+        for (int i = 0; i < algo.size(); i++) {
+            image.addStep(transform(algo.getStep(i), symmetry));
+        }
+        return image;
+    }
+
+    /**
+     * The canonical form itself: the renumbered colors of the smallest symmetric version
+     * */
+    public byte[] getCanonicalForm(FaceletCube cube) {
+        return canonicalize(cube).clone();
+    }
+
+    /**
+     * Whether @a and @b are the same state up to symmetry and the color scheme
+     * */
+    public boolean isEquivalent(FaceletCube a, FaceletCube b) {
+        byte[] form = canonicalize(a).clone();
+        return Arrays.equals(form, canonicalize(b));
+    }
+}
@@ -0,0 +1,419 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Headless cube state. All the facelets of the cube are stored in a single byte array as color
+ * indices, one face after the other in the FACE_* order. Squares of a face are stored in the same
+ * top-left to bottom-right order used by the face lists in Cube, so facelet (face, i) always
+ * corresponds to mAllFaces[face].get(i).
+ *
+ * Rotations follow the same semantics as Cube :: rotate, but don't need any libgdx objects.
+ * This makes it usable for batch jobs that run without a display. Each rotation is applied
+ * as a gather over the facelet permutation precomputed in MoveTable for the cube size.
+ *
+ * The meaning of a color index is up to the user. Cube uses them as indices into its palette,
+ * and reset() paints each face with its own face index.
+ *
+ * Every change is recorded in a dirty bitset, so that whoever mirrors the state (the squares
+ * of a Cube) can copy just the changed facelets with nextDirty() and then clearDirty().
+ *
+ * The number of facelets of each color on each face is kept up to date along with the colors,
+ * so isSolved() and isFaceSolved() don't have to look at the facelets. A layer rotation only
+ * updates the counts for the facelets that move to another face.
+ * */
+public class FaceletCube {
+
+    private static final int FACE_COUNT = Cube.FACE_COUNT;
+
+    // Any byte is a valid color index
+    private static final int COLOR_COUNT = 256;
+
+    private int mSizeX;
+    private int mSizeY;
+    private int mSizeZ;
+
+    private byte[] mFacelets;
+    private final int[] mFaceOffsets = new int[FACE_COUNT + 1];
+
+    // Precomputed permutations for the current dimensions; shared by all cubes of this size
+    private MoveTable mTable;
+
+    // Scratch space for the colors moved by a layer rotation
+    private byte[] mScratch;
+
+    // One bit per facelet whose color changed since the last clearDirty()
+    private long[] mDirty;
+
+    // Facelets of each color on each face, indexed by face * COLOR_COUNT + (color & 0xFF)
+    private final int[] mColorCounts;
+
+    // Number of different colors on each face
+    private final int[] mFaceColors;
+
+    // Sum of (colors on the face - 1) over all faces; the cube is solved when this is 0
+    private int mMixedColors;
+
+    public FaceletCube(int size) {
+        this(size, size, size);
+    }
+
+    public FaceletCube(int sizeX, int sizeY, int sizeZ) {
+        if (sizeX < 1 || sizeY < 1 || sizeZ < 1) {
+            throw new InvalidParameterException(
+                    String.format("Invalid size %d %d %d", sizeX, sizeY, sizeZ));
+        }
+        setSize(sizeX, sizeY, sizeZ);
+        mFacelets = new byte[mFaceOffsets[FACE_COUNT]];
+        mDirty = new long[(mFacelets.length + 63) >> 6];
+        mColorCounts = new int[FACE_COUNT * COLOR_COUNT];
+        mFaceColors = new int[FACE_COUNT];
+        countColors();
+        reset();
+    }
+
+    public FaceletCube(FaceletCube that) {
+        setSize(that.mSizeX, that.mSizeY, that.mSizeZ);
+        mFacelets = that.mFacelets.clone();
+        mDirty = new long[(mFacelets.length + 63) >> 6];
+        mColorCounts = that.mColorCounts.clone();
+        mFaceColors = that.mFaceColors.clone();
+        mMixedColors = that.mMixedColors;
+        markAllDirty();
+    }
+
+    private void setSize(int sizeX, int sizeY, int sizeZ) {
+        mSizeX = sizeX;
+        mSizeY = sizeY;
+        mSizeZ = sizeZ;
+        mTable = MoveTable.get(sizeX, sizeY, sizeZ);
+        System.arraycopy(mTable.faceOffsets, 0, mFaceOffsets, 0, mFaceOffsets.length);
+        if (mScratch == null || mScratch.length < mTable.getMaxTouched()) {
+            mScratch = new byte[mTable.getMaxTouched()];
+        }
+    }
+
+    /**
+     * Paint every face with its own face index
+     * */
+    public void reset() {
+        for (int face = 0; face < FACE_COUNT; face++) {
+            fillFace(face, (byte) face);
+        }
+    }
+
+    public void copyFrom(FaceletCube that) {
+        if (that.mSizeX != mSizeX || that.mSizeY != mSizeY || that.mSizeZ != mSizeZ) {
+            setSize(that.mSizeX, that.mSizeY, that.mSizeZ);
+            mFacelets = new byte[that.mFacelets.length];
+            mDirty = new long[(mFacelets.length + 63) >> 6];
+        }
+        System.arraycopy(that.mFacelets, 0, mFacelets, 0, mFacelets.length);
+        System.arraycopy(that.mColorCounts, 0, mColorCounts, 0, mColorCounts.length);
+        System.arraycopy(that.mFaceColors, 0, mFaceColors, 0, FACE_COUNT);
+        mMixedColors = that.mMixedColors;
+        markAllDirty();
+    }
+
+    /**
+     * Rebuild the color counts from the facelets
+     * */
+    private void countColors() {
+        for (int i = 0; i < mColorCounts.length; i++) {
+            mColorCounts[i] = 0;
+        }
+        for (int face = 0; face < FACE_COUNT; face++) {
+            mFaceColors[face] = 0;
+        }
+        mMixedColors = -FACE_COUNT;
+        for (int face = 0; face < FACE_COUNT; face++) {
+            for (int i = mFaceOffsets[face]; i < mFaceOffsets[face + 1]; i++) {
+                addColor(face, mFacelets[i]);
+            }
+        }
+    }
+
+    private void addColor(int face, byte color) {
+        // 1 if the color is new to the face, without a branch the cpu can't predict
+        int added = (mColorCounts[face * COLOR_COUNT + (color & 0xFF)]++ - 1) >>> 31;
+        mFaceColors[face] += added;
+        mMixedColors += added;
+    }
+
+    private void removeColor(int face, byte color) {
+        int removed = (--mColorCounts[face * COLOR_COUNT + (color & 0xFF)] - 1) >>> 31;
+        mFaceColors[face] -= removed;
+        mMixedColors -= removed;
+    }
+
+    public void markDirty(int index) {
+        mDirty[index >> 6] |= 1L << index;
+    }
+
+    public void markAllDirty() {
+        int count = mFacelets.length;
+        for (int i = 0; i < mDirty.length; i++) {
+            mDirty[i] = -1L;
+        }
+        if ((count & 63) != 0) {
+            mDirty[mDirty.length - 1] = (1L << count) - 1;
+        }
+    }
+
+    public boolean isDirty() {
+        for (long word: mDirty) {
+            if (word != 0) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Index of the first changed facelet at or after @from, or -1 if there is none
+     * */
+    public int nextDirty(int from) {
+        int word = from >> 6;
+        if (word >= mDirty.length) return -1;
+        long bits = mDirty[word] & (-1L << from);
+        while (true) {
+            if (bits != 0) {
+                return (word << 6) + Long.numberOfTrailingZeros(bits);
+            }
+            if (++word == mDirty.length) return -1;
+            bits = mDirty[word];
+        }
+    }
+
+    public void clearDirty() {
+        for (int i = 0; i < mDirty.length; i++) {
+            mDirty[i] = 0;
+        }
+    }
+
+    public int getSizeX() {
+        return mSizeX;
+    }
+
+    public int getSizeY() {
+        return mSizeY;
+    }
+
+    public int getSizeZ() {
+        return mSizeZ;
+    }
+
+    public int getAxisSize(Axis axis) {
+        switch (axis) {
+            case X_AXIS: return mSizeX;
+            case Y_AXIS: return mSizeY;
+            case Z_AXIS: return mSizeZ;
+            default: throw new InvalidParameterException();
+        }
+    }
+
+    public boolean isSymmetricAroundAxis(Axis axis) {
+        switch (axis) {
+            case X_AXIS: return mSizeY == mSizeZ;
+            case Y_AXIS: return mSizeX == mSizeZ;
+            case Z_AXIS: return mSizeX == mSizeY;
+            default: throw new InvalidParameterException();
+        }
+    }
+
+    /**
+     * Number of squares in a row of the given face
+     * */
+    public int getFaceWidth(int face) {
+        switch (face) {
+            case Cube.FACE_FRONT:
+            case Cube.FACE_BACK:
+            case Cube.FACE_TOP:
+            case Cube.FACE_BOTTOM:
+                return mSizeX;
+            case Cube.FACE_LEFT:
+            case Cube.FACE_RIGHT:
+                return mSizeZ;
+            default:
+                throw new InvalidParameterException("Whats on face " + face);
+        }
+    }
+
+    /**
+     * Number of rows in the given face
+     * */
+    public int getFaceHeight(int face) {
+        switch (face) {
+            case Cube.FACE_FRONT:
+            case Cube.FACE_BACK:
+            case Cube.FACE_LEFT:
+            case Cube.FACE_RIGHT:
+                return mSizeY;
+            case Cube.FACE_TOP:
+            case Cube.FACE_BOTTOM:
+                return mSizeZ;
+            default:
+                throw new InvalidParameterException("Whats on face " + face);
+        }
+    }
+
+    public int getFaceOffset(int face) {
+        return mFaceOffsets[face];
+    }
+
+    public int getFaceSize(int face) {
+        return mFaceOffsets[face + 1] - mFaceOffsets[face];
+    }
+
+    public int getFaceletCount() {
+        return mFacelets.length;
+    }
+
+    public byte getFacelet(int index) {
+        return mFacelets[index];
+    }
+
+    /**
+     * The colors themselves, for the codecs of this package; not to be modified
+     * */
+    byte[] getFaceletArray() {
+        return mFacelets;
+    }
+
+    public void setFacelet(int index, byte color) {
+        byte old = mFacelets[index];
+        if (old != color) {
+            int face = mTable.faceletFaces[index];
+            removeColor(face, old);
+            addColor(face, color);
+            mFacelets[index] = color;
+        }
+        markDirty(index);
+    }
+
+    public byte getColor(int face, int index) {
+        return mFacelets[mFaceOffsets[face] + index];
+    }
+
+    public void setColor(int face, int index, byte color) {
+        setFacelet(mFaceOffsets[face] + index, color);
+    }
+
+    public void fillFace(int face, byte color) {
+        for (int i = mFaceOffsets[face]; i < mFaceOffsets[face + 1]; i++) {
+            setFacelet(i, color);
+        }
+    }
+
+    public void fill(byte color) {
+        for (int i = 0; i < mFacelets.length; i++) {
+            mFacelets[i] = color;
+        }
+        countColors();
+        markAllDirty();
+    }
+
+    /**
+     * A face is considered solved if all its squares have the same color
+     * */
+    public boolean isFaceSolved(int face) {
+        return mFaceColors[face] == 1;
+    }
+
+    public boolean isSolved() {
+        return mMixedColors == 0;
+    }
+
+    /**
+     * Rotate a single layer. Same semantics as Cube :: rotate(Axis, Direction, int)
+     * The move is applied from the precomputed permutation in MoveTable.
+     * */
+    public void rotate(Axis axis, Direction direction, int layer) {
+        int maxSize = getAxisSize(axis);
+        if (layer < 0 || layer >= maxSize) {
+            throw new AssertionError(String.format("face mismsatch %d %d %d: axis %s, face %d",
+                    mSizeX, mSizeY, mSizeZ, axis.toString(), layer));
+        }
+
+        int move = mTable.moveIndex(axis, direction, layer);
+        int[] sources = mTable.getSources(move);
+        int[] targets = mTable.getTargets(move);
+        byte[] f = mFacelets;
+        byte[] scratch = mScratch;
+        int count = sources.length;
+        for (int i = 0; i < count; i++) {
+            scratch[i] = f[sources[i]];
+        }
+        long[] dirty = mDirty;
+        byte[] faces = mTable.faceletFaces;
+        for (int i = 0; i < count; i++) {
+            int target = targets[i];
+            byte color = scratch[i];
+            f[target] = color;
+            dirty[target >> 6] |= 1L << target;
+            // Facelets turning within a face don't change its colors
+            int from = faces[sources[i]];
+            int to = faces[target];
+            if (from != to) {
+                removeColor(from, color);
+                addColor(to, color);
+            }
+        }
+    }
+
+    /**
+     * Where a single layer rotation takes every facelet: the color at index i moves to index
+     * perm[i]. Solvers use this to follow pieces through a sequence of moves without applying
+     * it to the colors.
+     * */
+    public int[] getLayerPermutation(Axis axis, Direction direction, int layer) {
+        int move = mTable.moveIndex(axis, direction, layer);
+        int[] sources = mTable.getSources(move);
+        int[] targets = mTable.getTargets(move);
+        int[] perm = new int[mFacelets.length];
+        for (int i = 0; i < perm.length; i++) {
+            perm[i] = i;
+        }
+        for (int i = 0; i < sources.length; i++) {
+            perm[sources[i]] = targets[i];
+        }
+        return perm;
+    }
+
+    /**
+     * Apply a rotation the way RubiksCube does when it finishes animating one: all the layers
+     * of the rotation are turned, except that turning every layer around an axis the cube isn't
+     * symmetric around reorients the cube instead.
+     * */
+    public void rotate(Rotation rotation) {
+        if (!isSymmetricAroundAxis(rotation.axis) &&
+                rotation.faceCount == getAxisSize(rotation.axis)) {
+            rotate(rotation.axis, rotation.direction);
+            return;
+        }
+        for (int face = rotation.startFace; face < rotation.startFace + rotation.faceCount;
+             face++) {
+            rotate(rotation.axis, rotation.direction, face);
+        }
+    }
+
+    /**
+     * Rotate the whole cube along the given axis. Same semantics as Cube :: rotate(Axis, Direction)
+     * This reorganizes the faces and swaps the dimensions if the cube is not symmetric.
+     * */
+    public void rotate(Axis axis, Direction direction) {
+        int[] perm = mTable.getWholeCubeRotation(axis, direction);
+        MoveTable rotated = mTable.getRotatedTable(axis);
+        byte[] old = mFacelets;
+        byte[] f = new byte[old.length];
+        for (int i = 0; i < f.length; i++) {
+            f[i] = old[perm[i]];
+        }
+        mFacelets = f;
+        setSize(rotated.sizeX, rotated.sizeY, rotated.sizeZ);
+        countColors();
+        // Faces may have changed their shape, so every index now means a different square
+        markAllDirty();
+    }
+}
@@ -0,0 +1,116 @@
+package com.amg.rubik.cube;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Undo and redo history of the moves made on a cube, stored as Rotation ids in a ring buffer.
+ *
+ * The moves that can be undone are followed by the ones that were undone and can be redone,
+ * oldest first:
+ *
+ *  [ made ... made | undone ... undone ]
+ *                  ^ mCursor
+ *
+ * Making a new move drops the moves after the cursor, and once the history holds @maxDepth
+ * moves the oldest one is overwritten, so every operation is O(1). The buffer starts small and
+ * grows on demand.
+ * */
+class MoveHistory {
+
+    static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private int[] mMoves = new int[INITIAL_CAPACITY];
+    // Ring index of the oldest move
+    private int mStart;
+    // Moves that can be undone
+    private int mCursor;
+    // Moves that can be undone or redone
+    private int mSize;
+    private int mMaxDepth;
+
+    MoveHistory(int maxDepth) {
+        setMaxDepth(maxDepth);
+    }
+
+    /**
+     * Keep at most @maxDepth moves, dropping the oldest ones if there are more
+     * */
+    void setMaxDepth(int maxDepth) {
+        if (maxDepth < 0) {
+            throw new InvalidParameterException("Invalid depth " + maxDepth);
+        }
+        mMaxDepth = maxDepth;
+        if (mSize > maxDepth) {
+            int excess = mSize - maxDepth;
+            mStart = (mStart + excess) % mMoves.length;
+            mSize = maxDepth;
+            mCursor = Math.max(0, mCursor - excess);
+        }
+    }
+
+    int getMaxDepth() {
+        return mMaxDepth;
+    }
+
+    /**
+     * Record a new move, dropping the moves that could be redone
+     * */
+    void push(Rotation rotation) {
+        mSize = mCursor;
+        if (mMaxDepth == 0) return;
+        if (mSize == mMaxDepth) {
+            mStart = (mStart + 1) % mMoves.length;
+            mSize--;
+        } else if (mSize == mMoves.length) {
+            grow();
+        }
+        mMoves[(mStart + mSize) % mMoves.length] = rotation.getId();
+        mSize++;
+        mCursor = mSize;
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min((long) mMoves.length * 2, mMaxDepth);
+        int[] moves = new int[capacity];
+        for (int i = 0; i < mSize; i++) {
+            moves[i] = mMoves[(mStart + i) % mMoves.length];
+        }
+        mMoves = moves;
+        mStart = 0;
+    }
+
+    boolean canUndo() {
+        return mCursor > 0;
+    }
+
+    boolean canRedo() {
+        return mCursor < mSize;
+    }
+
+    /**
+     * The last move made, which has to be reversed to undo it, or null if there is none
+     * */
+    Rotation undo() {
+        if (mCursor == 0) return null;
+        mCursor--;
+        return Rotation.fromId(mMoves[(mStart + mCursor) % mMoves.length]);
+    }
+
+    /**
+     * The last move undone, which has to be made again to redo it, or null if there is none
+     * */
+    Rotation redo() {
+        if (mCursor == mSize) return null;
+        Rotation rotation = Rotation.fromId(mMoves[(mStart + mCursor) % mMoves.length]);
+        mCursor++;
+        return rotation;
+    }
+
+    void clear() {
+        mStart = 0;
+        mCursor = 0;
+        mSize = 0;
+    }
+}
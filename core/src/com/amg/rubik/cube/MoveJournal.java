@@ -0,0 +1,417 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.Log;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.InvalidParameterException;
+
+/**
+ * Append only file of the moves made on a cube, with full state checkpoints in between so that
+ * the state after any move can be rebuilt without replaying the whole history.
+ *
+ * Layout: int magic, int format version (little endian), followed by records until the end of
+ * the file. Every record starts with a varint:
+ *  even value: a move, with Rotation id value / 2
+ *  CHECKPOINT: the state before the next move; varint move index, varint snapshot length and
+ *  the CubeCodec snapshot of the cube
+ *
+ * The journal keeps its own copy of the state at the end of the file, applies every appended
+ * move to it and writes a checkpoint of it every @checkpointInterval moves. Anything else that
+ * changes the cube (painting, resetting, restoring) has to be recorded with checkpoint().
+ *
+ * getState(index) starts from the last checkpoint at or before @index, so it replays at most
+ * @checkpointInterval moves. The checkpoint positions are kept in memory; opening an existing
+ * journal scans its records once to find them, and drops a partially written record at the end.
+ *
+ * Writes are buffered; call flush() or close() to make sure they reach the file. A journal is
+ * not thread safe.
+ * */
+public class MoveJournal implements Closeable {
+
+    private static final String tag = "rubik-journal";
+
+    public static final int MAGIC = 0x4A4B4252;   // "RBKJ"
+    public static final int FORMAT_VERSION = 1;
+
+    public static final int DEFAULT_CHECKPOINT_INTERVAL = 1024;
+
+    private static final int HEADER_SIZE = 8;
+    private static final int CHECKPOINT = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    // Longest varint of a long
+    private static final int MAX_VARINT_SIZE = 10;
+
+    private final RandomAccessFile mFile;
+    private final FileChannel mChannel;
+    private final int mCheckpointInterval;
+    private final ByteBuffer mWriteBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    // Length of the file including the buffered writes
+    private long mLength;
+    private long mMoveCount;
+    private int mMovesSinceCheckpoint;
+
+    private long[] mCheckpointMoves = new long[16];
+    private long[] mCheckpointOffsets = new long[16];
+    private int mCheckpointCount;
+
+    /**
+     * State after the last move, with its palette
+     * */
+    private FaceletCube mState;
+    private int[] mPalette;
+
+    public MoveJournal(File file) throws IOException {
+        this(file, DEFAULT_CHECKPOINT_INTERVAL);
+    }
+
+    /**
+     * Open @file, creating it if it doesn't exist. New moves are appended to the existing ones.
+     * */
+    public MoveJournal(File file, int checkpointInterval) throws IOException {
+        if (checkpointInterval < 1) {
+            throw new InvalidParameterException("Invalid interval " + checkpointInterval);
+        }
+        mCheckpointInterval = checkpointInterval;
+        mFile = new RandomAccessFile(file, "rw");
+        mChannel = mFile.getChannel();
+        try {
+            if (mChannel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(FORMAT_VERSION).flip();
+                writeFully(header, 0);
+                mLength = HEADER_SIZE;
+            } else {
+                readHeader();
+                scan();
+            }
+        } catch (IOException | RuntimeException e) {
+            mFile.close();
+            throw e;
+        }
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (mChannel.read(header, header.position()) < 0) {
+                throw new IOException("Not a move journal");
+            }
+        }
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            throw new IOException("Not a move journal");
+        }
+        int version = header.getInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported journal version " + version);
+        }
+    }
+
+    /**
+     * Rebuild the checkpoint index and the current state from the records in the file
+     * */
+    private void scan() throws IOException {
+        RecordReader reader = new RecordReader(HEADER_SIZE);
+        long end = HEADER_SIZE;
+        try {
+            while (!reader.isAtEnd()) {
+                long value = reader.readVarint();
+                if (value == CHECKPOINT) {
+                    long index = reader.readVarint();
+                    byte[] data = reader.readBytes((int) reader.readVarint());
+                    if (index != mMoveCount) {
+                        throw new IOException("Checkpoint for move " + index + " at " + mMoveCount);
+                    }
+                    CubeCodec.Snapshot snapshot = CubeCodec.decode(data);
+                    addCheckpoint(index, end);
+                    mState = snapshot.facelets;
+                    mPalette = snapshot.palette;
+                    mMovesSinceCheckpoint = 0;
+                } else if ((value & 1) == 0 && mState != null) {
+                    mState.rotate(Rotation.fromId((int) (value >> 1)));
+                    mMoveCount++;
+                    mMovesSinceCheckpoint++;
+                } else {
+                    throw new IOException("Invalid record " + value + " at " + end);
+                }
+                end = reader.getPosition();
+            }
+        } catch (EOFException | InvalidParameterException e) {
+            // Most likely a write that didn't complete; keep everything before it
+            Log.w(tag, "Dropping the end of the journal at " + end + ": " + e.getMessage());
+            mChannel.truncate(end);
+        }
+        mLength = end;
+    }
+
+    public long getMoveCount() {
+        return mMoveCount;
+    }
+
+    public int getCheckpointCount() {
+        return mCheckpointCount;
+    }
+
+    /**
+     * Record the current state of a cube. This has to be done before the first move, and after
+     * every change to the cube that isn't a move.
+     * */
+    public void checkpoint(FaceletCube state, int[] palette, int paletteSize) throws IOException {
+        if (mState == null) {
+            mState = new FaceletCube(state);
+        } else {
+            mState.copyFrom(state);
+        }
+        mPalette = new int[paletteSize];
+        System.arraycopy(palette, 0, mPalette, 0, paletteSize);
+        writeCheckpoint();
+    }
+
+    private void writeCheckpoint() throws IOException {
+        byte[] data = CubeCodec.encode(mState, mPalette, mPalette.length);
+        ByteBuffer record = ByteBuffer.allocate(MAX_VARINT_SIZE * 3 + data.length);
+        putVarint(record, CHECKPOINT);
+        putVarint(record, mMoveCount);
+        putVarint(record, data.length);
+        record.put(data);
+        record.flip();
+
+        addCheckpoint(mMoveCount, mLength);
+        write(record);
+        mMovesSinceCheckpoint = 0;
+    }
+
+    private void addCheckpoint(long index, long offset) {
+        if (mCheckpointCount == mCheckpointMoves.length) {
+            long[] moves = new long[mCheckpointCount * 2];
+            long[] offsets = new long[mCheckpointCount * 2];
+            System.arraycopy(mCheckpointMoves, 0, moves, 0, mCheckpointCount);
+            System.arraycopy(mCheckpointOffsets, 0, offsets, 0, mCheckpointCount);
+            mCheckpointMoves = moves;
+            mCheckpointOffsets = offsets;
+        }
+        mCheckpointMoves[mCheckpointCount] = index;
+        mCheckpointOffsets[mCheckpointCount] = offset;
+        mCheckpointCount++;
+    }
+
+    public void append(Rotation rotation) throws IOException {
+        if (mState == null) {
+            throw new IllegalStateException("No checkpoint to start from");
+        }
+        if (mWriteBuffer.remaining() < MAX_VARINT_SIZE) {
+            flush();
+        }
+        int start = mWriteBuffer.position();
+        putVarint(mWriteBuffer, (long) rotation.getId() << 1);
+        mLength += mWriteBuffer.position() - start;
+
+        mState.rotate(rotation);
+        mMoveCount++;
+        if (++mMovesSinceCheckpoint >= mCheckpointInterval) {
+            writeCheckpoint();
+        }
+    }
+
+    /**
+     * State of the cube after the first @moveIndex moves
+     * */
+    public CubeCodec.Snapshot getState(long moveIndex) throws IOException {
+        if (moveIndex < 0 || moveIndex > mMoveCount) {
+            throw new IndexOutOfBoundsException("Move " + moveIndex + " of " + mMoveCount);
+        }
+        flush();
+        int checkpoint = findCheckpoint(moveIndex);
+        RecordReader reader = new RecordReader(mCheckpointOffsets[checkpoint]);
+        if (reader.readVarint() != CHECKPOINT) {
+            throw new IOException("Checkpoint " + checkpoint + " not found");
+        }
+        long moves = reader.readVarint();
+        CubeCodec.Snapshot snapshot = CubeCodec.decode(reader.readBytes((int) reader.readVarint()));
+        // The next checkpoint is after @moveIndex, so there are only moves in between
+        for (; moves < moveIndex; moves++) {
+            snapshot.facelets.rotate(readMove(reader));
+        }
+        return snapshot;
+    }
+
+    /**
+     * The move made after the first @moveIndex moves
+     * */
+    public Rotation getMove(long moveIndex) throws IOException {
+        if (moveIndex < 0 || moveIndex >= mMoveCount) {
+            throw new IndexOutOfBoundsException("Move " + moveIndex + " of " + mMoveCount);
+        }
+        flush();
+        int checkpoint = findCheckpoint(moveIndex);
+        RecordReader reader = new RecordReader(mCheckpointOffsets[checkpoint]);
+        if (reader.readVarint() != CHECKPOINT) {
+            throw new IOException("Checkpoint " + checkpoint + " not found");
+        }
+        long moves = reader.readVarint();
+        reader.skip(reader.readVarint());
+        for (; moves < moveIndex; moves++) {
+            readMove(reader);
+        }
+        return readMove(reader);
+    }
+
+    private static Rotation readMove(RecordReader reader) throws IOException {
+        long value = reader.readVarint();
+        if ((value & 1) != 0) {
+            throw new IOException("Expected a move, found " + value);
+        }
+        return Rotation.fromId((int) (value >> 1));
+    }
+
+    /**
+     * Last checkpoint at or before @moveIndex
+     * */
+    private int findCheckpoint(long moveIndex) {
+        if (mCheckpointCount == 0 || mCheckpointMoves[0] > moveIndex) {
+            throw new IllegalStateException("No checkpoint before move " + moveIndex);
+        }
+        int low = 0;
+        int high = mCheckpointCount - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (mCheckpointMoves[mid] <= moveIndex) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    private void write(ByteBuffer record) throws IOException {
+        if (record.remaining() > mWriteBuffer.remaining()) {
+            flush();
+        }
+        long length = record.remaining();
+        if (record.remaining() > mWriteBuffer.capacity()) {
+            writeFully(record, mLength);
+        } else {
+            mWriteBuffer.put(record);
+        }
+        mLength += length;
+    }
+
+    public void flush() throws IOException {
+        if (mWriteBuffer.position() == 0) return;
+        mWriteBuffer.flip();
+        writeFully(mWriteBuffer, mLength - mWriteBuffer.remaining());
+        mWriteBuffer.clear();
+    }
+
+    private void writeFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += mChannel.write(buffer, position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            mFile.close();
+        }
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Buffered sequential reads from the file, starting at a given offset
+     * */
+    private class RecordReader {
+        private final ByteBuffer mBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        // File offset of the start of mBuffer
+        private long mBufferOffset;
+
+        RecordReader(long offset) {
+            mBufferOffset = offset;
+            mBuffer.limit(0);
+        }
+
+        long getPosition() {
+            return mBufferOffset + mBuffer.position();
+        }
+
+        boolean isAtEnd() throws IOException {
+            return !mBuffer.hasRemaining() && getPosition() >= mChannel.size();
+        }
+
+        private void fill() throws IOException {
+            mBufferOffset += mBuffer.position();
+            mBuffer.compact();
+            int read = mChannel.read(mBuffer, mBufferOffset + mBuffer.position());
+            mBuffer.flip();
+            if (read <= 0 && !mBuffer.hasRemaining()) {
+                throw new EOFException("Journal ends at " + mBufferOffset);
+            }
+        }
+
+        byte readByte() throws IOException {
+            if (!mBuffer.hasRemaining()) {
+                fill();
+            }
+            return mBuffer.get();
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Invalid varint at " + getPosition());
+        }
+
+        byte[] readBytes(int count) throws IOException {
+            if (count < 0) {
+                throw new IOException("Invalid length " + count);
+            }
+            if (getPosition() + count > mChannel.size()) {
+                throw new EOFException("Journal ends before " + (getPosition() + count));
+            }
+            byte[] data = new byte[count];
+            int done = 0;
+            while (done < count) {
+                if (!mBuffer.hasRemaining()) {
+                    fill();
+                }
+                int n = Math.min(count - done, mBuffer.remaining());
+                mBuffer.get(data, done, n);
+                done += n;
+            }
+            return data;
+        }
+
+        void skip(long count) throws IOException {
+            while (count > 0) {
+                if (!mBuffer.hasRemaining()) {
+                    fill();
+                }
+                int n = (int) Math.min(count, mBuffer.remaining());
+                mBuffer.position(mBuffer.position() + n);
+                count -= n;
+            }
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+import java.util.HashMap;
+
+/**
+ * Precomputed facelet permutations for every (axis, layer, direction) move of a cube size.
+ *
+ * Tables are generated once per size by running the layer rotation logic on facelet indices
+ * instead of colors. Each move is stored as a pair of arrays: after the move, the facelet at
+ * targets[i] holds the color that was at sources[i] before it. Facelets that don't change are
+ * not stored, so applying a move only touches the affected squares.
+ *
+ * Whole cube rotations are stored as full permutations, since they reorganize every face and
+ * may change the dimensions of a skewed cube.
+ * */
+final class MoveTable {
+
+    private static final int FACE_COUNT = Cube.FACE_COUNT;
+
+    private static final HashMap<Long, MoveTable> sTables = new HashMap<>();
+
+    final int sizeX;
+    final int sizeY;
+    final int sizeZ;
+    final int faceletCount;
+
+    // Facelet offset of each face, followed by the total count
+    final int[] faceOffsets = new int[FACE_COUNT + 1];
+
+    // Face of each facelet
+    final byte[] faceletFaces;
+
+    private final int[] mLayerOffsets = new int[3];
+    private final int[][] mSources;
+    private final int[][] mTargets;
+    private int mMaxTouched;
+
+    private final int[][] mWholeCube = new int[3 * 2][];
+
+    /**
+     * Returns the shared table for the given size, creating it if needed
+     * */
+    static MoveTable get(int sizeX, int sizeY, int sizeZ) {
+        Long key = ((long) sizeX << 40) | ((long) sizeY << 20) | sizeZ;
+        synchronized (sTables) {
+            MoveTable table = sTables.get(key);
+            if (table == null) {
+                table = new MoveTable(sizeX, sizeY, sizeZ);
+                sTables.put(key, table);
+            }
+            return table;
+        }
+    }
+
+    private MoveTable(int sizeX, int sizeY, int sizeZ) {
+        this.sizeX = sizeX;
+        this.sizeY = sizeY;
+        this.sizeZ = sizeZ;
+        for (int face = 0; face < FACE_COUNT; face++) {
+            faceOffsets[face + 1] = faceOffsets[face] + faceWidth(face) * faceHeight(face);
+        }
+        faceletCount = faceOffsets[FACE_COUNT];
+        faceletFaces = new byte[faceletCount];
+        for (int face = 0; face < FACE_COUNT; face++) {
+            for (int i = faceOffsets[face]; i < faceOffsets[face + 1]; i++) {
+                faceletFaces[i] = (byte) face;
+            }
+        }
+
+        mLayerOffsets[0] = 0;
+        mLayerOffsets[1] = sizeX;
+        mLayerOffsets[2] = sizeX + sizeY;
+        int moveCount = (sizeX + sizeY + sizeZ) * 2;
+        mSources = new int[moveCount][];
+        mTargets = new int[moveCount][];
+
+        int[] labels = new int[faceletCount];
+        for (Axis axis: Axis.values()) {
+            int size = getAxisSize(axis);
+            for (int layer = 0; layer < size; layer++) {
+                for (Direction direction: Direction.values()) {
+                    for (int i = 0; i < faceletCount; i++) {
+                        labels[i] = i;
+                    }
+                    rotateLayer(labels, axis, direction, layer);
+                    storeMove(moveIndex(axis, direction, layer), labels);
+                }
+            }
+        }
+    }
+
+    private void storeMove(int index, int[] labels) {
+        int count = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] != i) count++;
+        }
+        int[] sources = new int[count];
+        int[] targets = new int[count];
+        count = 0;
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] != i) {
+                sources[count] = labels[i];
+                targets[count] = i;
+                count++;
+            }
+        }
+        mSources[index] = sources;
+        mTargets[index] = targets;
+        mMaxTouched = Math.max(mMaxTouched, count);
+    }
+
+    int moveIndex(Axis axis, Direction direction, int layer) {
+        return (mLayerOffsets[axis.ordinal()] + layer) * 2 + direction.ordinal();
+    }
+
+    int[] getSources(int moveIndex) {
+        return mSources[moveIndex];
+    }
+
+    int[] getTargets(int moveIndex) {
+        return mTargets[moveIndex];
+    }
+
+    /**
+     * Largest number of facelets changed by a single layer rotation
+     * */
+    int getMaxTouched() {
+        return mMaxTouched;
+    }
+
+    int getAxisSize(Axis axis) {
+        switch (axis) {
+            case X_AXIS: return sizeX;
+            case Y_AXIS: return sizeY;
+            default: return sizeZ;
+        }
+    }
+
+    boolean isSymmetricAroundAxis(Axis axis) {
+        switch (axis) {
+            case X_AXIS: return sizeY == sizeZ;
+            case Y_AXIS: return sizeX == sizeZ;
+            default: return sizeX == sizeY;
+        }
+    }
+
+    int faceWidth(int face) {
+        return (face == Cube.FACE_LEFT || face == Cube.FACE_RIGHT) ? sizeZ : sizeX;
+    }
+
+    int faceHeight(int face) {
+        return (face == Cube.FACE_TOP || face == Cube.FACE_BOTTOM) ? sizeZ : sizeY;
+    }
+
+    /**
+     * Dimensions of the cube after rotating it as a whole along the axis
+     * */
+    MoveTable getRotatedTable(Axis axis) {
+        switch (axis) {
+            case X_AXIS: return get(sizeX, sizeZ, sizeY);
+            case Y_AXIS: return get(sizeZ, sizeY, sizeX);
+            default: return get(sizeY, sizeX, sizeZ);
+        }
+    }
+
+    /**
+     * Full permutation for rotating the whole cube: the new facelet i gets the color of the
+     * old facelet perm[i]. The result has the dimensions of getRotatedTable(axis).
+     * */
+    synchronized int[] getWholeCubeRotation(Axis axis, Direction direction) {
+        int index = axis.ordinal() * 2 + direction.ordinal();
+        if (mWholeCube[index] == null) {
+            mWholeCube[index] = createWholeCubeRotation(axis, direction);
+        }
+        return mWholeCube[index];
+    }
+
+    /**
+     * Rotate the layer specified by @layer and @axis. The labels are moved around the same way
+     * Cube :: rotate moved the colors of the squares.
+     * */
+    private void rotateLayer(int[] labels, Axis axis, Direction direction, int layer) {
+        int w = 0, h = 0;
+        int ringLength = 0;
+        int altRingLength = 0;
+
+        // The face to be rotated, if we are rotating an edge layer
+        int face = -1;
+
+        // Additional face to be rotated if the dimension along the axis of rotation is 1
+        int oppositeFace = -1;
+
+        int maxSize = Math.max(Math.max(sizeX, sizeY), sizeZ);
+        int[][] rings = new int[Cube.CUBE_SIDES][maxSize];
+        int[] ring0 = rings[0];
+        int[] ring1 = rings[1];
+        int[] ring2 = rings[2];
+        int[] ring3 = rings[3];
+
+        final int front = faceOffsets[Cube.FACE_FRONT];
+        final int back = faceOffsets[Cube.FACE_BACK];
+        final int left = faceOffsets[Cube.FACE_LEFT];
+        final int right = faceOffsets[Cube.FACE_RIGHT];
+        final int top = faceOffsets[Cube.FACE_TOP];
+        final int bottom = faceOffsets[Cube.FACE_BOTTOM];
+
+        switch (axis) {
+            case X_AXIS:
+                for (int i = 0; i < sizeY; i++) {
+                    ring0[i] = front + sizeX * i + layer;
+                    ring2[i] = back + (sizeY - 1 - i) * sizeX + (sizeX - 1 - layer);
+                }
+                for (int i = 0; i < sizeZ; i++) {
+                    ring1[i] = top + sizeX * i + layer;
+                    ring3[i] = bottom + sizeX * i + layer;
+                }
+                ringLength = sizeY;
+                altRingLength = sizeZ;
+
+                if (layer == 0) {
+                    face = Cube.FACE_LEFT;
+                } else if (layer == sizeX - 1) {
+                    face = Cube.FACE_RIGHT;
+                }
+                if (sizeX == 1)
+                    oppositeFace = Cube.FACE_RIGHT;
+                w = sizeZ;
+                h = sizeY;
+                break;
+
+            case Y_AXIS:
+                for (int i = 0; i < sizeX; i++) {
+                    ring0[i] = front + (sizeY - 1 - layer) * sizeX + i;
+                    ring2[i] = back + (sizeY - 1 - layer) * sizeX + i;
+                }
+                for (int i = 0; i < sizeZ; i++) {
+                    ring1[i] = left + (sizeY - 1 - layer) * sizeZ + i;
+                    ring3[i] = right + (sizeY - 1 - layer) * sizeZ + i;
+                }
+                ringLength = sizeX;
+                altRingLength = sizeZ;
+
+                if (layer == 0) {
+                    face = Cube.FACE_BOTTOM;
+                } else if (layer == sizeY - 1) {
+                    face = Cube.FACE_TOP;
+                }
+                if (sizeY == 1)
+                    oppositeFace = Cube.FACE_TOP;
+                w = sizeX;
+                h = sizeZ;
+                break;
+
+            case Z_AXIS:
+                for (int i = 0; i < sizeX; i++) {
+                    ring0[i] = top + sizeX * layer + i;
+                    ring2[i] = bottom + sizeX * (sizeZ - 1 - layer) + sizeX - 1 - i;
+                }
+                for (int i = 0; i < sizeY; i++) {
+                    ring1[i] = right + sizeZ * i + sizeZ - 1 - layer;
+                    ring3[i] = left + sizeZ * (sizeY - 1 - i) + layer;
+                }
+                ringLength = sizeX;
+                altRingLength = sizeY;
+
+                if (layer == 0) {
+                    face = Cube.FACE_BACK;
+                } else if (layer == sizeZ - 1) {
+                    face = Cube.FACE_FRONT;
+                }
+                if (sizeZ == 1)
+                    oppositeFace = Cube.FACE_FRONT;
+                w = sizeX;
+                h = sizeY;
+                break;
+        }
+
+        if (isSymmetricAroundAxis(axis)) {
+            rotateRing(labels, rings, direction, ringLength);
+
+            if (face >= 0) {
+                // Lower layers store colors in opposite direction
+                Direction faceDirection = direction;
+                if (layer == 0) {
+                    faceDirection = direction == Direction.CLOCKWISE ?
+                            Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
+                }
+                rotateFace(labels, faceOffsets[face], faceDirection, ringLength);
+            }
+
+            // "Opposite face" will be always on the positive edge of the axis
+            if (oppositeFace >= 0) {
+                rotateFace(labels, faceOffsets[oppositeFace], direction, ringLength);
+            }
+        } else {
+            // If not symmetric, rotate 180' along the given axis
+            swapRings(labels, ring0, ring2, ringLength);
+            swapRings(labels, ring1, ring3, altRingLength);
+            if (face >= 0)
+                reverseFace(labels, faceOffsets[face], w * h);
+            if (oppositeFace >= 0)
+                reverseFace(labels, faceOffsets[oppositeFace], w * h);
+        }
+    }
+
+    /**
+     * Rotate the labels in the border. Rings are in clockwise order.
+     * */
+    private static void rotateRing(int[] f, int[][] rings, Direction direction, int size) {
+        int[] ring0 = rings[0];
+        int[] ring1 = rings[1];
+        int[] ring2 = rings[2];
+        int[] ring3 = rings[3];
+        if (direction == Direction.COUNTER_CLOCKWISE) {
+            for (int i = 0; i < size; i++) {
+                int temp = f[ring0[i]];
+                f[ring0[i]] = f[ring1[i]];
+                f[ring1[i]] = f[ring2[i]];
+                f[ring2[i]] = f[ring3[i]];
+                f[ring3[i]] = temp;
+            }
+        } else {
+            for (int i = 0; i < size; i++) {
+                int temp = f[ring3[i]];
+                f[ring3[i]] = f[ring2[i]];
+                f[ring2[i]] = f[ring1[i]];
+                f[ring1[i]] = f[ring0[i]];
+                f[ring0[i]] = temp;
+            }
+        }
+    }
+
+    /**
+     * Rotate the labels of a square face, one concentric ring at a time.
+     * */
+    private static void rotateFace(int[] f, int offset, Direction direction, int size) {
+        for (int r = 0; size - 2 * r >= 2; r++) {
+            int m = size - 2 * r;
+            int base = offset + r * size + r;
+            for (int i = 0; i < m - 1; i++) {
+                int a = base + i;                               // (0, i)
+                int b = base + (m - 1 - i) * size;              // (m-1-i, 0)
+                int c = base + (m - 1) * size + (m - 1 - i);    // (m-1, m-1-i)
+                int d = base + i * size + (m - 1);              // (i, m-1)
+                int temp = f[a];
+                if (direction == Direction.CLOCKWISE) {
+                    f[a] = f[b];
+                    f[b] = f[c];
+                    f[c] = f[d];
+                    f[d] = temp;
+                } else {
+                    f[a] = f[d];
+                    f[d] = f[c];
+                    f[c] = f[b];
+                    f[b] = temp;
+                }
+            }
+        }
+    }
+
+    private static void swapRings(int[] f, int[] src, int[] dst, int size) {
+        for (int i = 0; i < size; i++) {
+            int temp = f[src[i]];
+            f[src[i]] = f[dst[i]];
+            f[dst[i]] = temp;
+        }
+    }
+
+    /**
+     * 180' rotation of a face is the same as reversing its squares.
+     * */
+    private static void reverseFace(int[] f, int offset, int count) {
+        for (int i = 0; i < count / 2; i++) {
+            int temp = f[offset + i];
+            f[offset + i] = f[offset + count - 1 - i];
+            f[offset + count - 1 - i] = temp;
+        }
+    }
+
+    private int[] createWholeCubeRotation(Axis axis, Direction direction) {
+        // TOO lazy to write reverse functions; just rotate thrice for CCW
+        int count = direction == Direction.COUNTER_CLOCKWISE ? 3 : 1;
+        int[][] faces = new int[FACE_COUNT][];
+        for (int face = 0; face < FACE_COUNT; face++) {
+            faces[face] = new int[faceOffsets[face + 1] - faceOffsets[face]];
+            for (int i = 0; i < faces[face].length; i++) {
+                faces[face][i] = faceOffsets[face] + i;
+            }
+        }
+
+        int x = sizeX, y = sizeY, z = sizeZ;
+        for (int i = 0; i < count; i++) {
+            int temp;
+            switch (axis) {
+                case X_AXIS:
+                    rotateFacesX(faces, x, y, z);
+                    temp = y;
+                    y = z;
+                    z = temp;
+                    break;
+                case Y_AXIS:
+                    rotateFacesY(faces, x, y, z);
+                    temp = x;
+                    x = z;
+                    z = temp;
+                    break;
+                case Z_AXIS:
+                    rotateFacesZ(faces, x, y, z);
+                    temp = y;
+                    y = x;
+                    x = temp;
+                    break;
+            }
+        }
+
+        int[] perm = new int[faceletCount];
+        int k = 0;
+        for (int face = 0; face < FACE_COUNT; face++) {
+            for (int i = 0; i < faces[face].length; i++) {
+                perm[k++] = faces[face][i];
+            }
+        }
+        return perm;
+    }
+
+    /**
+     * The following functions mirror Cube :: rotateCubeX/Y/Z on facelet indices
+     * */
+    private static void rotateFacesX(int[][] faces, int x, int y, int z) {
+        int[] tempFace = faces[Cube.FACE_TOP];
+        int[] back = faces[Cube.FACE_BACK];
+        faces[Cube.FACE_TOP] = faces[Cube.FACE_FRONT];
+        faces[Cube.FACE_FRONT] = faces[Cube.FACE_BOTTOM];
+
+        int[] bottom = new int[back.length];
+        int k = 0;
+        for (int i = y - 1; i >= 0; i--) {
+            for (int j = x - 1; j >= 0; j--) {
+                bottom[k++] = back[i * x + j];
+            }
+        }
+        faces[Cube.FACE_BOTTOM] = bottom;
+
+        int[] newBack = new int[tempFace.length];
+        k = 0;
+        for (int i = z - 1; i >= 0; i--) {
+            for (int j = x - 1; j >= 0; j--) {
+                newBack[k++] = tempFace[i * x + j];
+            }
+        }
+        faces[Cube.FACE_BACK] = newBack;
+
+        faces[Cube.FACE_RIGHT] = rotateMatrix(faces[Cube.FACE_RIGHT], z, y);
+        faces[Cube.FACE_LEFT] = rotateMatrixCCW(faces[Cube.FACE_LEFT], z, y);
+    }
+
+    private static void rotateFacesY(int[][] faces, int x, int y, int z) {
+        int[] tempFace = faces[Cube.FACE_FRONT];
+        faces[Cube.FACE_FRONT] = faces[Cube.FACE_RIGHT];
+        faces[Cube.FACE_RIGHT] = faces[Cube.FACE_BACK];
+        faces[Cube.FACE_BACK] = faces[Cube.FACE_LEFT];
+        faces[Cube.FACE_LEFT] = tempFace;
+        faces[Cube.FACE_TOP] = rotateMatrix(faces[Cube.FACE_TOP], x, z);
+        faces[Cube.FACE_BOTTOM] = rotateMatrixCCW(faces[Cube.FACE_BOTTOM], x, z);
+    }
+
+    private static void rotateFacesZ(int[][] faces, int x, int y, int z) {
+        int[] tempFace = faces[Cube.FACE_TOP];
+        faces[Cube.FACE_TOP] = rotateMatrix(faces[Cube.FACE_LEFT], z, y);
+        faces[Cube.FACE_LEFT] = rotateMatrix(faces[Cube.FACE_BOTTOM], x, z);
+        faces[Cube.FACE_BOTTOM] = rotateMatrix(faces[Cube.FACE_RIGHT], z, y);
+        faces[Cube.FACE_RIGHT] = rotateMatrix(tempFace, x, z);
+        faces[Cube.FACE_FRONT] = rotateMatrix(faces[Cube.FACE_FRONT], x, y);
+        faces[Cube.FACE_BACK] = rotateMatrixCCW(faces[Cube.FACE_BACK], x, y);
+    }
+
+    private static int[] rotateMatrix(int[] matrix, int w, int h) {
+        int[] rotated = new int[matrix.length];
+        int k = 0;
+        for (int i = 0; i < w; i++) {
+            for (int j = h; j > 0; j--) {
+                rotated[k++] = matrix[(j - 1) * w + i];
+            }
+        }
+        return rotated;
+    }
+
+    private static int[] rotateMatrixCCW(int[] matrix, int w, int h) {
+        int[] rotated = new int[matrix.length];
+        int k = 0;
+        for (int i = w - 1; i >= 0; i--) {
+            for (int j = 0; j < h; j++) {
+                rotated[k++] = matrix[j * w + i];
+            }
+        }
+        return rotated;
+    }
+}
@@ -3,104 +3,159 @@ package com.amg.rubik.cube;
 import com.amg.rubik.graphics.Axis;
 import com.amg.rubik.graphics.Direction;
 
+import java.security.InvalidParameterException;
+
 /**
  * Note that the direction is relative to positive direction of the mentioned axis, and not
  * the visible side of face. This is against the normal cube notation where direction is
  * usually mentioned relative to the face being rotated.
  *
+ * Rotations are immutable and interned: there is exactly one instance for each combination
+ * of axis, direction and layers, obtained with get() or fromId(). The animation state lives
+ * in RotationAnimator, so replaying an algorithm doesn't allocate anything.
+ *
+ * Every rotation has a small integer id. Ids of the rotations that fit in a cube of size N are
+ * exactly 0 .. getCount(N) - 1, so tables indexed by id work for any cube size, and the
+ * reverse of a rotation always has the id (id ^ 1).
+ *
  * @see Cube :: rotate(Axis axis, Direction direction, int face)
  * */
 public class Rotation {
 
-    private boolean status;
-    Axis axis;
-    Direction direction;
+    private static final Axis[] axes = Axis.values();
+    private static final Direction[] directions = Direction.values();
+
+    // Rotations per (first layer, layer count) pair
+    private static final int VARIANTS = axes.length * directions.length;
 
     /**
-     * To support simultaneous rotating of multiple faces in higher order cubes
+     * Interned instances indexed by id. The array is replaced, never modified, when it grows.
      * */
-    int startFace;
-    int faceCount;
-    float angle;
+    private static volatile Rotation[] sTable = new Rotation[0];
 
-    public Rotation() {
-        reset();
-    }
+    final Axis axis;
+    final Direction direction;
 
-    public Rotation(Axis axis, Direction dir, int face, int faceCount) {
-        this(axis, dir, face);
-        this.faceCount = faceCount;
-    }
+    /**
+     * To support simultaneous rotating of multiple faces in higher order cubes
+     * */
+    final int startFace;
+    final int faceCount;
+
+    private final int mId;
 
-    public Rotation(Axis axis, Direction dir, int face) {
-        reset();
+    private Rotation(int id, Axis axis, Direction dir, int face, int faceCount) {
+        this.mId = id;
         this.axis = axis;
         this.direction = dir;
         this.startFace = face;
-        this.angle = 0;
-    }
-
-    Rotation duplicate() {
-        Rotation dup = new Rotation(axis, direction, startFace, faceCount);
-        return dup;
+        this.faceCount = faceCount;
     }
 
-    public Rotation getReverse() {
-        Rotation rot = duplicate();
-        rot.direction = rot.direction == Direction.CLOCKWISE ?
-                Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
-        return rot;
+    public static Rotation get(Axis axis, Direction dir, int face) {
+        return get(axis, dir, face, 1);
     }
 
-    void reset() {
-        status = false;
-        axis = Axis.Z_AXIS;
-        direction = Direction.CLOCKWISE;
-        startFace = 0;
-        faceCount = 1;
-        angle = 0;
+    public static Rotation get(Axis axis, Direction dir, int face, int faceCount) {
+        return fromId(getId(axis, dir, face, faceCount));
     }
 
-    @Override
-    public String toString() {
-        String axes = "XYZ";
-        return "Axis " + axes.charAt(axis.ordinal()) +
-                ", direction " + direction +
-                ", face " + startFace +
-                (faceCount > 1 ? " faces " + faceCount : "");
+    public static Rotation fromId(int id) {
+        Rotation[] table = sTable;
+        if (id >= 0 && id < table.length) {
+            return table[id];
+        }
+        if (id < 0) {
+            throw new InvalidParameterException("Invalid rotation id " + id);
+        }
+        return grow(id);
     }
 
-    public void setAxis(Axis axis) {
-        this.axis = axis;
+    public static int getId(Axis axis, Direction dir, int face, int faceCount) {
+        if (face < 0 || faceCount < 1) {
+            throw new InvalidParameterException(
+                    String.format("Invalid layers: face %d, count %d", face, faceCount));
+        }
+        int end = face + faceCount;
+        return (getCount(end - 1) / VARIANTS + face) * VARIANTS +
+                axis.ordinal() * directions.length + dir.ordinal();
     }
 
-    public void setStartFace(int startFace) {
-        this.startFace = startFace;
+    /**
+     * Number of distinct rotations of a cube with @size layers along each axis
+     * */
+    public static int getCount(int size) {
+        return VARIANTS * size * (size + 1) / 2;
     }
 
-    void increment(float angleDelta, float max_angle) {
-        if (direction == Direction.CLOCKWISE) {
-            angle -= angleDelta;
-            if (angle < -max_angle) {
-                angle = -max_angle;
-            }
-        } else {
-            angle += angleDelta;
-            if (angle > max_angle) {
-                angle = max_angle;
+    private static synchronized Rotation grow(int id) {
+        Rotation[] table = sTable;
+        if (id < table.length) {
+            return table[id];
+        }
+        int size = 1;
+        while (getCount(size) <= id) size++;
+        // Leave some room so that growing one layer at a time doesn't copy all the time
+        size = Math.max(size, 2 * (int) Math.sqrt(2 * table.length / VARIANTS));
+
+        Rotation[] grown = new Rotation[getCount(size)];
+        System.arraycopy(table, 0, grown, 0, table.length);
+        for (int end = 1; end <= size; end++) {
+            for (int face = 0; face < end; face++) {
+                for (Axis axis: axes) {
+                    for (Direction dir: directions) {
+                        int index = getId(axis, dir, face, end - face);
+                        if (grown[index] == null) {
+                            grown[index] = new Rotation(index, axis, dir, face, end - face);
+                        }
+                    }
+                }
             }
         }
+        sTable = grown;
+        return grown[id];
     }
 
-    public void setFaceCount(int faceCount) {
-        this.faceCount = faceCount;
+    public int getId() {
+        return mId;
+    }
+
+    public Axis getAxis() {
+        return axis;
+    }
+
+    public Direction getDirection() {
+        return direction;
+    }
+
+    public int getStartFace() {
+        return startFace;
+    }
+
+    public int getFaceCount() {
+        return faceCount;
     }
 
-    public boolean getStatus() {
-        return status;
+    public Rotation getReverse() {
+        return fromId(mId ^ 1);
     }
 
-    public void start() {
-        status = true;
+    /**
+     * Same rotation with the layers clipped to a cube of @size layers, or null if none of
+     * the layers is part of it
+     * */
+    Rotation clip(int size) {
+        if (startFace >= size) return null;
+        if (startFace + faceCount <= size) return this;
+        return get(axis, direction, startFace, size - startFace);
+    }
+
+    @Override
+    public String toString() {
+        String axes = "XYZ";
+        return "Axis " + axes.charAt(axis.ordinal()) +
+                ", direction " + direction +
+                ", face " + startFace +
+                (faceCount > 1 ? " faces " + faceCount : "");
     }
 }
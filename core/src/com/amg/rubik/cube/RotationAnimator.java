@@ -0,0 +1,68 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+/**
+ * Animation state of the rotation being drawn: the rotation itself, which is immutable, and
+ * the angle it has turned so far. A cube needs only one of these; starting the next rotation
+ * just swaps the descriptor and resets the angle.
+ * */
+class RotationAnimator {
+
+    private static final Rotation idle = Rotation.get(Axis.Z_AXIS, Direction.CLOCKWISE, 0);
+
+    private Rotation mRotation = idle;
+    private boolean mStatus;
+    private float mAngle;
+
+    void start(Rotation rotation) {
+        mRotation = rotation;
+        mAngle = 0;
+        mStatus = true;
+    }
+
+    /**
+     * Turn the same rotation once more from the beginning
+     * */
+    void restart() {
+        start(mRotation);
+    }
+
+    void reset() {
+        mRotation = idle;
+        mAngle = 0;
+        mStatus = false;
+    }
+
+    Rotation getRotation() {
+        return mRotation;
+    }
+
+    boolean getStatus() {
+        return mStatus;
+    }
+
+    float getAngle() {
+        return mAngle;
+    }
+
+    void increment(float angleDelta, float max_angle) {
+        if (mRotation.direction == Direction.CLOCKWISE) {
+            mAngle -= angleDelta;
+            if (mAngle < -max_angle) {
+                mAngle = -max_angle;
+            }
+        } else {
+            mAngle += angleDelta;
+            if (mAngle > max_angle) {
+                mAngle = max_angle;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return mRotation + ", angle " + mAngle;
+    }
+}
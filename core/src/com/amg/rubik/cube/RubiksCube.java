@@ -1,5 +1,6 @@
 package com.amg.rubik.cube;
 
+import java.io.IOException;
 import java.security.InvalidParameterException;
 import java.util.ArrayList;
 import java.util.Random;
@@ -9,6 +10,11 @@ import com.amg.rubik.Log;
 import com.amg.rubik.graphics.Axis;
 import com.amg.rubik.graphics.CubeRenderer;
 import com.amg.rubik.graphics.Direction;
+import com.amg.rubik.solver.CubieCube;
+import com.amg.rubik.solver.PocketCubeSolver;
+import com.amg.rubik.solver.ReductionSolver;
+import com.amg.rubik.solver.TwoPhaseSolver;
+import com.badlogic.gdx.utils.Base64Coder;
 
 /**
  *
@@ -43,7 +49,7 @@ public class RubiksCube extends Cube {
     static final float ANGLE_DELTA_NORMAL = 4f;
     static final float ANGLE_DELTA_FAST = 10f;
 
-    private static final int MAX_UNDO_COUNT = 40;
+    private static final int DEFAULT_UNDO_DEPTH = MoveHistory.UNLIMITED;
 
     public enum CubeState {
         IDLE,
@@ -55,7 +61,7 @@ public class RubiksCube extends Cube {
 
     protected CubeListener mListener = null;
     protected CubeState mState = CubeState.IDLE;
-    private Rotation mRotation;
+    private final RotationAnimator mAnimator = new RotationAnimator();
 
     enum RotateMode {
         NONE,
@@ -69,6 +75,9 @@ public class RubiksCube extends Cube {
 
     private Algorithm mCurrentAlgo;
 
+    // Set while solve(Algorithm) plays a solution; the cube goes idle when it is done
+    private boolean mPlayingSolution;
+
     /**
      * The value can be used to grade the solving speed during manual and automated modes.
      * It doesn't mean much during manual solving right now as the user can invoke machine
@@ -79,9 +88,9 @@ public class RubiksCube extends Cube {
     int mMoveCount;
 
     /**
-     * Stores past @MAX_UNDO_COUNT moves to perform undo
+     * Moves that can be undone and redone, up to the undo depth
      * */
-    private ArrayList<Rotation> mUndoStack;
+    private MoveHistory mHistory;
     private boolean mUndoingFlag = false;
 
     /**
@@ -89,12 +98,28 @@ public class RubiksCube extends Cube {
      * */
     private ArrayList<Rotation> mRandomizedMoves;
 
+    /**
+     * Source of the moves of randomize(), shared by all the scrambles of this cube
+     * */
+    private Random mRandom = new Random();
+
     private CubeRenderer mRenderer;
 
+    /**
+     * Records every move made on the cube. Changes that aren't moves only set
+     * mJournalStale, and a checkpoint is written before the next move.
+     * */
+    private MoveJournal mJournal;
+    private boolean mJournalStale;
+
+    private SolutionCache mSolutionCache;
+
+    // Keys of the cache on cubes with all sides equal
+    private CubeSymmetry mSymmetry;
+
     private void init() {
         mCurrentAlgo = null;
-        mRotation = new Rotation();
-        mUndoStack = new ArrayList<>();
+        mHistory = new MoveHistory(DEFAULT_UNDO_DEPTH);
         mRandomizedMoves = new ArrayList<>();
         mMoveCount = 0;
     }
@@ -113,22 +138,106 @@ public class RubiksCube extends Cube {
         mRenderer = renderer;
     }
 
+    /**
+     * Append every move made from now on to @journal, starting with a checkpoint of the current
+     * state. Pass null to stop; the previous journal is flushed, but not closed.
+     * */
+    public void setJournal(MoveJournal journal) {
+        if (mJournal != null) {
+            try {
+                if (mJournalStale) {
+                    writeJournalCheckpoint();
+                }
+                mJournal.flush();
+            } catch (IOException e) {
+                Log.e(tag, "Journal error: " + e);
+            }
+        }
+        mJournal = journal;
+        mJournalStale = true;
+        if (mJournal != null) {
+            try {
+                writeJournalCheckpoint();
+            } catch (IOException e) {
+                Log.e(tag, "Journal error: " + e);
+                mJournal = null;
+            }
+        }
+    }
+
+    private void writeJournalCheckpoint() throws IOException {
+        mJournal.checkpoint(mFacelets, getPalette(), getPaletteSize());
+        mJournalStale = false;
+    }
+
+    /**
+     * Called with every move, before applying it to mFacelets
+     * */
+    private void journalMove(Rotation rotation) {
+        if (mJournal == null) return;
+        try {
+            if (mJournalStale) {
+                writeJournalCheckpoint();
+            }
+            mJournal.append(rotation);
+        } catch (IOException e) {
+            Log.e(tag, "Journal error, stopped recording moves: " + e);
+            mJournal = null;
+        }
+    }
+
+    /**
+     * Restore the colors saved by getColorString(). A 3x3x3 cube also accepts the 54 character
+     * facelet string returned by getFaceletString().
+     *
+     * @throws InvalidParameterException if @colors is not a state of this cube, e.g. a facelet
+     * string without 9 of each letter
+     * @see CubeCodec
+     * */
     public void restoreColors(String colors) {
-        // TODO:
-//        int expectedLength = FACE_COUNT * mCubeSize * mCubeSize;
-//        if (colors.length() != expectedLength) {
-//            throw new InvalidParameterException(
-//                    String.format("Squares: Expected %d for size %d, got %d",
-//                            expectedLength, mCubeSize, colors.length()));
-//        }
+        if (CubeCodec.isFaceletString(colors) &&
+                getSizeX() == 3 && getSizeY() == 3 && getSizeZ() == 3) {
+            mFacelets.copyFrom(CubeCodec.fromFaceletString(colors));
+            // Letters stand for the face colors of a reset cube
+            createPalette();
+            mJournalStale = true;
+            updateSquareColors();
+            return;
+        }
+
+        CubeCodec.Snapshot snapshot;
+        try {
+            snapshot = CubeCodec.decode(Base64Coder.decode(colors));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidParameterException("Invalid color string: " + e.getMessage());
+        }
+        FaceletCube facelets = snapshot.facelets;
+        if (facelets.getSizeX() != getSizeX() || facelets.getSizeY() != getSizeY() ||
+                facelets.getSizeZ() != getSizeZ()) {
+            throw new InvalidParameterException(
+                    String.format("Expected size %d %d %d, got %d %d %d",
+                            getSizeX(), getSizeY(), getSizeZ(),
+                            facelets.getSizeX(), facelets.getSizeY(), facelets.getSizeZ()));
+        }
+        setPalette(snapshot.palette);
+        mFacelets.copyFrom(facelets);
+        mJournalStale = true;
+        updateSquareColors();
     }
 
     /**
-     * TODO: Serialize and deserialize the cube state
-     * Implement these two functions
+     * Base64 of the compact binary snapshot of the colors and the color scheme
      * */
     public String getColorString() {
-        return  null;
+        return new String(Base64Coder.encode(
+                CubeCodec.encode(mFacelets, getPalette(), getPaletteSize())));
+    }
+
+    /**
+     * 54 character facelet string of a 3x3x3 cube painted with the default face colors
+     * */
+    public String getFaceletString() {
+        return CubeCodec.toFaceletString(mFacelets);
     }
 
     public CubeState getState() {
@@ -155,8 +264,9 @@ public class RubiksCube extends Cube {
 
         reset();
         for (Rotation r: mRandomizedMoves) {
-            rotate(r.axis, r.direction, r.startFace);
+            turn(r);
         }
+        mJournalStale = true;
 
         Algorithm algorithm = new Algorithm();
         for (int i = mRandomizedMoves.size() - 1; i >= 0; i--) {
@@ -174,30 +284,52 @@ public class RubiksCube extends Cube {
      * */
     public void randomize(int count) {
         Rotation rotation = null;
-        Random random = new Random();
-        Axis[] axes = new Axis[] {Axis.X_AXIS, Axis.Y_AXIS, Axis.Z_AXIS};
         mRandomizedMoves.clear();
 
         for (int i = 0; i < count; i++) {
-            Axis axis = axes[Math.abs(random.nextInt(3))];
-            Direction direction = random.nextBoolean() ?
-                    Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
-            int size = getAxisSize(axis);
-            int startFace = Math.abs(random.nextInt(size));
-
-            // Avoid undo-ing moves
-            if (i > 0 && rotation.axis == axis && rotation.startFace == startFace &&
-                    rotation.direction != direction) {
-                i--;
-                continue;
+            rotation = ScrambleGenerator.randomMove(mRandom, getAxisSize(Axis.X_AXIS),
+                    getAxisSize(Axis.Y_AXIS), getAxisSize(Axis.Z_AXIS), rotation);
+            journalMove(rotation);
+            rotate(rotation.axis, rotation.direction, rotation.startFace);
+            mRandomizedMoves.add(rotation);
+        }
+
+        mMoveCount = 0;
+        clearUndoStack();
+        updateSquareColors();
+    }
+
+    /**
+     * Use @random for the moves of randomize(), e.g. a SplitMix64 with a fixed seed to get the
+     * same scrambles on every run
+     * */
+    public void setRandom(Random random) {
+        mRandom = random;
+    }
+
+    /**
+     * Apply the moves of @scramble instantly, the same way randomize(int) applies its random
+     * moves, so that helpMe() can reveal them afterwards.
+     * */
+    public void randomize(Algorithm scramble) {
+        if (mState != CubeState.IDLE) {
+            Log.e(tag, "invalid state for randomize " + mState);
+            return;
+        }
+        mRandomizedMoves.clear();
+        for (int i = 0; i < scramble.size(); i++) {
+            Rotation step = scramble.getStep(i);
+            Rotation rotation = step.clip(getAxisSize(step.axis));
+            if (rotation == null) {
+                throw new InvalidParameterException("Scramble doesn't fit the cube: " + step);
             }
-            rotation = new Rotation(axis, direction, startFace);
-            rotate(axis, direction, startFace);
+            applyRotation(rotation);
             mRandomizedMoves.add(rotation);
         }
 
         mMoveCount = 0;
         clearUndoStack();
+        updateSquareColors();
     }
 
     /**
@@ -214,7 +346,7 @@ public class RubiksCube extends Cube {
         clearUndoStack();
         rotateMode = RotateMode.RANDOM;
         mState = CubeState.RANDOMIZE;
-        mRotation.start();
+        mAnimator.restart();
     }
 
     public void stopRandomize() {
@@ -224,7 +356,7 @@ public class RubiksCube extends Cube {
         }
         rotateMode = RotateMode.NONE;
         finishRotation();
-        mRotation.reset();
+        mAnimator.reset();
         mState = CubeState.IDLE;
         mMoveCount = 0;
     }
@@ -240,9 +372,171 @@ public class RubiksCube extends Cube {
         Log.w(tag, str);
     }
 
+    /**
+     * Animate the solution of computeSolution()
+     * */
     public int solve() {
-        sendMessage("Robots can solve only 3x3 cubes right now");
-        return -1;
+        if (mState != CubeState.IDLE) {
+            sendMessage("Invalid state to solve: " + mState);
+            return -1;
+        }
+        Algorithm solution = computeSolution();
+        if (solution == null) {
+            sendMessage("Robots can't solve this cube yet");
+            return -1;
+        }
+        return solve(solution);
+    }
+
+    /**
+     * Animate a precomputed solution, usually the one returned by computeSolution()
+     * */
+    public int solve(Algorithm solution) {
+        if (mState != CubeState.IDLE) {
+            sendMessage("Invalid state to solve: " + mState);
+            return -1;
+        }
+        clearUndoStack();
+        mState = CubeState.SOLVING;
+        // Not startSolving(), which starts the step by step methods of the subclasses
+        mMoveCount = 0;
+        if (solution.size() == 0) {
+            mState = CubeState.IDLE;
+            sendMessage("Already solved");
+            return 0;
+        }
+        sendMessage("Solving in " + countMoves(solution) + " moves");
+        mPlayingSolution = true;
+        solution.rewind();
+        setAlgo(solution);
+        return 0;
+    }
+
+    /**
+     * Computes the complete solution for the current state without animating anything.
+     * A solution found in the cache set with setSolutionCache() is returned right away, and new
+     * solutions are added to it.
+     *
+     * @return null if the cube is busy or can't be solved
+     * */
+    public Algorithm computeSolution() {
+        if (mState != CubeState.IDLE) {
+            Log.w(tag, "Cannot compute solution in state " + mState);
+            return null;
+        }
+        Algorithm solution = getCachedSolution();
+        if (solution == null) {
+            solution = findSolution();
+        }
+        return solution;
+    }
+
+    /**
+     * Solve the current state, ignoring the cache, and add the solution to the cache with
+     * cacheSolution().
+     * The 2x2x2 is solved optimally from the distance table of PocketCubeSolver, the 3x3x3 with
+     * TwoPhaseSolver and cubes of 4 or more layers with the reduction method of ReductionSolver.
+     *
+     * @return null if the cube can't be solved
+     * */
+    protected Algorithm findSolution() {
+        int size = getSizeX();
+        if (getSizeY() != size || getSizeZ() != size) {
+            return null;
+        }
+        Algorithm solution;
+        if (size >= ReductionSolver.MIN_SIZE) {
+            solution = ReductionSolver.get(size).solve(mFacelets);
+        } else if (size == 2) {
+            int[] moves;
+            try {
+                moves = PocketCubeSolver.solve(mFacelets);
+            } catch (InvalidParameterException e) {
+                Log.w(tag, "Cannot solve 2x2x2: " + e.getMessage());
+                return null;
+            }
+            Log.d(tag, "2x2x2 solution: " + TwoPhaseSolver.toString(moves));
+            solution = TwoPhaseSolver.toAlgorithm(moves, size);
+        } else if (size == 3) {
+            int[] moves;
+            try {
+                moves = new TwoPhaseSolver().solve(new CubieCube(mFacelets));
+            } catch (InvalidParameterException e) {
+                Log.w(tag, "Cannot map cube to cubies: " + e.getMessage());
+                return null;
+            }
+            if (moves == null) {
+                return null;
+            }
+            Log.d(tag, "Two phase solution: " + TwoPhaseSolver.toString(moves));
+            solution = TwoPhaseSolver.toAlgorithm(moves, size);
+        } else {
+            return null;
+        }
+        cacheSolution(solution);
+        return solution;
+    }
+
+    /**
+     * Share solutions through @cache, e.g. one loaded with SolutionCache :: load. Pass null to
+     * solve every state from scratch.
+     * */
+    public void setSolutionCache(SolutionCache cache) {
+        mSolutionCache = cache;
+        int size = getSizeX();
+        if (cache != null && mSymmetry == null && size >= 2 &&
+                getSizeY() == size && getSizeZ() == size) {
+            mSymmetry = new CubeSymmetry(size);
+        }
+    }
+
+    public SolutionCache getSolutionCache() {
+        return mSolutionCache;
+    }
+
+    /**
+     * Key of the current state in the solution cache. On a cube this is the CubeSymmetry key,
+     * so that rotated, mirrored and recolored versions of a state share an entry, which
+     * solves the canonical form; a cuboid is keyed by its color string.
+     * */
+    protected String getSolutionKey() {
+        if (mSymmetry == null) {
+            return getColorString();
+        }
+        return getSizeX() + ":" + Long.toHexString(mSymmetry.getKey(mFacelets));
+    }
+
+    protected Algorithm getCachedSolution() {
+        if (mSolutionCache == null) return null;
+        Algorithm solution = mSolutionCache.get(getSolutionKey());
+        if (solution == null) return null;
+        if (mSymmetry != null) {
+            // Map the solution of the canonical form back, and make sure the key didn't
+            // collide with another state's
+            solution = mSymmetry.transform(solution,
+                    CubeSymmetry.getInverse(mSymmetry.getSymmetry()));
+            FaceletCube facelets = getFacelets();
+            solution.applyTo(facelets);
+            if (!facelets.isSolved()) {
+                Log.w(tag, "Cached solution doesn't solve the cube");
+                return null;
+            }
+        }
+        Log.d(tag, "Cached solution: " + mSolutionCache);
+        return solution;
+    }
+
+    /**
+     * Add @solution of the current state under getSolutionKey(). Only pass solutions that
+     * the key stands for, e.g. not a fallback of a method that failed.
+     * */
+    protected void cacheSolution(Algorithm solution) {
+        if (mSolutionCache == null || solution == null) return;
+        String key = getSolutionKey();
+        if (mSymmetry != null) {
+            solution = mSymmetry.transform(solution, mSymmetry.getSymmetry());
+        }
+        mSolutionCache.put(key, solution);
     }
 
     public void setListener(CubeListener listener) {
@@ -254,39 +548,27 @@ public class RubiksCube extends Cube {
      * the colors of squares according to the Rotation in progress.
      * */
     private void finishRotation() {
-        /**
-         * If 90' rotation of a single face is not possible along the given axis, and we are
-         * rotating all layers along that axis, just reorient the cube.
-         * */
-        boolean symmetryFlag = isSymmetricAroundAxis(mRotation.axis);
-        if (symmetryFlag == false && mRotation.faceCount == getAxisSize(mRotation.axis)) {
-            rotate(mRotation.axis, mRotation.direction);
-        } else {
-            for (int face = mRotation.startFace;
-                 face < mRotation.startFace + mRotation.faceCount;
-                 face++) {
-                rotate(mRotation.axis, mRotation.direction, face);
-            }
-        }
+        Rotation rotation = mAnimator.getRotation();
+        applyRotation(rotation);
+        updateSquareColors();
 
         /**
          * Exclude whole cube rotations from the count
          * */
-        if (mUndoingFlag == false && mRotation.faceCount != getAxisSize(mRotation.axis)) mMoveCount++;
+        if (mUndoingFlag == false && rotation.faceCount != getAxisSize(rotation.axis)) mMoveCount++;
 
         if (mUndoingFlag) {
             mUndoingFlag = false;
-            if (mRotation.faceCount != getAxisSize(mRotation.axis)) mMoveCount--;
+            if (rotation.faceCount != getAxisSize(rotation.axis)) mMoveCount--;
         }
 
         switch (rotateMode) {
             case ALGORITHM:
                 if (mCurrentAlgo.isDone()) {
-                    mRotation.reset();
+                    mAnimator.reset();
                     updateAlgo();
                 } else {
-                    mRotation = mCurrentAlgo.getNextStep();
-                    mRotation.start();
+                    mAnimator.start(mCurrentAlgo.getNextStep());
                 }
                 break;
 
@@ -299,7 +581,7 @@ public class RubiksCube extends Cube {
                 break;
 
             default:
-                mRotation.reset();
+                mAnimator.reset();
                 rotateMode = RotateMode.NONE;
                 mState = CubeState.IDLE;
                 break;
@@ -314,34 +596,54 @@ public class RubiksCube extends Cube {
         }
     }
 
+    private void applyRotation(Rotation rotation) {
+        journalMove(rotation);
+        turn(rotation);
+    }
+
+    /**
+     * Update the state for a finished rotation, without recording it anywhere.
+     *
+     * If 90' rotation of a single face is not possible along the given axis, and we are
+     * rotating all layers along that axis, just reorient the cube.
+     * */
+    private void turn(Rotation rotation) {
+        boolean symmetryFlag = isSymmetricAroundAxis(rotation.axis);
+        if (symmetryFlag == false && rotation.faceCount == getAxisSize(rotation.axis)) {
+            rotate(rotation.axis, rotation.direction);
+        } else {
+            for (int face = rotation.startFace;
+                 face < rotation.startFace + rotation.faceCount;
+                 face++) {
+                rotate(rotation.axis, rotation.direction, face);
+            }
+        }
+    }
+
     protected void updateAlgo() {
         rotateMode = RotateMode.NONE;
-        mRotation.reset();
+        mAnimator.reset();
         mCurrentAlgo = null;
         if (mState == CubeState.TESTING || mState == CubeState.HELPING) {
             mState = CubeState.IDLE;
         }
+        if (mPlayingSolution) {
+            // Listener is notified once the cube is idle and solved
+            mPlayingSolution = false;
+            mState = CubeState.IDLE;
+        }
     }
 
     private void repeatRotation() {
-        mRotation.angle = 0;
-        mRotation.start();
+        mAnimator.restart();
     }
 
     /**
      * @see public void randomize(int count);
      * */
     private void rotateRandom() {
-        mRotation.reset();
-        Random random = new Random();
-        Axis[] axes = new Axis[] {Axis.X_AXIS,
-                Axis.Y_AXIS, Axis.Z_AXIS};
-        mRotation.setAxis(axes[Math.abs(random.nextInt(3))]);
-        mRotation.direction = random.nextBoolean() ?
-                Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
-        int size = getAxisSize(mRotation.axis);
-        mRotation.setStartFace(Math.abs(random.nextInt(size)));
-        mRotation.start();
+        mAnimator.start(ScrambleGenerator.randomMove(mRandom, getAxisSize(Axis.X_AXIS),
+                getAxisSize(Axis.Y_AXIS), getAxisSize(Axis.Z_AXIS), null));
     }
 
     private void drawCube() {
@@ -351,22 +653,24 @@ public class RubiksCube extends Cube {
     }
 
     public void draw() {
+        updateSquareColors();
 
         if (rotateMode == RotateMode.NONE ||
-                mRotation.getStatus() == false) {
+                mAnimator.getStatus() == false) {
             drawCube();
             return;
         }
 
         ArrayList<ArrayList<Piece>> faceList;
-        int axisSize = getAxisSize(mRotation.axis);
+        Rotation rotation = mAnimator.getRotation();
+        int axisSize = getAxisSize(rotation.axis);
 
-        float angle = mRotation.angle;
+        float angle = mAnimator.getAngle();
         float angleX = 0;
         float angleY = 0;
         float angleZ = 0;
 
-        switch (mRotation.axis) {
+        switch (rotation.axis) {
             case X_AXIS:
                 angleX = 1;
                 faceList = mXaxisLayers;
@@ -380,11 +684,11 @@ public class RubiksCube extends Cube {
                 faceList = mZaxisLayers;
                 break;
             default:
-                throw new RuntimeException("What is " + mRotation.axis);
+                throw new RuntimeException("What is " + rotation.axis);
         }
 
         try {
-            for (int i = 0; i < mRotation.startFace; i++) {
+            for (int i = 0; i < rotation.startFace; i++) {
                 ArrayList<Piece> pieces = faceList.get(i);
                 for (Piece piece : pieces) {
                     for (Square square : piece.mSquares) {
@@ -393,8 +697,8 @@ public class RubiksCube extends Cube {
                 }
             }
 
-            for (int i = 0; i < mRotation.faceCount; i++) {
-                ArrayList<Piece> pieces = faceList.get(mRotation.startFace + i);
+            for (int i = 0; i < rotation.faceCount; i++) {
+                ArrayList<Piece> pieces = faceList.get(rotation.startFace + i);
                 for (Piece piece : pieces) {
                     for (Square square : piece.mSquares) {
                         mRenderer.drawSquare(square, angle, angleX, angleY, angleZ);
@@ -402,7 +706,7 @@ public class RubiksCube extends Cube {
                 }
             }
 
-            for (int i = mRotation.startFace + mRotation.faceCount; i < axisSize; i++) {
+            for (int i = rotation.startFace + rotation.faceCount; i < axisSize; i++) {
                 ArrayList<Piece> pieces = faceList.get(i);
                 for (Piece piece : pieces) {
                     for (Square square : piece.mSquares) {
@@ -412,7 +716,7 @@ public class RubiksCube extends Cube {
             }
         } catch (Exception e) {
             Log.e(tag, String.format("Exc in rot %s for sizes %d %d %d",
-                    mRotation.toString(), getSizeX(), getSizeY(), getSizeY()));
+                    mAnimator.toString(), getSizeX(), getSizeY(), getSizeY()));
             throw e;
         }
     }
@@ -420,14 +724,15 @@ public class RubiksCube extends Cube {
     public void onNextFrame()
     {
         if (rotateMode == RotateMode.NONE ||
-                mRotation.getStatus() == false) {
+                mAnimator.getStatus() == false) {
             return;
         }
 
-        int axisSize = getAxisSize(mRotation.axis);
-        boolean symmetric = isSymmetricAroundAxis(mRotation.axis);
+        Rotation rotation = mAnimator.getRotation();
+        int axisSize = getAxisSize(rotation.axis);
+        boolean symmetric = isSymmetricAroundAxis(rotation.axis);
         float max_angle = symmetric ? 90f : 180f;
-        if (mRotation.faceCount == axisSize) {
+        if (rotation.faceCount == axisSize) {
             /**
              * Even if it isn't symmetric, we can do half rotations if
              * we are rotating the whole cube. @finishRotation takes care of this.
@@ -435,29 +740,15 @@ public class RubiksCube extends Cube {
             max_angle = 90f;
         }
 
-        if (Math.abs(mRotation.angle) > max_angle - 0.01f) {
+        if (Math.abs(mAnimator.getAngle()) > max_angle - 0.01f) {
             finishRotation();
         } else {
-            mRotation.increment(mAngleDelta, max_angle);
-        }
-    }
-
-    private boolean checkFace(ArrayList<Square> squares) {
-        int centerColor = squares.get(squares.size()/2).getColor();
-        for (int i = 0; i < squares.size(); i++) {
-            if (squares.get(i).getColor() != centerColor)
-                return false;
+            mAnimator.increment(mAngleDelta, max_angle);
         }
-        return true;
     }
 
     protected boolean isSolved() {
-        return checkFace(mTopSquares) &&
-                checkFace(mLeftSquares) &&
-                checkFace(mFrontSquares) &&
-                checkFace(mRightSquares) &&
-                checkFace(mBackSquares) &&
-                checkFace(mBottomSquares);
+        return mFacelets.isSolved();
     }
 
     protected void setAlgo(Algorithm algo) {
@@ -470,9 +761,8 @@ public class RubiksCube extends Cube {
             throw new IllegalStateException("Invalid state for algos: " + mState);
         }
         mCurrentAlgo = algo;
-        mRotation = algo.getNextStep();
         rotateMode = RotateMode.ALGORITHM;
-        mRotation.start();
+        mAnimator.start(algo.getNextStep());
     }
 
     public void rotate(Rotation rotation) {
@@ -484,25 +774,16 @@ public class RubiksCube extends Cube {
             Log.w(tag, "Cannot rotate in mode " + rotateMode);
             return;
         }
-        int size = getAxisSize(rotation.axis);
-        if (rotation.startFace + rotation.faceCount > size) {
-            /**
-             * TODO: Throw exception instead of correcting the value
-             * */
-            rotation.faceCount = size - rotation.startFace;
-//            throw new InvalidParameterException(
-//                   String.format("size %d, rotation %s", size, rotation.toString()));
-        }
-        if (rotation.startFace >= size) {
+        /**
+         * TODO: Throw exception instead of correcting the value
+         * */
+        rotation = rotation.clip(getAxisSize(rotation.axis));
+        if (rotation == null) {
             return;
         }
         rotateMode = RotateMode.MANUAL;
-        mRotation = rotation.duplicate();
-        if (mUndoStack.size() == MAX_UNDO_COUNT) {
-            mUndoStack.remove(0);
-        }
-        mUndoStack.add(rotation.getReverse());
-        mRotation.start();
+        mHistory.push(rotation);
+        mAnimator.start(rotation);
     }
 
     public void undo() {
@@ -515,21 +796,60 @@ public class RubiksCube extends Cube {
             return;
         }
 
-        if (mUndoStack.size() == 0) {
+        Rotation rotation = mHistory.undo();
+        if (rotation == null) {
             Log.d(tag, "nothing to undo");
             return;
         }
         rotateMode = RotateMode.MANUAL;
         mUndoingFlag = true;
-        int index = mUndoStack.size() - 1;
-        Rotation rotation = mUndoStack.get(index);
-        mUndoStack.remove(index);
-        mRotation = rotation;
-        mRotation.start();
+        mAnimator.start(rotation.getReverse());
+    }
+
+    /**
+     * Make the last undone move again. It counts as a move, the same way undo takes one back.
+     * */
+    public void redo() {
+        if (mState != CubeState.IDLE) {
+            Log.w(tag, "Cannot redo in state " + mState);
+            return;
+        }
+        if (rotateMode != RotateMode.NONE) {
+            Log.w(tag, "Cannot redo in mode " + rotateMode);
+            return;
+        }
+
+        Rotation rotation = mHistory.redo();
+        if (rotation == null) {
+            Log.d(tag, "nothing to redo");
+            return;
+        }
+        rotateMode = RotateMode.MANUAL;
+        mAnimator.start(rotation);
+    }
+
+    public boolean canUndo() {
+        return mHistory.canUndo();
+    }
+
+    public boolean canRedo() {
+        return mHistory.canRedo();
+    }
+
+    /**
+     * Number of moves that can be undone; the oldest ones are forgotten beyond it.
+     * Integer.MAX_VALUE keeps all of them, which is the default.
+     * */
+    public void setUndoDepth(int depth) {
+        mHistory.setMaxDepth(depth);
+    }
+
+    public int getUndoDepth() {
+        return mHistory.getMaxDepth();
     }
 
     protected void clearUndoStack() {
-        mUndoStack.clear();
+        mHistory.clear();
     }
 
     protected void startSolving() {
@@ -540,6 +860,7 @@ public class RubiksCube extends Cube {
         if (mState == CubeState.SOLVING) {
             rotateMode = RotateMode.MANUAL;
             mCurrentAlgo = null;
+            mPlayingSolution = false;
             // State will be set to idle in finishRotation called in the next frame
         }
         return 0;
@@ -567,9 +888,9 @@ public class RubiksCube extends Cube {
      * Sets the color of the whole cube
      * */
     public void setColor(int color) {
-        for (Square sq: mAllSquares) {
-            sq.setColor(color);
-        }
+        mFacelets.fill(getColorIndex(color));
+        mJournalStale = true;
+        updateSquareColors();
     }
 
     /**
@@ -578,9 +899,9 @@ public class RubiksCube extends Cube {
      * */
     public void setColor(int face, int color) {
         if (!(face >= 0 && face < FACE_COUNT)) throw new AssertionError("Face " + face);
-        for (Square sq: mAllFaces[face]) {
-            sq.setColor(color);
-        }
+        mFacelets.fillFace(face, getColorIndex(color));
+        mJournalStale = true;
+        updateSquareColors();
     }
 
     /**
@@ -599,11 +920,14 @@ public class RubiksCube extends Cube {
             case Z_AXIS: pieces = mZaxisLayers.get(layer); break;
             default:throw new AssertionError();
         }
+        byte index = getColorIndex(color);
         for (Piece p: pieces) {
             for (Square sq: p.mSquares) {
-                sq.setColor(color);
+                mFacelets.setColor(sq.getFace(), sq.getIndex(), index);
             }
         }
+        mJournalStale = true;
+        updateSquareColors();
     }
 
     public void setColor(int face, int row, int column, int color) {
@@ -653,6 +977,19 @@ public class RubiksCube extends Cube {
         return mMoveCount;
     }
 
+    /**
+     * Number of moves in the algorithm, counted the same way as getMoveCount,
+     * i.e. excluding whole cube rotations
+     * */
+    public int countMoves(Algorithm algo) {
+        int count = 0;
+        for (int i = 0; i < algo.size(); i++) {
+            Rotation rot = algo.getStep(i);
+            if (rot.faceCount != getAxisSize(rot.axis)) count++;
+        }
+        return count;
+    }
+
     /***
      * - User swipes across the cube for playing.
      * - Only one layer is rotated at a time.
@@ -668,8 +1005,8 @@ public class RubiksCube extends Cube {
         }
         final Square firstSquare = mAllSquares.get(startIndex);
         final Square lastSquare = mAllSquares.get(endIndex);
-        int firstFace = getFaceFromSquare(firstSquare);
-        int lastFace = getFaceFromSquare(lastSquare);
+        int firstFace = firstSquare.getFace();
+        int lastFace = lastSquare.getFace();
         if (firstFace == lastFace) {
             Log.w(tag, "drag started and ended in the same face");
             return;
@@ -712,34 +1049,6 @@ public class RubiksCube extends Cube {
         }
 
         // Select the layer
-        int layer = findLayerToRotate(axis, firstFace, firstSquare);
-        rotate(new Rotation(axis, direction, layer));
-    }
-
-    private int findLayerToRotate(Axis axis, int face, Square key) {
-        int index = 0;
-        ArrayList<ArrayList<Piece>> layers;
-        switch (axis) {
-            case X_AXIS: layers = mXaxisLayers; break;
-            case Y_AXIS: layers = mYaxisLayers; break;
-            default: layers = mZaxisLayers;
-        }
-        for (int i = 0; i < layers.size(); i++) {
-            ArrayList<Piece> layer = layers.get(i);
-            for (int j = 0; j < layer.size(); j++) {
-                Piece piece = layer.get(j);
-                index = piece.mSquares.indexOf(key);
-                if (index != -1) return i;
-            }
-        }
-        throw new InvalidParameterException(
-                String.format("Unreachable: Axis %s, face %d", axis.name(), face));
-    }
-
-    private int getFaceFromSquare(Square square) {
-        for (int i = 0; i < mAllFaces.length; i++) {
-            if (mAllFaces[i].contains(square)) return i;
-        }
-        throw new InvalidParameterException("Square not found");
+        rotate(Rotation.get(axis, direction, firstSquare.getLayer(axis)));
     }
 }
@@ -7,6 +7,11 @@ import java.util.Arrays;
 import com.amg.rubik.Log;
 import com.amg.rubik.graphics.Direction;
 import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.solver.CubieCube;
+import com.amg.rubik.solver.OptimalSolver;
+import com.amg.rubik.solver.OptimalTables;
+import com.amg.rubik.solver.RandomStateScrambler;
+import com.amg.rubik.solver.TwoPhaseSolver;
 
 /**
  * An algorithm can't be smarter than the human who devised it.
@@ -19,6 +24,20 @@ public class RubiksCube3x3x3 extends RubiksCube {
 
     private static final String tag = "rubik-3x3x3";
 
+    /**
+     * TWO_PHASE finds a short solution (around 20 moves) using Kociemba's algorithm.
+     * OPTIMAL finds a shortest solution with Korf's algorithm. It needs the tables loaded with
+     * TableGenerator (-Drubik.optimalTables), which are too big to build on the fly, and gives
+     * up after the optimal timeout. Either way it falls back to TWO_PHASE.
+     * BEGINNER is the layer by layer method below. It is also used as a fallback if
+     * the two phase solver times out. None of them is tried on a cube that can't be solved.
+     * */
+    public enum SolveMethod {
+        TWO_PHASE,
+        OPTIMAL,
+        BEGINNER
+    }
+
     enum SolveState {
         None,
         FirstFaceCross,
@@ -74,10 +93,43 @@ public class RubiksCube3x3x3 extends RubiksCube {
     private int mTopColor = 0;
     private int mBottomColor = 0;
 
+    private SolveMethod mSolveMethod = SolveMethod.TWO_PHASE;
+
+    // Safety net for computeBeginnerSolution; a solve takes a few dozen stages
+    private static final int MAX_DRY_RUN_STAGES = 1000;
+
+    /**
+     * When set, algorithms are collected in mPendingAlgo instead of being animated
+     * */
+    private boolean mDryRun = false;
+    private Algorithm mPendingAlgo = null;
+
+    private RandomStateScrambler mScrambler = null;
+    private OptimalSolver mOptimalSolver = null;
+
+    /**
+     * Solving runs on the calling thread, usually the render thread, so the optimal search only
+     * gets long enough for short scrambles by default
+     * */
+    public static final long DEFAULT_OPTIMAL_TIMEOUT = 2000;
+    private long mOptimalTimeout = DEFAULT_OPTIMAL_TIMEOUT;
+
     public RubiksCube3x3x3() {
         super(SIZE);
     }
 
+    /**
+     * Scramble to a uniformly random state, instantly, with a short random state scramble
+     *
+     * @see RandomStateScrambler
+     * */
+    public void randomizeState() {
+        if (mScrambler == null) {
+            mScrambler = new RandomStateScrambler();
+        }
+        randomize(mScrambler.nextAlgorithm());
+    }
+
     protected void ut() {
         mState = CubeState.TESTING;
         ut_test();
@@ -172,20 +224,177 @@ public class RubiksCube3x3x3 extends RubiksCube {
     }
 
 
+    public void setSolveMethod(SolveMethod method) {
+        mSolveMethod = method;
+    }
+
+    public SolveMethod getSolveMethod() {
+        return mSolveMethod;
+    }
+
+    /**
+     * Time limit of the OPTIMAL search in milliseconds, after which the two phase solution is
+     * used. Raise it when solving off the render thread.
+     * */
+    public void setOptimalTimeout(long millis) {
+        if (millis <= 0) {
+            throw new InvalidParameterException("Invalid timeout " + millis);
+        }
+        mOptimalTimeout = millis;
+    }
+
+    public long getOptimalTimeout() {
+        return mOptimalTimeout;
+    }
+
+    /**
+     * The methods give different solutions, so an optimal one is never served from a two
+     * phase search
+     * */
     @Override
-    public int solve() {
-        if (mState == CubeState.TESTING) {
-            sendMessage("wait please");
-            return -1;
+    protected String getSolutionKey() {
+        return mSolveMethod + ":" + super.getSolutionKey();
+    }
+
+    /**
+     * Computes the complete solution for the current state using the selected method,
+     * without animating anything. The cube is left as it is; the result can be animated
+     * with solve(Algorithm), and countMoves gives its length.
+     *
+     * @return null if the cube couldn't be solved
+     * */
+    @Override
+    protected Algorithm findSolution() {
+        // No method can solve a cube that isn't made of the right pieces
+        CubieCube cubies;
+        try {
+            cubies = new CubieCube(mFacelets);
+        } catch (InvalidParameterException e) {
+            Log.w(tag, "Cannot map cube to cubies: " + e.getMessage());
+            return null;
         }
-        if (mState != CubeState.IDLE) {
-            sendMessage("Invalid state to solve: " + mState);
-            return -1;
+        if (!cubies.verify()) {
+            Log.w(tag, "Unsolvable cube " + cubies);
+            return null;
+        }
+
+        Algorithm solution = null;
+        // The method that found the solution
+        SolveMethod method = mSolveMethod;
+        if (method == SolveMethod.OPTIMAL) {
+            solution = computeOptimalSolution(cubies);
+            if (solution == null) method = SolveMethod.TWO_PHASE;
+        }
+        if (solution == null && method == SolveMethod.TWO_PHASE) {
+            solution = computeTwoPhaseSolution(cubies);
+            if (solution == null) method = SolveMethod.BEGINNER;
+        }
+        if (solution == null) {
+            solution = computeBeginnerSolution();
+        }
+        if (solution == null) {
+            return null;
+        }
+        // Orientation doesn't matter once the cube is solved
+        solution = AlgorithmOptimizer.optimize(solution, SIZE, false);
+        // A fallback is left out, so that the selected method is tried again next time
+        if (method == mSolveMethod) {
+            cacheSolution(solution);
+        }
+        return solution;
+    }
+
+    /**
+     * Returns null if no solution was found in time, so that the caller can use the
+     * beginner's method instead. @cubies must be solvable.
+     * */
+    private Algorithm computeTwoPhaseSolution(CubieCube cubies) {
+        int[] solution = new TwoPhaseSolver().solve(cubies);
+        if (solution == null) {
+            Log.w(tag, "Two phase solver timed out; falling back to beginner's method");
+            return null;
+        }
+        Log.d(tag, "Two phase solution: " + TwoPhaseSolver.toString(solution));
+        return TwoPhaseSolver.toAlgorithm(solution, SIZE);
+    }
+
+    /**
+     * Returns null if the tables aren't loaded or no solution was found in time, so that the
+     * caller can use the two phase solver instead. @cubies must be solvable.
+     * */
+    private Algorithm computeOptimalSolution(CubieCube cubies) {
+        if (mOptimalSolver == null) {
+            // Generating the tables takes minutes and 135MB; don't do that on this thread
+            if (!OptimalTables.isLoaded()) {
+                Log.w(tag, "Optimal solver tables not loaded; falling back to two phase");
+                return null;
+            }
+            mOptimalSolver = new OptimalSolver();
         }
-        clearUndoStack();
+        int[] solution = mOptimalSolver.solve(cubies, mOptimalTimeout);
+        if (solution == null) {
+            Log.w(tag, "Optimal solver failed; falling back to two phase");
+            return null;
+        }
+        Log.d(tag, String.format("Optimal solution: %s (%d nodes/s)",
+                TwoPhaseSolver.toString(solution), mOptimalSolver.getNodesPerSecond()));
+        return TwoPhaseSolver.toAlgorithm(solution, SIZE);
+    }
+
+    /**
+     * Run the whole beginner's pipeline instantly. Each algorithm passed to setAlgo is
+     * applied right away instead of being animated and the next stage is computed from the
+     * result. The original state is restored at the end.
+     * */
+    private Algorithm computeBeginnerSolution() {
+        FaceletCube snapshot = getFacelets();
+        int moveCount = mMoveCount;
+        CubeListener listener = mListener;
+        Algorithm solution = new Algorithm();
+        boolean solved;
+
+        mListener = null;
+        mDryRun = true;
         mState = CubeState.SOLVING;
-        startSolving();
-        return 0;
+        try {
+            startSolving();
+            for (int stage = 0; mPendingAlgo != null && stage < MAX_DRY_RUN_STAGES; stage++) {
+                Algorithm algo = mPendingAlgo;
+                mPendingAlgo = null;
+                algo.applyTo(mFacelets);
+                updateSquareColors();
+                solution.append(algo);
+                updateAlgo();
+            }
+            if (mPendingAlgo != null) {
+                Log.e(tag, "Beginner's method doesn't converge");
+            }
+            solved = mFacelets.isSolved();
+        } finally {
+            mDryRun = false;
+            mPendingAlgo = null;
+            mListener = listener;
+            mState = CubeState.IDLE;
+            solveState = SolveState.None;
+            mMoveCount = moveCount;
+            mFacelets.copyFrom(snapshot);
+            updateSquareColors();
+        }
+
+        if (!solved) {
+            Log.e(tag, "Beginner's method didn't solve the cube");
+            return null;
+        }
+        return solution;
+    }
+
+    @Override
+    protected void setAlgo(Algorithm algo) {
+        if (mDryRun) {
+            mPendingAlgo = algo;
+            return;
+        }
+        super.setAlgo(algo);
     }
 
     @Override
@@ -283,7 +492,7 @@ public class RubiksCube3x3x3 extends RubiksCube {
         if (pos == EDGE_TOP_FAR || pos == EDGE_TOP_NEAR) {
             int faceIndex = topColoredSquare.getFace() == FACE_TOP ?
                     FACE_RIGHT : topColoredSquare.getFace();
-            rot = new Rotation(Axis.Z_AXIS,
+            rot = Rotation.get(Axis.Z_AXIS,
                     Direction.CLOCKWISE,
                     pos == EDGE_TOP_FAR ? INNER : OUTER);
             algo.addStep(rot);
@@ -293,7 +502,7 @@ public class RubiksCube3x3x3 extends RubiksCube {
         } else {
             int faceIndex = topColoredSquare.getFace() == FACE_TOP ?
                     FACE_FRONT : topColoredSquare.getFace();
-            rot = new Rotation(Axis.X_AXIS,
+            rot = Rotation.get(Axis.X_AXIS,
                     Direction.COUNTER_CLOCKWISE,
                     pos == EDGE_TOP_LEFT ? INNER : OUTER);
             algo.addStep(rot);
@@ -316,11 +525,11 @@ public class RubiksCube3x3x3 extends RubiksCube {
                 if (!(faceWithTopColor == FACE_FRONT || faceWithTopColor == FACE_LEFT))
                     throw new AssertionError();
                 if (faceWithTopColor == FACE_FRONT) {
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.X_AXIS, Direction.CLOCKWISE, INNER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.X_AXIS, Direction.CLOCKWISE, INNER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
                 } else {
-                    rotations.add(new Rotation(Axis.Z_AXIS, Direction.CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Z_AXIS, Direction.CLOCKWISE, OUTER));
                 }
                 break;
 
@@ -328,11 +537,11 @@ public class RubiksCube3x3x3 extends RubiksCube {
                 if (!(faceWithTopColor == FACE_FRONT || faceWithTopColor == FACE_RIGHT))
                     throw new AssertionError();
                 if (faceWithTopColor == FACE_FRONT) {
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.X_AXIS, Direction.CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.X_AXIS, Direction.CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
                 } else {
-                    rotations.add(new Rotation(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
                 }
                 break;
 
@@ -340,15 +549,15 @@ public class RubiksCube3x3x3 extends RubiksCube {
                 if (!(faceWithTopColor == FACE_RIGHT || faceWithTopColor == FACE_BACK))
                     throw new AssertionError();
                 if (faceWithTopColor == FACE_BACK) {
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
                 } else {
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
                 }
                 break;
 
@@ -356,15 +565,15 @@ public class RubiksCube3x3x3 extends RubiksCube {
                 if (!(faceWithTopColor == FACE_LEFT || faceWithTopColor == FACE_BACK))
                     throw new AssertionError();
                 if (faceWithTopColor == FACE_BACK) {
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
                 } else {
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.Z_AXIS, Direction.CLOCKWISE, INNER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-                    rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Z_AXIS, Direction.CLOCKWISE, INNER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+                    rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
                 }
                 break;
         }
@@ -446,14 +655,14 @@ public class RubiksCube3x3x3 extends RubiksCube {
         if (pos != EDGE_BOTTOM_NEAR) {
             Direction dir = pos == EDGE_BOTTOM_LEFT ?
                     Direction.COUNTER_CLOCKWISE : Direction.CLOCKWISE;
-            Rotation rot = new Rotation(Axis.Y_AXIS, dir, INNER);
+            Rotation rot = Rotation.get(Axis.Y_AXIS, dir, INNER);
             algo.addStep(rot);
             if (pos == EDGE_BOTTOM_FAR) {
                 algo.addStep(rot);
             }
         }
         // Front face twice
-        Rotation rot = new Rotation(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
+        Rotation rot = Rotation.get(Axis.Z_AXIS, Direction.COUNTER_CLOCKWISE, OUTER);
         algo.addStep(rot);
         algo.addStep(rot);
         setAlgo(algo);
@@ -701,20 +910,20 @@ public class RubiksCube3x3x3 extends RubiksCube {
         }
 
         for (int i = 0; i < count; i++) {
-            rotations.add(new Rotation(Axis.Y_AXIS, direction, INNER));
+            rotations.add(Rotation.get(Axis.Y_AXIS, direction, INNER));
         }
 
         topColorFace -= sideFace;
         topColorFace = (topColorFace + CUBE_SIDES) % CUBE_SIDES;
 
         if (topColorFace == FACE_RIGHT) {
-            rotations.add(new Rotation(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
-            rotations.add(new Rotation(Axis.Y_AXIS, Direction.CLOCKWISE, INNER));
-            rotations.add(new Rotation(Axis.X_AXIS, Direction.CLOCKWISE, OUTER));
+            rotations.add(Rotation.get(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, OUTER));
+            rotations.add(Rotation.get(Axis.Y_AXIS, Direction.CLOCKWISE, INNER));
+            rotations.add(Rotation.get(Axis.X_AXIS, Direction.CLOCKWISE, OUTER));
         } else if (topColorFace == FACE_LEFT) {
-            rotations.add(new Rotation(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
-            rotations.add(new Rotation(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
-            rotations.add(new Rotation(Axis.X_AXIS, Direction.CLOCKWISE, INNER));
+            rotations.add(Rotation.get(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
+            rotations.add(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, INNER));
+            rotations.add(Rotation.get(Axis.X_AXIS, Direction.CLOCKWISE, INNER));
         } else {
             throw new AssertionError("topColorFace should be left or right, not: " + topColorFace);
         }
@@ -815,9 +1024,9 @@ public class RubiksCube3x3x3 extends RubiksCube {
         } else if (color == mLeftSquares.get(CENTER).getColor()) {
             dir = Direction.COUNTER_CLOCKWISE;
         }
-        rotations.add(new Rotation(axis, dir, 0, SIZE));
+        rotations.add(Rotation.get(axis, dir, 0, SIZE));
         if (color == mBackSquares.get(CENTER).getColor()) {
-            rotations.add(new Rotation(axis, dir, 0, SIZE));
+            rotations.add(Rotation.get(axis, dir, 0, SIZE));
         }
         return rotations;
     }
@@ -1433,7 +1642,9 @@ public class RubiksCube3x3x3 extends RubiksCube {
 
             case LastFaceCornerAlign:
                 solveState = SolveState.None;
-                mListener.handleCubeSolved();
+                if (mListener != null) {
+                    mListener.handleCubeSolved();
+                }
                 mState = CubeState.IDLE;
                 break;
 
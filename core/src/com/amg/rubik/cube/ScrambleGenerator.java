@@ -0,0 +1,374 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.Log;
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.security.InvalidParameterException;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless generation of large numbers of random move scrambles, the same kind randomize(int)
+ * makes, for benchmark and test corpora.
+ *
+ * The whole output is determined by the seed: every block of scrambles gets a generator split
+ * from the seed, and every task of the block splits its generator before forking, so the
+ * scrambles are the same whatever the number of threads or the order the tasks run in.
+ *
+ * Every worker thread applies the moves straight from the MoveTable permutations to its own
+ * array of colors. A FaceletCube would also keep its color counts and dirty bits up to date,
+ * which takes several times longer than moving the colors. Nothing here touches a RubiksCube.
+ *
+ * File layout (little endian):
+ *  int magic, int format version, short cube size,
+ *  short moves per scramble, byte bytes per move, byte bits per facelet, long seed, long count,
+ *  followed by @count fixed size records:
+ *  the Rotation id of every move, then the facelets of the resulting state, packed the way
+ *  CubeCodec packs them, with the face index colors of FaceletCube :: reset.
+ *
+ * The count in the header is written last, so a file that wasn't completed reads as empty.
+ * */
+public class ScrambleGenerator {
+
+    private static final String tag = "rubik-scrambles";
+
+    public static final int MAGIC = 0x534B4252;   // "RBKS"
+    public static final int FORMAT_VERSION = 1;
+
+    private static final int HEADER_SIZE = 4 + 4 + 2 + 2 + 1 + 1 + 8 + 8;
+    private static final int COUNT_OFFSET = HEADER_SIZE - 8;
+
+    // Scrambles generated in memory before being written
+    private static final int BLOCK_SIZE = 64 * 1024;
+    // Scrambles generated sequentially by one task
+    private static final int CHUNK_SIZE = 512;
+
+    private static final Axis[] axes = {Axis.X_AXIS, Axis.Y_AXIS, Axis.Z_AXIS};
+
+    private final ForkJoinPool mPool;
+    private final int mSize;
+    private final int mMoveCount;
+    private final int mMoveBytes;
+    private final int mBitsPerFacelet;
+    private final int mRecordSize;
+
+    private final MoveTable mTable;
+    // Rotation ids of the single layer moves, axis by axis
+    private final int[] mMoveIds;
+    // MoveTable move of each of them
+    private final int[] mMoveIndices;
+    private final byte[] mSolved;
+
+    private final ThreadLocal<byte[][]> mBuffers = new ThreadLocal<byte[][]>() {
+        @Override
+        protected byte[][] initialValue() {
+            return new byte[][] {new byte[mSolved.length], new byte[mTable.getMaxTouched()]};
+        }
+    };
+
+    /**
+     * Uses all available cores
+     * */
+    public ScrambleGenerator(int size, int moveCount) {
+        this(new ForkJoinPool(), size, moveCount);
+    }
+
+    public ScrambleGenerator(ForkJoinPool pool, int size, int moveCount) {
+        if (moveCount < 0 || moveCount > 0xFFFF) {
+            throw new InvalidParameterException("Invalid move count " + moveCount);
+        }
+        if (size < 1 || Rotation.getCount(size) > 0x10000) {
+            throw new InvalidParameterException("Invalid size " + size);
+        }
+        mPool = pool;
+        mSize = size;
+        mMoveCount = moveCount;
+        mMoveBytes = Rotation.getCount(size) <= 0x100 ? 1 : 2;
+        mBitsPerFacelet = CubeCodec.getBitsPerFacelet(Cube.FACE_COUNT);
+
+        mTable = MoveTable.get(size, size, size);
+        mMoveIds = new int[axes.length * 2 * size];
+        mMoveIndices = new int[mMoveIds.length];
+        int move = 0;
+        for (Axis axis: axes) {
+            for (int face = 0; face < size; face++) {
+                for (Direction direction: Direction.values()) {
+                    mMoveIds[move] = Rotation.getId(axis, direction, face, 1);
+                    mMoveIndices[move] = mTable.moveIndex(axis, direction, face);
+                    move++;
+                }
+            }
+        }
+        mSolved = new FaceletCube(size).getFaceletArray().clone();
+        mRecordSize = moveCount * mMoveBytes +
+                CubeCodec.getPackedLength(mSolved.length, mBitsPerFacelet);
+    }
+
+    public int getRecordSize() {
+        return mRecordSize;
+    }
+
+    /**
+     * Random move of a cube with the given sizes, never the reverse of @previous, which can be
+     * null. The moves made by randomize(int) are drawn with this.
+     * */
+    static Rotation randomMove(Random random, int sizeX, int sizeY, int sizeZ,
+                               Rotation previous) {
+        while (true) {
+            Axis axis = axes[random.nextInt(axes.length)];
+            Direction direction = random.nextBoolean() ?
+                    Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
+            int size = axis == Axis.X_AXIS ? sizeX : axis == Axis.Y_AXIS ? sizeY : sizeZ;
+            Rotation rotation = Rotation.get(axis, direction, random.nextInt(size));
+            // Avoid undo-ing moves
+            if (previous == null || rotation.getId() != (previous.getId() ^ 1)) {
+                return rotation;
+            }
+        }
+    }
+
+    /**
+     * Write @count scrambles generated from @seed to @file, replacing it
+     * */
+    public void generate(long seed, long count, File file) throws IOException {
+        if (count < 0) {
+            throw new InvalidParameterException("Invalid count " + count);
+        }
+        long start = System.currentTimeMillis();
+        ByteBuffer block = ByteBuffer.allocate(
+                (int) Math.min(count, BLOCK_SIZE) * mRecordSize).order(ByteOrder.LITTLE_ENDIAN);
+        SplitMix64 random = new SplitMix64(seed);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(FORMAT_VERSION);
+            header.putShort((short) mSize);
+            header.putShort((short) mMoveCount);
+            header.put((byte) mMoveBytes).put((byte) mBitsPerFacelet);
+            header.putLong(seed).putLong(0);
+            header.flip();
+            long position = writeFully(channel, header, 0);
+
+            for (long done = 0; done < count; ) {
+                int length = (int) Math.min(count - done, BLOCK_SIZE);
+                mPool.invoke(new GenerateTask(random.split(), block, 0, length));
+                block.position(0).limit(length * mRecordSize);
+                position = writeFully(channel, block, position);
+                block.clear();
+                done += length;
+            }
+
+            header.clear();
+            header.putLong(count).flip();
+            writeFully(channel, header, COUNT_OFFSET);
+        }
+        Log.d(tag, String.format("%d scrambles in %d ms", count,
+                System.currentTimeMillis() - start));
+    }
+
+    private static long writeFully(FileChannel channel, ByteBuffer data, long position)
+            throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+        return position;
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private class GenerateTask extends RecursiveAction {
+        private final SplitMix64 mRandom;
+        private final ByteBuffer mBlock;
+        private final int mStart;
+        private final int mEnd;
+
+        GenerateTask(SplitMix64 random, ByteBuffer block, int start, int end) {
+            mRandom = random;
+            mBlock = block;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart > CHUNK_SIZE) {
+                int mid = (mStart + mEnd) >>> 1;
+                // Split before forking so each half gets the same generator on every run
+                invokeAll(new GenerateTask(mRandom.split(), mBlock, mStart, mid),
+                        new GenerateTask(mRandom, mBlock, mid, mEnd));
+                return;
+            }
+
+            byte[][] buffers = mBuffers.get();
+            byte[] facelets = buffers[0];
+            byte[] scratch = buffers[1];
+            ByteBuffer out = mBlock.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            out.position(mStart * mRecordSize);
+            for (int i = mStart; i < mEnd; i++) {
+                System.arraycopy(mSolved, 0, facelets, 0, facelets.length);
+                int previous = -1;
+                for (int move = 0; move < mMoveCount; move++) {
+                    // Same distribution as randomMove(): every axis, direction and layer of a
+                    // cube is equally likely, and the reverse of the previous move is skipped
+                    int choice;
+                    int id;
+                    do {
+                        choice = mRandom.nextInt(mMoveIds.length);
+                        id = mMoveIds[choice];
+                    } while ((id ^ 1) == previous);
+                    previous = id;
+                    int[] sources = mTable.getSources(mMoveIndices[choice]);
+                    int[] targets = mTable.getTargets(mMoveIndices[choice]);
+                    for (int j = 0; j < sources.length; j++) {
+                        scratch[j] = facelets[sources[j]];
+                    }
+                    for (int j = 0; j < targets.length; j++) {
+                        facelets[targets[j]] = scratch[j];
+                    }
+                    if (mMoveBytes == 1) {
+                        out.put((byte) id);
+                    } else {
+                        out.putShort((short) id);
+                    }
+                }
+                CubeCodec.packFacelets(facelets, Cube.FACE_COUNT, mBitsPerFacelet, out);
+            }
+        }
+    }
+
+    /**
+     * Random access to the scrambles of a file written by generate(). Not thread safe.
+     * */
+    public static class Reader implements Closeable {
+
+        private final RandomAccessFile mFile;
+        private final FileChannel mChannel;
+        private final int mSize;
+        private final int mMoveCount;
+        private final int mMoveBytes;
+        private final int mBitsPerFacelet;
+        private final long mSeed;
+        private final long mCount;
+        private final ByteBuffer mRecord;
+
+        public Reader(File file) throws IOException {
+            mFile = new RandomAccessFile(file, "r");
+            mChannel = mFile.getChannel();
+            try {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                readFully(header, 0);
+                if (header.getInt() != MAGIC) {
+                    throw new IOException("Not a scramble file: " + file);
+                }
+                int version = header.getInt();
+                if (version != FORMAT_VERSION) {
+                    throw new IOException("Unsupported scramble file version " + version);
+                }
+                mSize = header.getShort();
+                mMoveCount = header.getShort() & 0xFFFF;
+                mMoveBytes = header.get();
+                mBitsPerFacelet = header.get();
+                mSeed = header.getLong();
+                mCount = header.getLong();
+                if (mSize < 1 || (mMoveBytes != 1 && mMoveBytes != 2) ||
+                        mBitsPerFacelet != CubeCodec.getBitsPerFacelet(Cube.FACE_COUNT)) {
+                    throw new IOException("Corrupt scramble file " + file);
+                }
+                int stateBytes = CubeCodec.getPackedLength(
+                        new FaceletCube(mSize).getFaceletCount(), mBitsPerFacelet);
+                mRecord = ByteBuffer.allocate(mMoveCount * mMoveBytes + stateBytes)
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                if (mChannel.size() < HEADER_SIZE + mCount * mRecord.capacity()) {
+                    throw new IOException("Truncated scramble file " + file);
+                }
+            } catch (IOException | RuntimeException e) {
+                mFile.close();
+                throw e;
+            }
+        }
+
+        public long getCount() {
+            return mCount;
+        }
+
+        public long getSeed() {
+            return mSeed;
+        }
+
+        public int getSize() {
+            return mSize;
+        }
+
+        public int getMoveCount() {
+            return mMoveCount;
+        }
+
+        /**
+         * Moves of scramble @index, to be applied to a reset cube
+         * */
+        public Algorithm getAlgorithm(long index) throws IOException {
+            ByteBuffer record = readRecord(index);
+            Algorithm algorithm = new Algorithm();
+            for (int i = 0; i < mMoveCount; i++) {
+                algorithm.addStepId(mMoveBytes == 1 ?
+                        record.get() & 0xFF : record.getShort() & 0xFFFF);
+            }
+            return algorithm;
+        }
+
+        /**
+         * State after scramble @index, painted with face indices
+         * */
+        public FaceletCube getState(long index) throws IOException {
+            ByteBuffer record = readRecord(index);
+            record.position(mMoveCount * mMoveBytes);
+            FaceletCube state = new FaceletCube(mSize);
+            try {
+                CubeCodec.unpackFacelets(record, Cube.FACE_COUNT, mBitsPerFacelet, state);
+            } catch (BufferUnderflowException | InvalidParameterException e) {
+                throw new IOException("Corrupt scramble " + index, e);
+            }
+            return state;
+        }
+
+        private ByteBuffer readRecord(long index) throws IOException {
+            if (index < 0 || index >= mCount) {
+                throw new InvalidParameterException("Invalid scramble " + index);
+            }
+            mRecord.clear();
+            readFully(mRecord, HEADER_SIZE + index * mRecord.capacity());
+            return mRecord;
+        }
+
+        private void readFully(ByteBuffer buffer, long position) throws IOException {
+            while (buffer.hasRemaining()) {
+                int read = mChannel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    throw new EOFException();
+                }
+            }
+            buffer.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.Log;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.security.InvalidParameterException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Solutions of recently solved states, so that solving the same scramble again doesn't run the
+ * solver. The least recently used entry is dropped once there are more than @capacity.
+ *
+ * States are keyed by RubiksCube :: getSolutionKey (plus the solving method where there is a
+ * choice). On cubes that is the CubeSymmetry key, so a rotated, mirrored or recolored version
+ * of a solved state gets a hit too: the entry holds the solution of the canonical form, which
+ * the cube maps back with CubeSymmetry :: transform. Cuboids are keyed by getColorString().
+ * The steps are stored as Rotation ids, and every get() returns a new Algorithm that can be
+ * played without affecting the cache.
+ *
+ * save() writes a text file with one entry per line, the key followed by the comma separated
+ * Rotation ids, least recently used first; load() reads it back in the same order.
+ *
+ * All methods are synchronized, so a cache can be shared by several cubes.
+ * */
+public class SolutionCache {
+
+    private static final String tag = "rubik-cache";
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final int mCapacity;
+    private final LinkedHashMap<String, int[]> mEntries;
+    private long mHits;
+    private long mMisses;
+
+    public SolutionCache() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public SolutionCache(int capacity) {
+        if (capacity < 1) {
+            throw new InvalidParameterException("Invalid capacity " + capacity);
+        }
+        mCapacity = capacity;
+        // Access order, so the eldest entry is the least recently used one
+        mEntries = new LinkedHashMap<String, int[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+                return size() > mCapacity;
+            }
+        };
+    }
+
+    /**
+     * @return the cached solution of @state, or null
+     * */
+    public synchronized Algorithm get(String state) {
+        int[] steps = mEntries.get(state);
+        if (steps == null) {
+            mMisses++;
+            return null;
+        }
+        mHits++;
+        Algorithm solution = new Algorithm();
+        for (int id: steps) {
+            solution.addStepId(id);
+        }
+        return solution;
+    }
+
+    public synchronized void put(String state, Algorithm solution) {
+        int[] steps = new int[solution.size()];
+        for (int i = 0; i < steps.length; i++) {
+            steps[i] = solution.getStep(i).getId();
+        }
+        mEntries.put(state, steps);
+    }
+
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    public synchronized long getHitCount() {
+        return mHits;
+    }
+
+    public synchronized long getMissCount() {
+        return mMisses;
+    }
+
+    /**
+     * Drop all the entries and reset the counters
+     * */
+    public synchronized void clear() {
+        mEntries.clear();
+        mHits = 0;
+        mMisses = 0;
+    }
+
+    /**
+     * Add the entries saved in @file. A missing file is not an error, so that the first run
+     * starts with an empty cache; malformed lines are skipped.
+     *
+     * @return number of entries read
+     * */
+    public synchronized int load(File file) throws IOException {
+        if (!file.exists()) {
+            return 0;
+        }
+        int count = 0;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), UTF8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int separator = line.indexOf(' ');
+                if (separator <= 0) {
+                    Log.w(tag, "Skipping malformed entry: " + line);
+                    continue;
+                }
+                int[] steps;
+                try {
+                    steps = parseSteps(line.substring(separator + 1));
+                } catch (NumberFormatException e) {
+                    Log.w(tag, "Skipping malformed entry: " + line);
+                    continue;
+                }
+                mEntries.put(line.substring(0, separator), steps);
+                count++;
+            }
+        }
+        Log.d(tag, "Loaded " + count + " solutions from " + file);
+        return count;
+    }
+
+    /**
+     * Write all the entries to @file, replacing it
+     * */
+    public synchronized void save(File file) throws IOException {
+        try (BufferedWriter writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(file), UTF8))) {
+            StringBuilder line = new StringBuilder();
+            for (Map.Entry<String, int[]> entry: mEntries.entrySet()) {
+                line.setLength(0);
+                line.append(entry.getKey()).append(' ');
+                int[] steps = entry.getValue();
+                for (int i = 0; i < steps.length; i++) {
+                    if (i > 0) line.append(',');
+                    line.append(steps[i]);
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+        }
+    }
+
+    private static int[] parseSteps(String text) {
+        if (text.isEmpty()) {
+            return new int[0];
+        }
+        String[] tokens = text.split(",");
+        int[] steps = new int[tokens.length];
+        for (int i = 0; i < tokens.length; i++) {
+            steps[i] = Integer.parseInt(tokens[i]);
+            if (steps[i] < 0) {
+                throw new NumberFormatException("Negative rotation id " + steps[i]);
+            }
+        }
+        return steps;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("%d/%d solutions, %d hits, %d misses",
+                mEntries.size(), mCapacity, mHits, mMisses);
+    }
+}
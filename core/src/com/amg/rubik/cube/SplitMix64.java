@@ -0,0 +1,107 @@
+package com.amg.rubik.cube;
+
+import java.util.Random;
+
+/**
+ * The SplitMix64 generator of java.util.SplittableRandom, which isn't available on Java 7, as
+ * a java.util.Random so it can be passed anywhere a Random is expected.
+ *
+ * split() returns a new generator whose values are independent of the ones of this generator.
+ * Splitting in the same order always gives the same generators, so work split into tasks that
+ * each get their own generator is reproducible from one seed, however the tasks are scheduled.
+ *
+ * Unlike Random, an instance is not thread safe; every thread should use its own split.
+ * */
+public class SplitMix64 extends Random {
+
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long mSeed;
+    private long mGamma;
+
+    public SplitMix64(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    private SplitMix64(long seed, long gamma) {
+        super(seed);
+        mSeed = seed;
+        mGamma = gamma;
+    }
+
+    /**
+     * Called by the Random constructor too, before the fields are assigned
+     * */
+    @Override
+    public void setSeed(long seed) {
+        mSeed = seed;
+        mGamma = GOLDEN_GAMMA;
+    }
+
+    public SplitMix64 split() {
+        return new SplitMix64(nextLong(), mixGamma(nextSeed()));
+    }
+
+    @Override
+    protected int next(int bits) {
+        return mix32(nextSeed()) >>> (32 - bits);
+    }
+
+    @Override
+    public int nextInt() {
+        return mix32(nextSeed());
+    }
+
+    /**
+     * Lemire's multiply and shift, which avoids the division of Random :: nextInt(int) in most
+     * cases. The few values that would make the result biased are drawn again.
+     * */
+    @Override
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        long product = (nextInt() & 0xFFFFFFFFL) * bound;
+        if ((product & 0xFFFFFFFFL) < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while ((product & 0xFFFFFFFFL) < threshold) {
+                product = (nextInt() & 0xFFFFFFFFL) * bound;
+            }
+        }
+        return (int) (product >>> 32);
+    }
+
+    @Override
+    public long nextLong() {
+        return mix64(nextSeed());
+    }
+
+    private long nextSeed() {
+        return mSeed += mGamma;
+    }
+
+    /**
+     * The finalizer of the generator, also good for hashing
+     * */
+    public static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+    /**
+     * Odd gamma for a split, avoiding the ones with too few bit transitions
+     * */
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int transitions = Long.bitCount(z ^ (z >>> 1));
+        return transitions < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
@@ -6,6 +6,7 @@ import com.badlogic.gdx.graphics.g3d.Material;
 import com.badlogic.gdx.graphics.g3d.Model;
 import com.badlogic.gdx.graphics.g3d.ModelInstance;
 import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
+import com.badlogic.gdx.graphics.g3d.model.NodePart;
 import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
 
 import com.amg.rubik.graphics.Axis;
@@ -13,15 +14,40 @@ import com.amg.rubik.graphics.Point3D;
 import com.badlogic.gdx.math.Vector3;
 import com.badlogic.gdx.math.collision.BoundingBox;
 
+import java.util.HashMap;
+
+/**
+ * One sticker of the cube.
+ *
+ * The libgdx model of the square is created only when getModelInstance is called, so that
+ * renderers drawing all the squares from a single mesh don't pay for a mesh per square.
+ * Squares of the same color share one Material, so a color change just points the square to
+ * another material instead of creating new attributes.
+ * */
 public class Square {
     private static final String tag = "rubik-square";
 
+    /**
+     * Shared materials by color. A cube uses only a handful of colors.
+     * */
+    private static final HashMap<Integer, Material> sMaterials = new HashMap<>();
+
     private int mFace;
     private Point3D mCenter;
     private int mColor;
+    private float[] mVertices;
     ModelInstance instance;
     Model model;
 
+    /**
+     * Where the square is in the cube, kept up to date by Cube whenever it reorganizes its faces.
+     * mIndex is the position in the face list, i.e. mRow * (face width) + mColumn.
+     * */
+    private int mIndex;
+    private int mRow;
+    private int mColumn;
+    private final int[] mLayers = new int[3];
+    private Piece mPiece;
 
     public void setFace(int face) {
         this.mFace = face;
@@ -31,6 +57,47 @@ public class Square {
         return mFace;
     }
 
+    void setPosition(int face, int index, int row, int column) {
+        mFace = face;
+        mIndex = index;
+        mRow = row;
+        mColumn = column;
+    }
+
+    /**
+     * Position in the list of squares of its face
+     * */
+    public int getIndex() {
+        return mIndex;
+    }
+
+    public int getRow() {
+        return mRow;
+    }
+
+    public int getColumn() {
+        return mColumn;
+    }
+
+    void setLayer(Axis axis, int layer) {
+        mLayers[axis.ordinal()] = layer;
+    }
+
+    /**
+     * Index of the layer containing the square among the layers along @axis
+     * */
+    public int getLayer(Axis axis) {
+        return mLayers[axis.ordinal()];
+    }
+
+    void setPiece(Piece piece) {
+        mPiece = piece;
+    }
+
+    public Piece getPiece() {
+        return mPiece;
+    }
+
     public Square(float[] vertices, int color, int face) {
         init(vertices, color, face);
     }
@@ -51,16 +118,7 @@ public class Square {
     }
 
     private void init(float[] vertices, int color, int face) {
-        ModelBuilder builder = new ModelBuilder();
-        Material material = new Material(ColorAttribute.createDiffuse(new Color(color)));
-        model = builder.createRect(
-                vertices[0], vertices[1], vertices[2],
-                vertices[3], vertices[4], vertices[5],
-                vertices[6], vertices[7], vertices[8],
-                vertices[9], vertices[10], vertices[11],
-                0, 0, 0, material, VertexAttributes.Usage.Position
-        );
-        instance = new ModelInstance(model);
+        mVertices = vertices.clone();
         mColor = color;
         mFace = face;
         mCenter = new Point3D();
@@ -70,7 +128,10 @@ public class Square {
 
         BoundingBox box = new BoundingBox();
         Vector3 dimensions = new Vector3();
-        instance.calculateBoundingBox(box);
+        box.inf();
+        for (int i = 0; i < vertices.length; i += 3) {
+            box.ext(vertices[i], vertices[i + 1], vertices[i + 2]);
+        }
         box.getCenter(centerVector);
         box.getDimensions(dimensions);
         _radius = dimensions.len() / 2f;
@@ -93,9 +154,44 @@ public class Square {
     }
 
     public ModelInstance getModelInstance() {
+        if (instance == null) {
+            ModelBuilder builder = new ModelBuilder();
+            Material material = getMaterial(mColor);
+            float[] v = mVertices;
+            model = builder.createRect(
+                    v[0], v[1], v[2],
+                    v[3], v[4], v[5],
+                    v[6], v[7], v[8],
+                    v[9], v[10], v[11],
+                    0, 0, 0, material, VertexAttributes.Usage.Position
+            );
+            instance = new ModelInstance(model);
+            // The instance gets a copy of the material; use the shared one instead
+            getNodePart().material = material;
+        }
         return instance;
     }
 
+    private NodePart getNodePart() {
+        return instance.nodes.get(0).parts.get(0);
+    }
+
+    private static synchronized Material getMaterial(int color) {
+        Material material = sMaterials.get(color);
+        if (material == null) {
+            material = new Material(ColorAttribute.createDiffuse(new Color(color)));
+            sMaterials.put(color, material);
+        }
+        return material;
+    }
+
+    /**
+     * x, y, z of the four corners, in the order they were given to the constructor
+     * */
+    public float[] getVertices() {
+        return mVertices;
+    }
+
     public String colorName() {
         return String.format("#%08X",  mColor);
     }
@@ -107,10 +203,14 @@ public class Square {
     public void setColor(int value) {
         if (value == mColor) return;
         mColor = value;
-        instance.materials.get(0).set(ColorAttribute.createDiffuse(new Color(value)));
+        if (instance != null) {
+            getNodePart().material = getMaterial(value);
+        }
     }
 
     public void rotateCoordinates(float x, float y, float z, int degrees) {
+        // Renderers set the transform of the instance before drawing it anyway
+        if (instance == null) return;
         instance.transform.setToRotation(x, y, z, degrees);
     }
 
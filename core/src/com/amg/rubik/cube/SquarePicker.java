@@ -0,0 +1,139 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.Ray;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Finds the square hit by a ray without looking at the squares.
+ *
+ * The squares of each side of the cube form a regular grid, and they never move; animations
+ * only rotate them while drawing. So the ray is intersected with the box enclosing the cube,
+ * which tells the side it enters through, and the row and column of the square follow from
+ * the position of the hit point on that side. A hit in the gap between squares goes to the
+ * square before the gap.
+ * */
+class SquarePicker {
+
+    private static final String tag = "rubik-picker";
+
+    private static final int AXIS_COUNT = 3;
+
+    /**
+     * Squares of one side, stored row after row from index @base in Cube :: mAllSquares.
+     * Square (row, col) starts at origin + row * step * rowDir + col * step * colDir and
+     * extends by the square size along both directions.
+     * */
+    private static class Grid {
+        float[] origin = new float[AXIS_COUNT];
+        int rowAxis;
+        float rowSign;
+        int colAxis;
+        float colSign;
+        int rows;
+        int cols;
+        int base;
+    }
+
+    /**
+     * Indexed by side: axis * 2 for the negative side and axis * 2 + 1 for the positive side
+     * */
+    private final Grid[] mGrids = new Grid[AXIS_COUNT * 2];
+    private final float[] mMin = new float[AXIS_COUNT];
+    private final float[] mMax = new float[AXIS_COUNT];
+    private final float mStep;
+
+    /**
+     * @param step distance between the starting corners of neighbouring squares
+     * */
+    SquarePicker(float step) {
+        mStep = step;
+    }
+
+    /**
+     * @param positive whether the squares are on the positive side of the @normal axis
+     * @param origin x, y and z of the starting corner of the first square
+     * @param rowPositive whether the rows go along the positive or the negative @rowAxis
+     * @param colPositive whether the columns go along the positive or the negative @colAxis
+     * */
+    void addGrid(Axis normal, boolean positive, float[] origin,
+                 Axis rowAxis, boolean rowPositive, Axis colAxis, boolean colPositive,
+                 int rows, int cols, int base) {
+        Grid grid = new Grid();
+        System.arraycopy(origin, 0, grid.origin, 0, AXIS_COUNT);
+        grid.rowAxis = rowAxis.ordinal();
+        grid.rowSign = rowPositive ? 1 : -1;
+        grid.colAxis = colAxis.ordinal();
+        grid.colSign = colPositive ? 1 : -1;
+        grid.rows = rows;
+        grid.cols = cols;
+        grid.base = base;
+
+        int axis = normal.ordinal();
+        mGrids[axis * 2 + (positive ? 1 : 0)] = grid;
+        if (positive) {
+            mMax[axis] = origin[axis];
+        } else {
+            mMin[axis] = origin[axis];
+        }
+    }
+
+    /**
+     * Index of the first square hit by @ray, or -1 if it misses the cube
+     * */
+    int pick(Ray ray) {
+        float near = Float.NEGATIVE_INFINITY;
+        float far = Float.POSITIVE_INFINITY;
+        int side = -1;
+        for (int axis = 0; axis < AXIS_COUNT; axis++) {
+            float origin = get(ray.origin, axis);
+            float direction = get(ray.direction, axis);
+            if (direction == 0) {
+                if (origin < mMin[axis] || origin > mMax[axis]) return -1;
+                continue;
+            }
+            float tMin = (mMin[axis] - origin) / direction;
+            float tMax = (mMax[axis] - origin) / direction;
+            int entrySide = axis * 2;
+            if (tMin > tMax) {
+                float t = tMin;
+                tMin = tMax;
+                tMax = t;
+                entrySide++;
+            }
+            if (tMin > near) {
+                near = tMin;
+                side = entrySide;
+            }
+            far = Math.min(far, tMax);
+            if (near > far) return -1;
+        }
+        // Starting inside the cube, or the cube is behind the ray
+        if (side < 0 || near < 0) return -1;
+
+        Grid grid = mGrids[side];
+        if (grid == null) {
+            throw new InvalidParameterException("No squares on side " + side);
+        }
+        int row = getCell(ray, near, grid.rowAxis, grid.origin, grid.rowSign, grid.rows);
+        int col = getCell(ray, near, grid.colAxis, grid.origin, grid.colSign, grid.cols);
+        return grid.base + row * grid.cols + col;
+    }
+
+    private int getCell(Ray ray, float t, int axis, float[] origin, float sign, int count) {
+        float position = get(ray.origin, axis) + t * get(ray.direction, axis);
+        int cell = (int) Math.floor(sign * (position - origin[axis]) / mStep);
+        // Hits on the border of the box, outside the squares, go to the nearest square
+        return Math.max(0, Math.min(count - 1, cell));
+    }
+
+    private static float get(Vector3 vector, int axis) {
+        switch (axis) {
+            case 0: return vector.x;
+            case 1: return vector.y;
+            default: return vector.z;
+        }
+    }
+}
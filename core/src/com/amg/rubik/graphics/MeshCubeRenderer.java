@@ -0,0 +1,226 @@
+package com.amg.rubik.graphics;
+
+import com.amg.rubik.cube.Square;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Disposable;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Draws all the squares of a cube from a single mesh with a single draw call.
+ *
+ * Every square is two triangles in the mesh, with its color and a flag telling whether it
+ * belongs to the layer being rotated. The rotation of the layer is a uniform, so animating it
+ * doesn't touch the vertices; they are uploaded again only when a rotation finishes and the
+ * colors change, or when the next rotation starts.
+ *
+ * drawSquare calls only record the state of each square. Call render() once the cube has
+ * drawn all of its squares for the frame:
+ *
+ *  cube.draw();
+ *  renderer.render(camera);
+ *
+ * The lighting matches the environment CubeApp used with ModelBatch: an ambient light and a
+ * single directional light.
+ * */
+public class MeshCubeRenderer implements CubeRenderer, Disposable {
+
+    private static final String tag = "rubik-mesh";
+
+    private static final String ROTATING_ATTRIBUTE = "a_rotating";
+
+    private static final String vertexShader =
+            "attribute vec3 " + ShaderProgram.POSITION_ATTRIBUTE + ";\n" +
+            "attribute vec3 " + ShaderProgram.NORMAL_ATTRIBUTE + ";\n" +
+            "attribute vec4 " + ShaderProgram.COLOR_ATTRIBUTE + ";\n" +
+            "attribute float " + ROTATING_ATTRIBUTE + ";\n" +
+            "uniform mat4 u_projViewTrans;\n" +
+            "uniform mat4 u_rotation;\n" +
+            "uniform vec3 u_lightDirection;\n" +
+            "uniform float u_ambient;\n" +
+            "uniform float u_diffuse;\n" +
+            "varying vec4 v_color;\n" +
+            "void main() {\n" +
+            "    mat4 model = " + ROTATING_ATTRIBUTE + " > 0.5 ? u_rotation : mat4(1.0);\n" +
+            "    vec3 normal = normalize((model * vec4(" +
+                    ShaderProgram.NORMAL_ATTRIBUTE + ", 0.0)).xyz);\n" +
+            // Squares are visible from both sides, like the ones drawn by ModelBatch
+            "    float light = u_ambient + u_diffuse * abs(dot(normal, u_lightDirection));\n" +
+            "    v_color = vec4(" + ShaderProgram.COLOR_ATTRIBUTE + ".rgb * min(light, 1.0), " +
+                    ShaderProgram.COLOR_ATTRIBUTE + ".a);\n" +
+            "    gl_Position = u_projViewTrans * model * vec4(" +
+                    ShaderProgram.POSITION_ATTRIBUTE + ", 1.0);\n" +
+            "}\n";
+
+    private static final String fragmentShader =
+            "#ifdef GL_ES\n" +
+            "precision mediump float;\n" +
+            "#endif\n" +
+            "varying vec4 v_color;\n" +
+            "void main() {\n" +
+            "    gl_FragColor = v_color;\n" +
+            "}\n";
+
+    private static final float AMBIENT = 0.4f;
+    private static final float DIFFUSE = 0.8f;
+    private static final Vector3 lightDirection = new Vector3(-1, -0.8f, -0.2f).nor();
+
+    // position, normal, packed color, rotating flag
+    private static final int VERTEX_SIZE = 3 + 3 + 1 + 1;
+    private static final int COLOR_OFFSET = 6;
+    private static final int ROTATING_OFFSET = 7;
+    private static final int VERTICES_PER_SQUARE = 6;
+
+    // Corners of the two triangles of a square
+    private static final int[] triangleCorners = {0, 1, 2, 2, 3, 0};
+
+    private final IdentityHashMap<Square, Integer> mSquareIndices = new IdentityHashMap<>();
+    private final int[] mColors;
+    private final boolean[] mRotating;
+    private final float[] mVertices;
+    private final Mesh mMesh;
+    private final ShaderProgram mShader;
+
+    private final Matrix4 mRotation = new Matrix4();
+    private final Color mColor = new Color();
+    private int mDirtyStart;
+    private int mDirtyEnd;
+
+    public MeshCubeRenderer(List<Square> squares) {
+        int count = squares.size();
+        mColors = new int[count];
+        mRotating = new boolean[count];
+        mVertices = new float[count * VERTICES_PER_SQUARE * VERTEX_SIZE];
+
+        Vector3 edge1 = new Vector3();
+        Vector3 edge2 = new Vector3();
+        for (int i = 0; i < count; i++) {
+            Square square = squares.get(i);
+            mSquareIndices.put(square, i);
+
+            float[] corners = square.getVertices();
+            edge1.set(corners[3] - corners[0], corners[4] - corners[1], corners[5] - corners[2]);
+            edge2.set(corners[9] - corners[0], corners[10] - corners[1], corners[11] - corners[2]);
+            Vector3 normal = edge1.crs(edge2).nor();
+
+            int offset = i * VERTICES_PER_SQUARE * VERTEX_SIZE;
+            for (int corner: triangleCorners) {
+                mVertices[offset] = corners[corner * 3];
+                mVertices[offset + 1] = corners[corner * 3 + 1];
+                mVertices[offset + 2] = corners[corner * 3 + 2];
+                mVertices[offset + 3] = normal.x;
+                mVertices[offset + 4] = normal.y;
+                mVertices[offset + 5] = normal.z;
+                offset += VERTEX_SIZE;
+            }
+            setColor(i, square.getColor());
+        }
+
+        mMesh = new Mesh(false, mVertices.length / VERTEX_SIZE, 0,
+                new VertexAttribute(VertexAttributes.Usage.Position, 3,
+                        ShaderProgram.POSITION_ATTRIBUTE),
+                new VertexAttribute(VertexAttributes.Usage.Normal, 3,
+                        ShaderProgram.NORMAL_ATTRIBUTE),
+                new VertexAttribute(VertexAttributes.Usage.ColorPacked, 4,
+                        ShaderProgram.COLOR_ATTRIBUTE),
+                new VertexAttribute(VertexAttributes.Usage.Generic, 1, ROTATING_ATTRIBUTE));
+        mMesh.setVertices(mVertices);
+        mDirtyStart = count;
+        mDirtyEnd = 0;
+
+        mShader = new ShaderProgram(vertexShader, fragmentShader);
+        if (!mShader.isCompiled()) {
+            throw new IllegalStateException("Cannot compile cube shader: " + mShader.getLog());
+        }
+    }
+
+    @Override
+    public void drawSquare(Square square) {
+        update(square, false);
+    }
+
+    @Override
+    public void drawSquare(Square square, float angleDegrees, float x, float y, float z) {
+        update(square, true);
+        // All the squares of a frame turn with the same rotation
+        mRotation.setToRotation(x, y, z, angleDegrees);
+    }
+
+    private void update(Square square, boolean rotating) {
+        Integer index = mSquareIndices.get(square);
+        if (index == null) {
+            throw new IllegalArgumentException("Square isn't part of this renderer's cube");
+        }
+        int i = index;
+        if (mColors[i] != square.getColor()) {
+            setColor(i, square.getColor());
+        }
+        if (mRotating[i] != rotating) {
+            mRotating[i] = rotating;
+            float flag = rotating ? 1 : 0;
+            int offset = i * VERTICES_PER_SQUARE * VERTEX_SIZE + ROTATING_OFFSET;
+            for (int v = 0; v < VERTICES_PER_SQUARE; v++) {
+                mVertices[offset + v * VERTEX_SIZE] = flag;
+            }
+            markDirty(i);
+        }
+    }
+
+    private void setColor(int index, int color) {
+        mColors[index] = color;
+        Color.rgba8888ToColor(mColor, color);
+        float packed = mColor.toFloatBits();
+        int offset = index * VERTICES_PER_SQUARE * VERTEX_SIZE + COLOR_OFFSET;
+        for (int v = 0; v < VERTICES_PER_SQUARE; v++) {
+            mVertices[offset + v * VERTEX_SIZE] = packed;
+        }
+        markDirty(index);
+    }
+
+    private void markDirty(int index) {
+        mDirtyStart = Math.min(mDirtyStart, index);
+        mDirtyEnd = Math.max(mDirtyEnd, index + 1);
+    }
+
+    /**
+     * Draw the squares with the state recorded by the drawSquare calls since the last frame
+     * */
+    public void render(Camera camera) {
+        if (mDirtyStart < mDirtyEnd) {
+            int floatsPerSquare = VERTICES_PER_SQUARE * VERTEX_SIZE;
+            int offset = mDirtyStart * floatsPerSquare;
+            mMesh.updateVertices(offset, mVertices, offset,
+                    (mDirtyEnd - mDirtyStart) * floatsPerSquare);
+            mDirtyStart = mColors.length;
+            mDirtyEnd = 0;
+        }
+
+        Gdx.gl.glEnable(GL20.GL_DEPTH_TEST);
+        Gdx.gl.glDepthFunc(GL20.GL_LEQUAL);
+        mShader.begin();
+        mShader.setUniformMatrix("u_projViewTrans", camera.combined);
+        mShader.setUniformMatrix("u_rotation", mRotation);
+        mShader.setUniformf("u_lightDirection", lightDirection);
+        mShader.setUniformf("u_ambient", AMBIENT);
+        mShader.setUniformf("u_diffuse", DIFFUSE);
+        mMesh.render(mShader, GL20.GL_TRIANGLES);
+        mShader.end();
+        Gdx.gl.glDisable(GL20.GL_DEPTH_TEST);
+    }
+
+    @Override
+    public void dispose() {
+        mMesh.dispose();
+        mShader.dispose();
+    }
+}
@@ -0,0 +1,123 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.cube.Algorithm;
+import com.amg.rubik.cube.SplitMix64;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Random state scrambles for the 3x3x3 in bulk, on all cores, e.g. for practice sets.
+ *
+ * The scrambles are made the same way as RandomStateScrambler does; solving the drawn states
+ * takes nearly all the time, so this scales with the number of cores. Like BatchSolver, every
+ * worker thread has its own TwoPhaseSolver while the tables are shared.
+ *
+ * Every chunk of CHUNK_SIZE scrambles draws its states from a generator split from the seed in
+ * order, so the states only depend on the seed, not on the number of threads. So do the
+ * scrambles, unless a search times out and a state is drawn again.
+ * */
+public class BatchScrambler {
+
+    // Number of scrambles made sequentially by one task
+    private static final int CHUNK_SIZE = 16;
+
+    private final ForkJoinPool mPool;
+    private final int mMaxLength;
+    private final long mTimeout;
+    private final TwoPhaseTables mTables;
+
+    private final ThreadLocal<TwoPhaseSolver> mSolvers = new ThreadLocal<TwoPhaseSolver>() {
+        @Override
+        protected TwoPhaseSolver initialValue() {
+            return new TwoPhaseSolver(mTables);
+        }
+    };
+
+    /**
+     * Uses all available cores
+     * */
+    public BatchScrambler() {
+        this(new ForkJoinPool(), TwoPhaseSolver.DEFAULT_MAX_LENGTH, TwoPhaseSolver.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param maxLength longest scramble accepted from the solver; shorter takes more time
+     * @param timeoutMillis time limit for each solver call, after which another state is drawn
+     * */
+    public BatchScrambler(ForkJoinPool pool, int maxLength, long timeoutMillis) {
+        mPool = pool;
+        mMaxLength = maxLength;
+        mTimeout = timeoutMillis;
+        // Build or load the tables once, before the workers need them
+        mTables = TwoPhaseTables.getInstance();
+    }
+
+    /**
+     * @return @count scrambles in face * 3 + power notation
+     * */
+    public List<int[]> generate(long seed, int count) {
+        if (count < 0) {
+            throw new InvalidParameterException("Invalid count " + count);
+        }
+        int[][] scrambles = new int[count][];
+        SplitMix64 random = new SplitMix64(seed);
+        final ArrayList<ScrambleTask> tasks = new ArrayList<>();
+        for (int start = 0; start < count; start += CHUNK_SIZE) {
+            tasks.add(new ScrambleTask(random.split(), scrambles, start,
+                    Math.min(start + CHUNK_SIZE, count)));
+        }
+        mPool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                invokeAll(tasks);
+            }
+        });
+        return Arrays.asList(scrambles);
+    }
+
+    /**
+     * Scrambles as rotations of a 3x3x3 cube
+     *
+     * @see #generate(long, int)
+     * */
+    public List<Algorithm> generateAlgorithms(long seed, int count) {
+        List<int[]> scrambles = generate(seed, count);
+        ArrayList<Algorithm> algorithms = new ArrayList<>(scrambles.size());
+        for (int[] scramble: scrambles) {
+            algorithms.add(TwoPhaseSolver.toAlgorithm(scramble, 3));
+        }
+        return algorithms;
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private class ScrambleTask extends RecursiveAction {
+        private final SplitMix64 mRandom;
+        private final int[][] mScrambles;
+        private final int mStart;
+        private final int mEnd;
+
+        ScrambleTask(SplitMix64 random, int[][] scrambles, int start, int end) {
+            mRandom = random;
+            mScrambles = scrambles;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            TwoPhaseSolver solver = mSolvers.get();
+            for (int i = mStart; i < mEnd; i++) {
+                mScrambles[i] = RandomStateScrambler.nextScramble(solver, mRandom, mMaxLength,
+                        mTimeout);
+            }
+        }
+    }
+}
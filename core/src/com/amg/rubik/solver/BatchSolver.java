@@ -0,0 +1,179 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.cube.Algorithm;
+import com.amg.rubik.cube.CubeSymmetry;
+import com.amg.rubik.cube.FaceletCube;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Headless solving of many 3x3x3 cubes in parallel, for collecting statistics and the like.
+ *
+ * The input is split into chunks that are solved on a ForkJoinPool. Every worker thread has its
+ * own TwoPhaseSolver (and so its own search buffers), while the tables are shared, so this
+ * scales with the number of cores. Nothing here touches the animated RubiksCube.
+ *
+ * Cubes that are the same state up to a rotation or reflection are only solved once: they
+ * are grouped by their CubieSymmetry key, and the solution of the first one is mapped to the
+ * others through the symmetries that give their common canonical form.
+ * */
+public class BatchSolver {
+
+    // Number of cubes solved sequentially by one task
+    private static final int CHUNK_SIZE = 16;
+
+    private final ForkJoinPool mPool;
+    private final int mMaxLength;
+    private final long mTimeout;
+    private final TwoPhaseTables mTables;
+
+    private final ThreadLocal<TwoPhaseSolver> mSolvers = new ThreadLocal<TwoPhaseSolver>() {
+        @Override
+        protected TwoPhaseSolver initialValue() {
+            return new TwoPhaseSolver(mTables);
+        }
+    };
+
+    /**
+     * Uses all available cores
+     * */
+    public BatchSolver() {
+        this(new ForkJoinPool(), TwoPhaseSolver.DEFAULT_MAX_LENGTH, TwoPhaseSolver.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param maxLength maximum solution length passed to the two phase solver
+     * @param timeoutMillis time limit for each cube
+     * */
+    public BatchSolver(ForkJoinPool pool, int maxLength, long timeoutMillis) {
+        mPool = pool;
+        mMaxLength = maxLength;
+        mTimeout = timeoutMillis;
+        // Build or load the tables once, before the workers need them
+        mTables = TwoPhaseTables.getInstance();
+    }
+
+    /**
+     * Solve the given states.
+     *
+     * @return solutions in face * 3 + power notation, in the order of the input. An entry is
+     * null if that cube couldn't be solved.
+     * */
+    public List<int[]> solve(List<CubieCube> cubes) {
+        int count = cubes.size();
+        CubieSymmetry symmetry = new CubieSymmetry();
+        HashMap<Long, Integer> classes = new HashMap<>();
+        ArrayList<CubieCube> unique = new ArrayList<>();
+        ArrayList<Integer> uniqueSymmetries = new ArrayList<>();
+        int[] classIndices = new int[count];
+        int[] symmetries = new int[count];
+        for (int i = 0; i < count; i++) {
+            CubieCube cube = cubes.get(i);
+            long key = symmetry.getKey(cube);
+            symmetries[i] = symmetry.getSymmetry();
+            Integer index = classes.get(key);
+            if (index == null) {
+                index = unique.size();
+                classes.put(key, index);
+                unique.add(cube);
+                uniqueSymmetries.add(symmetries[i]);
+            }
+            classIndices[i] = index;
+        }
+
+        int[][] uniqueSolutions = new int[unique.size()][];
+        mPool.invoke(new SolveTask(unique, uniqueSolutions, 0, unique.size()));
+
+        int[][] solutions = new int[count][];
+        for (int i = 0; i < count; i++) {
+            int index = classIndices[i];
+            int[] solution = uniqueSolutions[index];
+            if (solution == null || cubes.get(i) == unique.get(index)) {
+                solutions[i] = solution;
+                continue;
+            }
+            // Through the canonical form to this cube
+            int[] canonical = CubieSymmetry.getMoves(solution, uniqueSymmetries.get(index));
+            solutions[i] = CubieSymmetry.getMoves(canonical,
+                    CubeSymmetry.getInverse(symmetries[i]));
+            if (!solves(cubes.get(i), solutions[i])) {
+                // Different states with the same key
+                solutions[i] = mSolvers.get().solve(cubes.get(i), mMaxLength, mTimeout);
+            }
+        }
+        return Arrays.asList(solutions);
+    }
+
+    private static boolean solves(CubieCube cube, int[] moves) {
+        CubieCube copy = new CubieCube(cube);
+        for (int move: moves) {
+            copy.move(move);
+        }
+        return copy.isSolved();
+    }
+
+    /**
+     * Solve 3x3x3 facelet cubes
+     *
+     * @see #solve(List)
+     * */
+    public List<int[]> solveFacelets(List<FaceletCube> cubes) {
+        ArrayList<CubieCube> states = new ArrayList<>(cubes.size());
+        for (FaceletCube cube: cubes) {
+            states.add(new CubieCube(cube));
+        }
+        return solve(states);
+    }
+
+    /**
+     * Solve the cubes obtained by applying each scramble to a solved 3x3x3
+     *
+     * @see #solve(List)
+     * */
+    public List<int[]> solveScrambles(List<Algorithm> scrambles) {
+        ArrayList<CubieCube> states = new ArrayList<>(scrambles.size());
+        for (Algorithm scramble: scrambles) {
+            FaceletCube cube = new FaceletCube(3);
+            scramble.applyTo(cube);
+            states.add(new CubieCube(cube));
+        }
+        return solve(states);
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    private class SolveTask extends RecursiveAction {
+        private final List<CubieCube> mCubes;
+        private final int[][] mSolutions;
+        private final int mStart;
+        private final int mEnd;
+
+        SolveTask(List<CubieCube> cubes, int[][] solutions, int start, int end) {
+            mCubes = cubes;
+            mSolutions = solutions;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart <= CHUNK_SIZE) {
+                TwoPhaseSolver solver = mSolvers.get();
+                for (int i = mStart; i < mEnd; i++) {
+                    mSolutions[i] = solver.solve(mCubes.get(i), mMaxLength, mTimeout);
+                }
+                return;
+            }
+            int mid = (mStart + mEnd) >>> 1;
+            invokeAll(new SolveTask(mCubes, mSolutions, mStart, mid),
+                    new SolveTask(mCubes, mSolutions, mid, mEnd));
+        }
+    }
+}
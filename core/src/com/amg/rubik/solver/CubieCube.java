@@ -0,0 +1,633 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.cube.Cube;
+import com.amg.rubik.cube.CubeCodec;
+import com.amg.rubik.cube.FaceletCube;
+
+import java.security.InvalidParameterException;
+import java.util.Arrays;
+
+/**
+ * 3x3x3 cube on the cubie level: permutation and orientation of the 8 corners and 12 edges.
+ *
+ * Naming and numbering follow Kociemba's conventions so that the coordinates are interchangeable
+ * with published tables. Corners are URF, UFL, ULB, UBR, DFR, DLF, DBL, DRB and edges are
+ * UR, UF, UL, UB, DR, DF, DL, DB, FR, FL, BL, BR. cp[i] is the cubie sitting at position i and
+ * co[i] is its twist (0..2); ep and eo are the same for edges.
+ *
+ * Moves are numbered face * 3 + power, with faces in U, R, F, D, L, B order and power 0, 1, 2
+ * for quarter turn clockwise, half turn and quarter turn counter clockwise as seen from the face.
+ * */
+public class CubieCube {
+
+    public static final int CORNER_COUNT = 8;
+    public static final int EDGE_COUNT = 12;
+
+    public static final int URF = 0, UFL = 1, ULB = 2, UBR = 3, DFR = 4, DLF = 5, DBL = 6, DRB = 7;
+
+    public static final int UR = 0, UF = 1, UL = 2, UB = 3, DR = 4, DF = 5, DL = 6, DB = 7;
+    public static final int FR = 8, FL = 9, BL = 10, BR = 11;
+
+    public static final int U = 0, R = 1, F = 2, D = 3, L = 4, B = 5;
+    public static final int MOVE_COUNT = 18;
+
+    public static final int N_TWIST = 2187;
+    public static final int N_FLIP = 2048;
+    public static final int N_SLICE = 495;
+    public static final int N_CORNER_PERM = 40320;
+    public static final int N_EDGE8_PERM = 40320;
+    public static final int N_SLICE_PERM = 24;
+    public static final int N_CORNER_COMB = 70;
+    public static final int N_EDGE8_COMB = 70;
+
+    private static final String faceLetters = "URFDLB";
+
+    /**
+     * Cube face for each of the URFDLB faces
+     * */
+    static final int[] cubeFaces = {
+            Cube.FACE_TOP, Cube.FACE_RIGHT, Cube.FACE_FRONT,
+            Cube.FACE_BOTTOM, Cube.FACE_LEFT, Cube.FACE_BACK
+    };
+
+    /**
+     * Facelets of each corner position in the URFDLB layout (U1 = 0, R1 = 9 and so on),
+     * starting with the U or D facelet and going clockwise.
+     * */
+    static final int[][] cornerFacelet = {
+            {8, 9, 20}, {6, 18, 38}, {0, 36, 47}, {2, 45, 11},
+            {29, 26, 15}, {27, 44, 24}, {33, 53, 42}, {35, 17, 51}
+    };
+
+    /**
+     * Facelets of each edge position. The first one is on the U/D face, or the F/B face
+     * for the slice edges.
+     * */
+    static final int[][] edgeFacelet = {
+            {5, 10}, {7, 19}, {3, 37}, {1, 46}, {32, 16}, {28, 25},
+            {30, 43}, {34, 52}, {23, 12}, {21, 41}, {50, 39}, {48, 14}
+    };
+
+    static final int[][] cornerColor = {
+            {U, R, F}, {U, F, L}, {U, L, B}, {U, B, R},
+            {D, F, R}, {D, L, F}, {D, B, L}, {D, R, B}
+    };
+
+    static final int[][] edgeColor = {
+            {U, R}, {U, F}, {U, L}, {U, B}, {D, R}, {D, F},
+            {D, L}, {D, B}, {F, R}, {F, L}, {B, L}, {B, R}
+    };
+
+    // FaceletCube index of every facelet in the URFDLB layout
+    private static final int[] faceletIndices = new int[6 * 9];
+
+    // Corner whose second and third facelets have these colors (color1 * 6 + color2), or -1
+    private static final byte[] cornerByColors = new byte[6 * 6];
+
+    // Edge * 2 + flip for the colors of the two facelets of an edge position, or -1
+    private static final byte[] edgeByColors = new byte[6 * 6];
+
+    private static final int[][] cnk = new int[12][12];
+
+    private static final CubieCube[] sMoves = new CubieCube[MOVE_COUNT];
+
+    static {
+        for (int n = 0; n < 12; n++) {
+            cnk[n][0] = 1;
+            for (int k = 1; k <= n; k++) {
+                cnk[n][k] = cnk[n - 1][k - 1] + (k < n ? cnk[n - 1][k] : 0);
+            }
+        }
+
+        CubieCube[] basic = {
+                new CubieCube(
+                        new int[] {UBR, URF, UFL, ULB, DFR, DLF, DBL, DRB},
+                        new int[] {0, 0, 0, 0, 0, 0, 0, 0},
+                        new int[] {UB, UR, UF, UL, DR, DF, DL, DB, FR, FL, BL, BR},
+                        new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}),
+                new CubieCube(
+                        new int[] {DFR, UFL, ULB, URF, DRB, DLF, DBL, UBR},
+                        new int[] {2, 0, 0, 1, 1, 0, 0, 2},
+                        new int[] {FR, UF, UL, UB, BR, DF, DL, DB, DR, FL, BL, UR},
+                        new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}),
+                new CubieCube(
+                        new int[] {UFL, DLF, ULB, UBR, URF, DFR, DBL, DRB},
+                        new int[] {1, 2, 0, 0, 2, 1, 0, 0},
+                        new int[] {UR, FL, UL, UB, DR, FR, DL, DB, UF, DF, BL, BR},
+                        new int[] {0, 1, 0, 0, 0, 1, 0, 0, 1, 1, 0, 0}),
+                new CubieCube(
+                        new int[] {URF, UFL, ULB, UBR, DLF, DBL, DRB, DFR},
+                        new int[] {0, 0, 0, 0, 0, 0, 0, 0},
+                        new int[] {UR, UF, UL, UB, DF, DL, DB, DR, FR, FL, BL, BR},
+                        new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}),
+                new CubieCube(
+                        new int[] {URF, ULB, DBL, UBR, DFR, UFL, DLF, DRB},
+                        new int[] {0, 1, 2, 0, 0, 2, 1, 0},
+                        new int[] {UR, UF, BL, UB, DR, DF, FL, DB, FR, UL, DL, BR},
+                        new int[] {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0}),
+                new CubieCube(
+                        new int[] {URF, UFL, UBR, DRB, DFR, DLF, ULB, DBL},
+                        new int[] {0, 0, 1, 2, 0, 0, 2, 1},
+                        new int[] {UR, UF, UL, BR, DR, DF, DL, BL, FR, FL, UB, DB},
+                        new int[] {0, 0, 0, 1, 0, 0, 0, 1, 0, 0, 1, 1}),
+        };
+
+        for (int face = 0; face < 6; face++) {
+            CubieCube cube = new CubieCube();
+            for (int power = 0; power < 3; power++) {
+                cube.multiply(basic[face]);
+                sMoves[face * 3 + power] = new CubieCube(cube);
+            }
+        }
+
+        FaceletCube facelets = new FaceletCube(3);
+        for (int i = 0; i < faceletIndices.length; i++) {
+            faceletIndices[i] = facelets.getFaceOffset(cubeFaces[i / 9]) + i % 9;
+        }
+        Arrays.fill(cornerByColors, (byte) -1);
+        for (int j = 0; j < CORNER_COUNT; j++) {
+            cornerByColors[cornerColor[j][1] * 6 + cornerColor[j][2]] = (byte) j;
+        }
+        Arrays.fill(edgeByColors, (byte) -1);
+        for (int j = 0; j < EDGE_COUNT; j++) {
+            edgeByColors[edgeColor[j][0] * 6 + edgeColor[j][1]] = (byte) (j * 2);
+            edgeByColors[edgeColor[j][1] * 6 + edgeColor[j][0]] = (byte) (j * 2 + 1);
+        }
+    }
+
+    public final byte[] cp = new byte[CORNER_COUNT];
+    public final byte[] co = new byte[CORNER_COUNT];
+    public final byte[] ep = new byte[EDGE_COUNT];
+    public final byte[] eo = new byte[EDGE_COUNT];
+
+    /**
+     * Solved cube
+     * */
+    public CubieCube() {
+        reset();
+    }
+
+    public CubieCube(CubieCube that) {
+        copyFrom(that);
+    }
+
+    private CubieCube(int[] cp, int[] co, int[] ep, int[] eo) {
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            this.cp[i] = (byte) cp[i];
+            this.co[i] = (byte) co[i];
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            this.ep[i] = (byte) ep[i];
+            this.eo[i] = (byte) eo[i];
+        }
+    }
+
+    /**
+     * Build the cubie representation of a 3x3x3 facelet cube. Colors are matched to faces
+     * using the center squares, so any palette works.
+     *
+     * @throws InvalidParameterException if the colors don't form a valid set of cubies
+     * */
+    public CubieCube(FaceletCube facelets) {
+        if (facelets.getSizeX() != 3 || facelets.getSizeY() != 3 || facelets.getSizeZ() != 3) {
+            throw new InvalidParameterException("Cubie model is only for 3x3x3");
+        }
+
+        // Face of every color plus one, so that 0 is no center; the first face wins if
+        // centers repeat
+        byte[] colorFaces = new byte[256];
+        for (int face = 5; face >= 0; face--) {
+            colorFaces[facelets.getFacelet(faceletIndices[face * 9 + 4]) & 0xFF] =
+                    (byte) (face + 1);
+        }
+
+        int[] corner = new int[3];
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            int ori = -1;
+            for (int n = 0; n < 3; n++) {
+                corner[n] = getFace(facelets, colorFaces, cornerFacelet[i][n]);
+                if (ori < 0 && (corner[n] == U || corner[n] == D)) ori = n;
+            }
+            if (ori < 0) {
+                throw new InvalidParameterException("No U/D color on corner " + i);
+            }
+            int j = cornerByColors[corner[(ori + 1) % 3] * 6 + corner[(ori + 2) % 3]];
+            if (j < 0) {
+                throw new InvalidParameterException("Invalid corner at " + i);
+            }
+            cp[i] = (byte) j;
+            co[i] = (byte) ori;
+        }
+
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            int edge = edgeByColors[getFace(facelets, colorFaces, edgeFacelet[i][0]) * 6 +
+                    getFace(facelets, colorFaces, edgeFacelet[i][1])];
+            if (edge < 0) {
+                throw new InvalidParameterException("Invalid edge at " + i);
+            }
+            ep[i] = (byte) (edge >> 1);
+            eo[i] = (byte) (edge & 1);
+        }
+    }
+
+    private static int getFace(FaceletCube facelets, byte[] colorFaces, int facelet) {
+        byte color = facelets.getFacelet(faceletIndices[facelet]);
+        int face = colorFaces[color & 0xFF] - 1;
+        if (face < 0) {
+            throw new InvalidParameterException("Color " + color + " doesn't match any center");
+        }
+        return face;
+    }
+
+    /**
+     * Colors of the U, R, F, D, L and B centers of a 3x3x3 facelet cube
+     * */
+    public static byte[] getCenterColors(FaceletCube facelets) {
+        byte[] centers = new byte[6];
+        for (int face = 0; face < 6; face++) {
+            centers[face] = facelets.getColor(cubeFaces[face], 4);
+        }
+        return centers;
+    }
+
+    /**
+     * Facelet cube painted with face indices, the same way FaceletCube :: reset does
+     * */
+    public FaceletCube toFaceletCube() {
+        byte[] colors = new byte[6];
+        for (int face = 0; face < 6; face++) {
+            colors[face] = (byte) cubeFaces[face];
+        }
+        return toFaceletCube(colors);
+    }
+
+    /**
+     * Facelet cube painted with the given colors for the U, R, F, D, L and B faces.
+     * Converting back and forth with the centers of the source cube is lossless.
+     * */
+    public FaceletCube toFaceletCube(byte[] centers) {
+        FaceletCube facelets = new FaceletCube(3);
+        for (int face = 0; face < 6; face++) {
+            facelets.fillFace(cubeFaces[face], centers[face]);
+        }
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            int j = cp[i];
+            int ori = co[i];
+            for (int n = 0; n < 3; n++) {
+                setFacelet(facelets, cornerFacelet[i][(n + ori) % 3], centers[cornerColor[j][n]]);
+            }
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            int j = ep[i];
+            int ori = eo[i];
+            for (int n = 0; n < 2; n++) {
+                setFacelet(facelets, edgeFacelet[i][(n + ori) % 2], centers[edgeColor[j][n]]);
+            }
+        }
+        return facelets;
+    }
+
+    private static void setFacelet(FaceletCube facelets, int index, byte color) {
+        facelets.setColor(cubeFaces[index / 9], index % 9, color);
+    }
+
+    /**
+     * 54 character facelet string in URFDLB order, as used by most solver tools
+     * */
+    public String toFaceletString() {
+        return CubeCodec.toFaceletString(toFaceletCube());
+    }
+
+    public void reset() {
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            cp[i] = (byte) i;
+            co[i] = 0;
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            ep[i] = (byte) i;
+            eo[i] = 0;
+        }
+    }
+
+    public void copyFrom(CubieCube that) {
+        System.arraycopy(that.cp, 0, cp, 0, CORNER_COUNT);
+        System.arraycopy(that.co, 0, co, 0, CORNER_COUNT);
+        System.arraycopy(that.ep, 0, ep, 0, EDGE_COUNT);
+        System.arraycopy(that.eo, 0, eo, 0, EDGE_COUNT);
+    }
+
+    public boolean isSolved() {
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            if (cp[i] != i || co[i] != 0) return false;
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            if (ep[i] != i || eo[i] != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Checks that every cubie is present once, the twists and flips add up, and the corner
+     * and edge permutations have the same parity. Only such states can be reached by turning.
+     * */
+    public boolean verify() {
+        int sum = 0;
+        boolean[] seen = new boolean[EDGE_COUNT];
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            seen[ep[i]] = true;
+            sum += eo[i];
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            if (!seen[i]) return false;
+        }
+        if (sum % 2 != 0) return false;
+
+        sum = 0;
+        seen = new boolean[CORNER_COUNT];
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            seen[cp[i]] = true;
+            sum += co[i];
+        }
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            if (!seen[i]) return false;
+        }
+        if (sum % 3 != 0) return false;
+
+        return getParity(cp) == getParity(ep);
+    }
+
+    static int getParity(byte[] perm) {
+        int parity = 0;
+        for (int i = perm.length - 1; i > 0; i--) {
+            for (int j = i - 1; j >= 0; j--) {
+                if (perm[j] > perm[i]) parity++;
+            }
+        }
+        return parity % 2;
+    }
+
+    /**
+     * this = this * that; i.e. apply that after this
+     * */
+    public void multiply(CubieCube that) {
+        byte[] cp = new byte[CORNER_COUNT];
+        byte[] co = new byte[CORNER_COUNT];
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            cp[i] = this.cp[that.cp[i]];
+            co[i] = (byte) ((this.co[that.cp[i]] + that.co[i]) % 3);
+        }
+        System.arraycopy(cp, 0, this.cp, 0, CORNER_COUNT);
+        System.arraycopy(co, 0, this.co, 0, CORNER_COUNT);
+
+        byte[] ep = new byte[EDGE_COUNT];
+        byte[] eo = new byte[EDGE_COUNT];
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            ep[i] = this.ep[that.ep[i]];
+            eo[i] = (byte) ((this.eo[that.ep[i]] + that.eo[i]) % 2);
+        }
+        System.arraycopy(ep, 0, this.ep, 0, EDGE_COUNT);
+        System.arraycopy(eo, 0, this.eo, 0, EDGE_COUNT);
+    }
+
+    /**
+     * Inverse of this cube, i.e. the state that undoes it
+     * */
+    public CubieCube getInverse() {
+        CubieCube inv = new CubieCube();
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            inv.cp[cp[i]] = (byte) i;
+        }
+        for (int i = 0; i < CORNER_COUNT; i++) {
+            inv.co[i] = (byte) ((3 - co[inv.cp[i]]) % 3);
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            inv.ep[ep[i]] = (byte) i;
+        }
+        for (int i = 0; i < EDGE_COUNT; i++) {
+            inv.eo[i] = eo[inv.ep[i]];
+        }
+        return inv;
+    }
+
+    /**
+     * Apply move face * 3 + power
+     * */
+    public void move(int move) {
+        multiply(sMoves[move]);
+    }
+
+    /**
+     * Cubie cube of a single move. Shared instance; don't modify.
+     * */
+    static CubieCube getMoveCube(int move) {
+        return sMoves[move];
+    }
+
+    public static String moveToString(int move) {
+        return faceLetters.charAt(move / 3) + (new String[] {"", "2", "'"})[move % 3];
+    }
+
+    /**
+     * Orientation of the corners, 0 <= twist < 3^7
+     * */
+    public int getTwist() {
+        int twist = 0;
+        for (int i = URF; i < DRB; i++) {
+            twist = 3 * twist + co[i];
+        }
+        return twist;
+    }
+
+    public void setTwist(int twist) {
+        int sum = 0;
+        for (int i = DRB - 1; i >= URF; i--) {
+            co[i] = (byte) (twist % 3);
+            sum += co[i];
+            twist /= 3;
+        }
+        co[DRB] = (byte) ((3 - sum % 3) % 3);
+    }
+
+    /**
+     * Orientation of the edges, 0 <= flip < 2^11
+     * */
+    public int getFlip() {
+        int flip = 0;
+        for (int i = UR; i < BR; i++) {
+            flip = 2 * flip + eo[i];
+        }
+        return flip;
+    }
+
+    public void setFlip(int flip) {
+        int sum = 0;
+        for (int i = BR - 1; i >= UR; i--) {
+            eo[i] = (byte) (flip % 2);
+            sum += eo[i];
+            flip /= 2;
+        }
+        eo[BR] = (byte) ((2 - sum % 2) % 2);
+    }
+
+    /**
+     * Positions of the FR, FL, BL and BR edges, ignoring their order. 0 <= slice < 12C4
+     * Zero when all four are in the middle layer.
+     * */
+    public int getSlice() {
+        int slice = 0, x = 0;
+        for (int j = BR; j >= UR; j--) {
+            if (ep[j] >= FR) {
+                slice += cnk(11 - j, x + 1);
+                x++;
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Places the slice edges at the positions given by @slice and fills the other positions
+     * with the remaining edges in order. Orientations are left alone.
+     * */
+    public void setSlice(int slice) {
+        boolean[] occupied = new boolean[EDGE_COUNT];
+        int x = 3;
+        for (int j = UR; j <= BR; j++) {
+            if (x >= 0 && slice - cnk(11 - j, x + 1) >= 0) {
+                occupied[j] = true;
+                slice -= cnk(11 - j, x + 1);
+                x--;
+            }
+        }
+        int sliceEdge = FR;
+        int otherEdge = UR;
+        for (int j = UR; j <= BR; j++) {
+            ep[j] = (byte) (occupied[j] ? sliceEdge++ : otherEdge++);
+        }
+    }
+
+    /**
+     * Rank of the corner permutation, 0 <= perm < 8!
+     * */
+    public int getCornerPerm() {
+        return getPermRank(cp, 0, CORNER_COUNT);
+    }
+
+    public void setCornerPerm(int rank) {
+        setPermRank(cp, 0, CORNER_COUNT, 0, rank);
+    }
+
+    /**
+     * Rank of the permutation of the 8 U and D layer edges, 0 <= perm < 8!
+     * Only meaningful when all of them are in the U and D layers, as in phase 2 of the
+     * two phase algorithm.
+     * */
+    public int getEdge8Perm() {
+        return getPermRank(ep, UR, 8);
+    }
+
+    public void setEdge8Perm(int rank) {
+        setPermRank(ep, UR, 8, UR, rank);
+    }
+
+    /**
+     * Rank of the permutation of the 4 middle layer edges, 0 <= perm < 4!
+     * Only meaningful when all of them are in the middle layer.
+     * */
+    public int getSlicePerm() {
+        return getPermRank(ep, FR, 4);
+    }
+
+    public void setSlicePerm(int rank) {
+        setPermRank(ep, FR, 4, FR, rank);
+    }
+
+    /**
+     * Positions of the DFR, DLF, DBL and DRB corners, ignoring their order. 0 <= comb < 8C4
+     * Zero when all four are in the D layer.
+     * */
+    public int getCornerComb() {
+        return getComb(cp, 0, CORNER_COUNT, DFR);
+    }
+
+    /**
+     * Positions of the DR, DF, DL and DB edges among the 8 U and D layer edge positions,
+     * ignoring their order. 0 <= comb < 8C4
+     * Only meaningful when all the U and D layer edges are in those layers.
+     * */
+    public int getEdge8Comb() {
+        return getComb(ep, UR, 8, DR);
+    }
+
+    /**
+     * Positions of the values from @first on in perm[start .. start + n), ignoring their
+     * order; zero when they are all at the end
+     * */
+    private static int getComb(byte[] perm, int start, int n, int first) {
+        int comb = 0, x = 0;
+        for (int j = n - 1; j >= 0; j--) {
+            if (perm[start + j] >= first) {
+                comb += cnk(n - 1 - j, x + 1);
+                x++;
+            }
+        }
+        return comb;
+    }
+
+    /**
+     * Lehmer code of perm[start .. start + n)
+     * */
+    private static int getPermRank(byte[] perm, int start, int n) {
+        int rank = 0;
+        for (int i = 0; i < n; i++) {
+            int smaller = 0;
+            for (int j = i + 1; j < n; j++) {
+                if (perm[start + j] < perm[start + i]) smaller++;
+            }
+            rank = rank * (n - i) + smaller;
+        }
+        return rank;
+    }
+
+    private static void setPermRank(byte[] perm, int start, int n, int base, int rank) {
+        int[] code = new int[n];
+        for (int i = n - 1; i >= 0; i--) {
+            code[i] = rank % (n - i);
+            rank /= (n - i);
+        }
+        boolean[] used = new boolean[n];
+        for (int i = 0; i < n; i++) {
+            int k = code[i];
+            for (int v = 0; v < n; v++) {
+                if (used[v]) continue;
+                if (k-- == 0) {
+                    used[v] = true;
+                    perm[start + i] = (byte) (base + v);
+                    break;
+                }
+            }
+        }
+    }
+
+    static int cnk(int n, int k) {
+        if (k < 0 || k > n) return 0;
+        return cnk[n][k];
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof CubieCube)) return false;
+        CubieCube that = (CubieCube) obj;
+        return Arrays.equals(cp, that.cp) && Arrays.equals(co, that.co) &&
+                Arrays.equals(ep, that.ep) && Arrays.equals(eo, that.eo);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((getCornerPerm() * 31 + getTwist()) * 31 + getFlip()) * 31 + getSlice();
+    }
+
+    @Override
+    public String toString() {
+        return toFaceletString();
+    }
+}
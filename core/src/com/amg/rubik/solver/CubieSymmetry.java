@@ -0,0 +1,224 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.cube.CubeSymmetry;
+import com.amg.rubik.cube.FaceletCube;
+import com.amg.rubik.cube.SplitMix64;
+
+import java.util.Arrays;
+
+/**
+ * Canonical keys of 3x3x3 cubie cubes up to the 48 symmetries of the cube, the fast path of
+ * CubeSymmetry for the 3x3x3.
+ *
+ * Every corner and edge facelet gets a sticker number: position * 3 + twist for the corners
+ * and 24 + position * 2 + flip for the edges. A cube is then the map from every location to
+ * the sticker of the solved cube found there, which comes straight from cp, co, ep and eo.
+ * The image of a cube under a symmetry is this map conjugated by the sticker permutation of
+ * the symmetry, and it is fully given by the stickers at one location of each of the 20
+ * pieces. The conjugation tables hold, for every symmetry, where each of these 20 stickers is
+ * read from and what it is renamed to, so a piece of an image takes two lookups. The
+ * canonical form is the smallest of the 48 images; most of them are dropped at the first
+ * piece already.
+ *
+ * There are no colors to renumber: CubieCube(FaceletCube) names the colors after the centers.
+ * Symmetries are numbered the same way as in CubeSymmetry, and getMove() maps the moves of a
+ * cube to the moves of its image like CubeSymmetry :: transform does for rotations.
+ *
+ * An instance keeps scratch buffers, so use one per thread; the tables are shared.
+ * */
+public class CubieSymmetry {
+
+    public static final int SYMMETRY_COUNT = CubeSymmetry.SYMMETRY_COUNT;
+
+    private static final int STICKER_COUNT = 48;
+    private static final int FIRST_EDGE_STICKER = 24;
+    private static final int PIECE_COUNT = CubieCube.CORNER_COUNT + CubieCube.EDGE_COUNT;
+
+    // Sticker of each corner facelet for every co: (facelet - co) % 3
+    private static final byte[][] twists = {{0, 1, 2}, {2, 0, 1}, {1, 2, 0}};
+
+    // Location each piece of an image is read from, PIECE_COUNT for every symmetry
+    private static final byte[] sSources = new byte[SYMMETRY_COUNT * PIECE_COUNT];
+
+    // Name of every sticker in an image, STICKER_COUNT for every symmetry
+    private static final byte[] sRenames = new byte[SYMMETRY_COUNT * STICKER_COUNT];
+
+    // Move of an image for every move of the cube, by symmetry
+    private static final byte[][] sMoves = new byte[SYMMETRY_COUNT][CubieCube.MOVE_COUNT];
+
+    private final byte[] mStickers = new byte[STICKER_COUNT];
+    private final byte[] mBest = new byte[PIECE_COUNT];
+    private int mSymmetry;
+
+    static {
+        // Facelet index of every location, and the other way round
+        FaceletCube cube = new FaceletCube(3);
+        int[] facelets = new int[STICKER_COUNT];
+        int[] locations = new int[cube.getFaceletCount()];
+        for (int i = 0; i < locations.length; i++) {
+            locations[i] = -1;
+        }
+        for (int i = 0; i < CubieCube.CORNER_COUNT; i++) {
+            for (int n = 0; n < 3; n++) {
+                facelets[i * 3 + n] = getFaceletIndex(cube, CubieCube.cornerFacelet[i][n]);
+            }
+        }
+        for (int i = 0; i < CubieCube.EDGE_COUNT; i++) {
+            for (int n = 0; n < 2; n++) {
+                facelets[FIRST_EDGE_STICKER + i * 2 + n] =
+                        getFaceletIndex(cube, CubieCube.edgeFacelet[i][n]);
+            }
+        }
+        for (int sticker = 0; sticker < STICKER_COUNT; sticker++) {
+            locations[facelets[sticker]] = sticker;
+        }
+
+        // The image reads facelet i from perm[i], so the sticker at facelet j is renamed to
+        // the one at the facelet read from j
+        byte[][] images = new byte[SYMMETRY_COUNT][STICKER_COUNT];
+        for (int s = 0; s < SYMMETRY_COUNT; s++) {
+            int[] perm = CubeSymmetry.getPermutation(3, s);
+            for (int i = 0; i < perm.length; i++) {
+                int from = locations[perm[i]];
+                int to = locations[i];
+                if ((from < 0) != (to < 0)) {
+                    throw new AssertionError("Symmetry " + s + " moves a center to facelet " + i);
+                }
+                if (to < 0) continue;
+                images[s][to] = (byte) from;
+                sRenames[s * STICKER_COUNT + from] = (byte) to;
+            }
+            for (int piece = 0; piece < PIECE_COUNT; piece++) {
+                sSources[s * PIECE_COUNT + piece] = images[s][getLocation(piece)];
+            }
+        }
+
+        byte[][] moves = new byte[CubieCube.MOVE_COUNT][STICKER_COUNT];
+        for (int m = 0; m < CubieCube.MOVE_COUNT; m++) {
+            CubieCube moved = new CubieCube();
+            moved.move(m);
+            setStickers(moved, moves[m]);
+        }
+        byte[] image = new byte[STICKER_COUNT];
+        for (int s = 0; s < SYMMETRY_COUNT; s++) {
+            for (int m = 0; m < CubieCube.MOVE_COUNT; m++) {
+                for (int i = 0; i < STICKER_COUNT; i++) {
+                    image[i] = sRenames[s * STICKER_COUNT + moves[m][images[s][i]]];
+                }
+                int match = -1;
+                for (int other = 0; other < CubieCube.MOVE_COUNT; other++) {
+                    if (Arrays.equals(image, moves[other])) match = other;
+                }
+                if (match < 0) {
+                    throw new AssertionError("Symmetry " + s + " doesn't map move " + m);
+                }
+                sMoves[s][m] = (byte) match;
+            }
+        }
+    }
+
+    private static int getFaceletIndex(FaceletCube cube, int facelet) {
+        return cube.getFaceOffset(CubieCube.cubeFaces[facelet / 9]) + facelet % 9;
+    }
+
+    /**
+     * Sticker of the first facelet of a piece: the corners, then the edges
+     * */
+    private static int getLocation(int piece) {
+        return piece < CubieCube.CORNER_COUNT ? piece * 3 :
+                FIRST_EDGE_STICKER + (piece - CubieCube.CORNER_COUNT) * 2;
+    }
+
+    private static void setStickers(CubieCube cube, byte[] stickers) {
+        for (int i = 0; i < CubieCube.CORNER_COUNT; i++) {
+            int corner = cube.cp[i] * 3;
+            byte[] twist = twists[cube.co[i]];
+            stickers[i * 3] = (byte) (corner + twist[0]);
+            stickers[i * 3 + 1] = (byte) (corner + twist[1]);
+            stickers[i * 3 + 2] = (byte) (corner + twist[2]);
+        }
+        for (int i = 0; i < CubieCube.EDGE_COUNT; i++) {
+            int edge = FIRST_EDGE_STICKER + cube.ep[i] * 2;
+            int flip = cube.eo[i];
+            stickers[FIRST_EDGE_STICKER + i * 2] = (byte) (edge + flip);
+            stickers[FIRST_EDGE_STICKER + i * 2 + 1] = (byte) (edge + (flip ^ 1));
+        }
+    }
+
+    /**
+     * 64 bit hash of the canonical form, the same for all the symmetric versions of @cube.
+     * Like CubeSymmetry :: getKey, different states collide with a chance of about 1 in 2^64.
+     * */
+    public long getKey(CubieCube cube) {
+        byte[] stickers = mStickers;
+        byte[] best = mBest;
+        setStickers(cube, stickers);
+        byte[] sources = sSources;
+        byte[] renames = sRenames;
+        // The smallest image so far is only worked out as far as it has been compared
+        int symmetry = 0;
+        int bestSource = 0;
+        int bestRename = 0;
+        int length = 0;
+        for (int s = 1; s < SYMMETRY_COUNT; s++) {
+            int source = s * PIECE_COUNT;
+            int rename = s * STICKER_COUNT;
+            for (int piece = 0; piece < PIECE_COUNT; piece++) {
+                if (piece == length) {
+                    best[length++] = renames[bestRename + stickers[sources[bestSource + piece]]];
+                }
+                byte sticker = renames[rename + stickers[sources[source + piece]]];
+                if (sticker != best[piece]) {
+                    if (sticker < best[piece]) {
+                        best[piece] = sticker;
+                        length = piece + 1;
+                        symmetry = s;
+                        bestSource = source;
+                        bestRename = rename;
+                    }
+                    break;
+                }
+            }
+        }
+        for (int piece = length; piece < PIECE_COUNT; piece++) {
+            best[piece] = renames[bestRename + stickers[sources[bestSource + piece]]];
+        }
+        mSymmetry = symmetry;
+
+        // 5 bits for each sticker, out of the 24 of its kind
+        long corners = 0;
+        for (int piece = 0; piece < CubieCube.CORNER_COUNT; piece++) {
+            corners = (corners << 5) | best[piece];
+        }
+        long edges = 0;
+        for (int piece = CubieCube.CORNER_COUNT; piece < PIECE_COUNT; piece++) {
+            edges = (edges << 5) | (best[piece] - FIRST_EDGE_STICKER);
+        }
+        return SplitMix64.mix64(SplitMix64.mix64(corners) ^ edges);
+    }
+
+    /**
+     * The symmetry that gave the canonical form in the last getKey()
+     * */
+    public int getSymmetry() {
+        return mSymmetry;
+    }
+
+    /**
+     * Move of the image under @symmetry for @move of the cube
+     * */
+    public static int getMove(int move, int symmetry) {
+        return sMoves[symmetry][move];
+    }
+
+    /**
+     * @see #getMove(int, int)
+     * */
+    public static int[] getMoves(int[] moves, int symmetry) {
+        int[] image = new int[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            image[i] = sMoves[symmetry][moves[i]];
+        }
+        return image;
+    }
+}
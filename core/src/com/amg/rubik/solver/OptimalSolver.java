@@ -0,0 +1,281 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.Log;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Optimal solutions for the 3x3x3 with Korf's iterative deepening A*, using the pattern
+ * databases of OptimalTables as the heuristic.
+ *
+ * Every iteration searches all the move sequences whose length plus the largest of the corner
+ * and the two edge distances fits in the bound, which grows by one each time. The distances
+ * are exact for part of the cube, so they never overestimate and the first solution found is
+ * as short as possible; at most 20 moves for any cube.
+ *
+ * Each iteration is split by its first two moves, and the resulting subtrees are searched in
+ * parallel on a ForkJoinPool; the first one to find a solution stops the others. Solving a
+ * random cube visits billions of nodes, so this can take a long time. getNodeCount() and
+ * getNodesPerSecond() describe the last search.
+ *
+ * An instance runs one search at a time; the tables are shared.
+ * */
+public class OptimalSolver {
+
+    private static final String tag = "rubik-optimal";
+
+    public static final int MAX_DEPTH = 20;
+    public static final long DEFAULT_TIMEOUT = 60000;
+
+    // Length of the move sequences the search is split by
+    private static final int SPLIT_DEPTH = 2;
+
+    // Check the clock and the other workers once in these many nodes
+    private static final int CHECK_INTERVAL = 1 << 16;
+
+    private final OptimalTables mTables;
+    private final ForkJoinPool mPool;
+
+    private final int[] mSolvedEdges = new int[OptimalTables.N_EDGE_SETS];
+
+    private long mNodeCount;
+    private long mElapsed;
+
+    public OptimalSolver() {
+        this(OptimalTables.getInstance(), new ForkJoinPool());
+    }
+
+    public OptimalSolver(OptimalTables tables, ForkJoinPool pool) {
+        mTables = tables;
+        mPool = pool;
+        for (int set = 0; set < mSolvedEdges.length; set++) {
+            mSolvedEdges[set] = OptimalTables.getSolvedEdges(set);
+        }
+    }
+
+    public int[] solve(CubieCube cube) {
+        return solve(cube, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Find a shortest solution.
+     *
+     * @return moves in face * 3 + power notation, or null if the cube can't be solved or
+     * the search timed out
+     * */
+    public synchronized int[] solve(CubieCube cube, long timeoutMillis) {
+        if (!cube.verify()) {
+            Log.w(tag, "Unsolvable cube " + cube);
+            return null;
+        }
+        long start = System.currentTimeMillis();
+        Search search = new Search(cube, start + timeoutMillis);
+        int[] solution = null;
+        try {
+            for (int bound = search.getDistance(); bound <= MAX_DEPTH; bound++) {
+                Log.d(tag, "Searching depth " + bound);
+                mPool.invoke(new RootTask(search, bound));
+                solution = search.mSolution;
+                if (solution != null || search.mTimedOut) break;
+            }
+        } finally {
+            mNodeCount = search.mNodes.get();
+            mElapsed = System.currentTimeMillis() - start;
+        }
+        if (solution == null) {
+            Log.w(tag, "No solution after " + mNodeCount + " nodes" +
+                    (search.mTimedOut ? " (timed out)" : ""));
+        } else {
+            Log.d(tag, String.format("%d moves, %d nodes in %d ms, %d nodes/s",
+                    solution.length, mNodeCount, mElapsed, getNodesPerSecond()));
+        }
+        return solution;
+    }
+
+    /**
+     * Nodes visited by the last search
+     * */
+    public long getNodeCount() {
+        return mNodeCount;
+    }
+
+    public long getNodesPerSecond() {
+        return mNodeCount * 1000 / Math.max(1, mElapsed);
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    /**
+     * Opposite faces commute, so only allow them in one order: U before D, R before L
+     * and F before B.
+     * */
+    private static boolean isRedundant(int face, int lastFace) {
+        return face == lastFace || face == lastFace - 3;
+    }
+
+    /**
+     * State shared by the workers of one solve
+     * */
+    private class Search {
+        final int mCornerPerm;
+        final int mTwist;
+        final int[] mEdges = new int[OptimalTables.N_EDGE_SETS];
+        final long mDeadline;
+        final AtomicLong mNodes = new AtomicLong();
+
+        volatile int[] mSolution;
+        volatile boolean mTimedOut;
+
+        Search(CubieCube cube, long deadline) {
+            mCornerPerm = cube.getCornerPerm();
+            mTwist = cube.getTwist();
+            for (int set = 0; set < mEdges.length; set++) {
+                mEdges[set] = OptimalTables.getEdges(cube, set);
+            }
+            mDeadline = deadline;
+        }
+
+        int getDistance() {
+            return Math.max(mTables.getCornerDistance(mCornerPerm, mTwist),
+                    Math.max(mTables.getEdgeDistance(0, mEdges[0]),
+                            mTables.getEdgeDistance(1, mEdges[1])));
+        }
+
+        boolean isDone() {
+            return mSolution != null || mTimedOut;
+        }
+    }
+
+    /**
+     * One iteration: a task for every non redundant sequence of SPLIT_DEPTH moves, or a single
+     * task for the whole tree if the bound is smaller than that
+     * */
+    private class RootTask extends RecursiveAction {
+        private final Search mSearch;
+        private final int mBound;
+
+        RootTask(Search search, int bound) {
+            mSearch = search;
+            mBound = bound;
+        }
+
+        @Override
+        protected void compute() {
+            int split = Math.min(SPLIT_DEPTH, mBound);
+            ArrayList<SearchTask> tasks = new ArrayList<>();
+            addTasks(tasks, new int[split], 0, -1);
+            invokeAll(tasks);
+        }
+
+        private void addTasks(ArrayList<SearchTask> tasks, int[] prefix, int depth,
+                              int lastFace) {
+            if (depth == prefix.length) {
+                tasks.add(new SearchTask(mSearch, mBound, prefix.clone()));
+                return;
+            }
+            for (int move = 0; move < OptimalTables.N_MOVES; move++) {
+                if (isRedundant(move / 3, lastFace)) continue;
+                prefix[depth] = move;
+                addTasks(tasks, prefix, depth + 1, move / 3);
+            }
+        }
+    }
+
+    /**
+     * Depth first search of the sequences starting with @prefix
+     * */
+    private class SearchTask extends RecursiveAction {
+        private final Search mSearch;
+        private final int mBound;
+        private final int[] mMoves;
+        private long mNodes;
+        private boolean mStopped;
+
+        SearchTask(Search search, int bound, int[] prefix) {
+            mSearch = search;
+            mBound = bound;
+            mMoves = new int[bound];
+            System.arraycopy(prefix, 0, mMoves, 0, prefix.length);
+        }
+
+        @Override
+        protected void compute() {
+            Search search = mSearch;
+            // Most tasks visit fewer than CHECK_INTERVAL nodes, so look at the clock here too
+            if (System.currentTimeMillis() > search.mDeadline) {
+                search.mTimedOut = true;
+            }
+            if (search.isDone()) return;
+            int cornerPerm = search.mCornerPerm;
+            int twist = search.mTwist;
+            int edges0 = search.mEdges[0];
+            int edges1 = search.mEdges[1];
+            int depth = Math.min(SPLIT_DEPTH, mBound);
+            for (int i = 0; i < depth; i++) {
+                int move = mMoves[i];
+                cornerPerm = mTables.cornerPermMove(cornerPerm, move);
+                twist = mTables.twistMove(twist, move);
+                edges0 = mTables.edgeMove(edges0, move);
+                edges1 = mTables.edgeMove(edges1, move);
+            }
+            int remaining = mBound - depth;
+            if (mTables.getCornerDistance(cornerPerm, twist) > remaining ||
+                    mTables.getEdgeDistance(0, edges0) > remaining ||
+                    mTables.getEdgeDistance(1, edges1) > remaining) {
+                return;
+            }
+            int lastFace = depth > 0 ? mMoves[depth - 1] / 3 : -1;
+            boolean found = search(depth, remaining, cornerPerm, twist, edges0, edges1,
+                    lastFace);
+            search.mNodes.addAndGet(mNodes);
+            if (found) {
+                synchronized (search) {
+                    if (search.mSolution == null) {
+                        search.mSolution = mMoves.clone();
+                    }
+                }
+            }
+        }
+
+        private boolean search(int depth, int remaining, int cornerPerm, int twist, int edges0,
+                               int edges1, int lastFace) {
+            if (remaining == 0) {
+                return cornerPerm == 0 && twist == 0 && edges0 == mSolvedEdges[0] &&
+                        edges1 == mSolvedEdges[1];
+            }
+            if (++mNodes % CHECK_INTERVAL == 0) {
+                if (System.currentTimeMillis() > mSearch.mDeadline) {
+                    mSearch.mTimedOut = true;
+                }
+                mStopped = mSearch.isDone();
+            }
+            if (mStopped) return false;
+
+            for (int face = 0; face < 6; face++) {
+                if (isRedundant(face, lastFace)) continue;
+                for (int power = 0; power < 3; power++) {
+                    int move = face * 3 + power;
+                    // Look up the edges only if the corners don't prune the move already
+                    int nextPerm = mTables.cornerPermMove(cornerPerm, move);
+                    int nextTwist = mTables.twistMove(twist, move);
+                    if (mTables.getCornerDistance(nextPerm, nextTwist) >= remaining) continue;
+                    int next0 = mTables.edgeMove(edges0, move);
+                    if (mTables.getEdgeDistance(0, next0) >= remaining) continue;
+                    int next1 = mTables.edgeMove(edges1, move);
+                    if (mTables.getEdgeDistance(1, next1) >= remaining) continue;
+                    mMoves[depth] = move;
+                    if (search(depth + 1, remaining - 1, nextPerm, nextTwist, next0, next1,
+                            face)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
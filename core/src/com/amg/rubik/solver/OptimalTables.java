@@ -0,0 +1,357 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Move tables and pattern databases for the optimal solver, after Korf's
+ * "Finding optimal solutions to Rubik's Cube using pattern databases".
+ *
+ * Each pattern database holds the exact number of moves needed to solve part of the cube, which
+ * is a lower bound for solving all of it:
+ *  corners: the permutation and twist of all 8 corners, 8! * 3^7 entries
+ *  edges: the positions and flips of 6 of the 12 edges, 12! / 6! * 2^6 entries, once for
+ *  UR .. DF and once for DL .. BR
+ * Distances are at most 11, so they are stored in 4 bits each.
+ *
+ * An edge coordinate is (rank of the positions of the 6 edges) * 64 + (their flips). A move
+ * changes the flips depending only on the positions, so the edge move table stores
+ * (new position rank) * 64 + (flips toggled by the move), and moving a coordinate is a lookup
+ * and an xor. The table is the same for both edge sets; only their solved coordinates differ.
+ *
+ * Everything takes about 135MB, and generating it takes minutes, so the tables are meant to be
+ * generated once with the generateOptimalTables task and mapped from the file. A single shared
+ * instance is created on first use otherwise. They are read only afterwards and safe to share
+ * between threads.
+ * */
+public class OptimalTables {
+
+    private static final String tag = "rubik-optimal-tables";
+
+    public static final int N_MOVES = CubieCube.MOVE_COUNT;
+
+    public static final int N_CORNERS = CubieCube.N_CORNER_PERM * CubieCube.N_TWIST;
+
+    public static final int EDGE_SET_SIZE = 6;
+    public static final int N_EDGE_SETS = 2;
+    // 12 * 11 * 10 * 9 * 8 * 7
+    public static final int N_EDGE_POSITIONS = 665280;
+    public static final int N_EDGES = N_EDGE_POSITIONS << EDGE_SET_SIZE;
+
+    /**
+     * Bump this whenever the layout or the meaning of the tables change
+     * */
+    public static final int VERSION = 1;
+    private static final String SECTION_PREFIX = "optimal." + VERSION + ".";
+
+    private static final int CORNER_PERM_MOVE = 0;
+    private static final int TWIST_MOVE = 1;
+    private static final int EDGE_MOVE = 2;
+    private static final int CORNER_PRUNE = 3;
+    private static final int EDGE_PRUNE = 4;
+
+    private static final String[] sectionNames = {
+            "corner-perm-move", "twist-move", "edge-move",
+            "corner-prune", "edge-prune-0", "edge-prune-1"
+    };
+
+    // Size of each section in bytes
+    private static final int[] sectionSizes = {
+            CubieCube.N_CORNER_PERM * N_MOVES * 2,
+            CubieCube.N_TWIST * N_MOVES * 2,
+            N_EDGE_POSITIONS * N_MOVES * 4,
+            N_CORNERS / 2,
+            N_EDGES / 2,
+            N_EDGES / 2
+    };
+
+    private static final int UNKNOWN = 0xF;
+
+    private static OptimalTables sInstance;
+
+    private final ByteBuffer[] mSections = new ByteBuffer[sectionNames.length];
+
+    private final CharBuffer mCornerPermMove;
+    private final ShortBuffer mTwistMove;
+    private final IntBuffer mEdgeMove;
+
+    private final ByteBuffer mCornerPrune;
+    private final ByteBuffer[] mEdgePrune = new ByteBuffer[N_EDGE_SETS];
+
+    /**
+     * Shared tables. If none were loaded, they are generated in memory, which takes minutes.
+     * */
+    public static synchronized OptimalTables getInstance() {
+        if (sInstance == null) {
+            long start = System.currentTimeMillis();
+            try {
+                sInstance = new OptimalTables(null);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            Log.d(tag, "Tables ready in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return sInstance;
+    }
+
+    /**
+     * Whether the shared tables are ready, i.e. loaded or generated before, so that
+     * getInstance() returns right away
+     * */
+    public static synchronized boolean isLoaded() {
+        return sInstance != null;
+    }
+
+    /**
+     * Use the tables stored in @file instead of generating them
+     *
+     * @throws IOException if the file doesn't have tables of the current version
+     * */
+    public static synchronized void load(TableFile file) throws IOException {
+        sInstance = new OptimalTables(file);
+    }
+
+    /**
+     * Add the tables to @file so that they can be written out and loaded later
+     * */
+    public void save(TableFile file) {
+        for (int i = 0; i < mSections.length; i++) {
+            file.addSection(SECTION_PREFIX + sectionNames[i], mSections[i]);
+        }
+    }
+
+    /**
+     * Map the tables from @file, or generate them if @file is null
+     * */
+    private OptimalTables(TableFile file) throws IOException {
+        for (int i = 0; i < mSections.length; i++) {
+            if (file == null) {
+                mSections[i] = ByteBuffer.allocateDirect(sectionSizes[i])
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                continue;
+            }
+            ByteBuffer section = file.getSection(SECTION_PREFIX + sectionNames[i]);
+            if (section == null || section.capacity() != sectionSizes[i]) {
+                throw new IOException("Missing or invalid table " + sectionNames[i] +
+                        " for version " + VERSION);
+            }
+            mSections[i] = section;
+        }
+
+        mCornerPermMove = mSections[CORNER_PERM_MOVE].asCharBuffer();
+        mTwistMove = mSections[TWIST_MOVE].asShortBuffer();
+        mEdgeMove = mSections[EDGE_MOVE].asIntBuffer();
+        mCornerPrune = mSections[CORNER_PRUNE];
+        for (int set = 0; set < N_EDGE_SETS; set++) {
+            mEdgePrune[set] = mSections[EDGE_PRUNE + set];
+        }
+
+        if (file == null) {
+            createMoveTables();
+            createPruneTable(mCornerPrune, N_CORNERS, 0, false);
+            for (int set = 0; set < N_EDGE_SETS; set++) {
+                createPruneTable(mEdgePrune[set], N_EDGES, getSolvedEdges(set), true);
+            }
+        }
+    }
+
+    public int cornerPermMove(int perm, int move) {
+        return mCornerPermMove.get(perm * N_MOVES + move);
+    }
+
+    public int twistMove(int twist, int move) {
+        return mTwistMove.get(twist * N_MOVES + move);
+    }
+
+    public int edgeMove(int edges, int move) {
+        return mEdgeMove.get((edges >>> EDGE_SET_SIZE) * N_MOVES + move) ^
+                (edges & ((1 << EDGE_SET_SIZE) - 1));
+    }
+
+    /**
+     * Moves needed to solve the corners of a cube with the given corner permutation and twist
+     * */
+    public int getCornerDistance(int cornerPerm, int twist) {
+        return getNibble(mCornerPrune, cornerPerm * CubieCube.N_TWIST + twist);
+    }
+
+    /**
+     * Moves needed to solve the edges of @set, given their edge coordinate
+     * */
+    public int getEdgeDistance(int set, int edges) {
+        return getNibble(mEdgePrune[set], edges);
+    }
+
+    /**
+     * Edge coordinate of the edges of @set in @cube
+     * */
+    public static int getEdges(CubieCube cube, int set) {
+        int[] positions = new int[EDGE_SET_SIZE];
+        int flips = 0;
+        for (int position = 0; position < CubieCube.EDGE_COUNT; position++) {
+            int edge = cube.ep[position] - set * EDGE_SET_SIZE;
+            if (edge < 0 || edge >= EDGE_SET_SIZE) continue;
+            positions[edge] = position;
+            flips |= cube.eo[position] << edge;
+        }
+        return (rankPositions(positions) << EDGE_SET_SIZE) | flips;
+    }
+
+    /**
+     * Edge coordinate of @set in a solved cube
+     * */
+    public static int getSolvedEdges(int set) {
+        return getEdges(new CubieCube(), set);
+    }
+
+    /**
+     * Rank of the positions of 6 distinct edges: each position is counted among the ones not
+     * taken by the edges before it
+     * */
+    private static int rankPositions(int[] positions) {
+        int rank = 0;
+        for (int i = 0; i < EDGE_SET_SIZE; i++) {
+            int free = positions[i];
+            for (int j = 0; j < i; j++) {
+                if (positions[j] < positions[i]) free--;
+            }
+            rank = rank * (CubieCube.EDGE_COUNT - i) + free;
+        }
+        return rank;
+    }
+
+    private static void unrankPositions(int rank, int[] positions) {
+        int[] free = new int[EDGE_SET_SIZE];
+        for (int i = EDGE_SET_SIZE - 1; i >= 0; i--) {
+            free[i] = rank % (CubieCube.EDGE_COUNT - i);
+            rank /= CubieCube.EDGE_COUNT - i;
+        }
+        boolean[] taken = new boolean[CubieCube.EDGE_COUNT];
+        for (int i = 0; i < EDGE_SET_SIZE; i++) {
+            int k = free[i];
+            for (int position = 0; position < CubieCube.EDGE_COUNT; position++) {
+                if (taken[position]) continue;
+                if (k-- == 0) {
+                    taken[position] = true;
+                    positions[i] = position;
+                    break;
+                }
+            }
+        }
+    }
+
+    private void createMoveTables() {
+        CubieCube cube = new CubieCube();
+        for (int i = 0; i < CubieCube.N_CORNER_PERM; i++) {
+            for (int move = 0; move < N_MOVES; move++) {
+                cube.setCornerPerm(i);
+                cube.move(move);
+                mCornerPermMove.put(i * N_MOVES + move, (char) cube.getCornerPerm());
+            }
+        }
+
+        cube.reset();
+        for (int i = 0; i < CubieCube.N_TWIST; i++) {
+            for (int move = 0; move < N_MOVES; move++) {
+                cube.setTwist(i);
+                cube.move(move);
+                mTwistMove.put(i * N_MOVES + move, (short) cube.getTwist());
+            }
+        }
+
+        // Where each move takes the edge at each position, and whether it flips it
+        int[][] targets = new int[N_MOVES][CubieCube.EDGE_COUNT];
+        int[][] flips = new int[N_MOVES][CubieCube.EDGE_COUNT];
+        for (int move = 0; move < N_MOVES; move++) {
+            CubieCube moveCube = CubieCube.getMoveCube(move);
+            for (int position = 0; position < CubieCube.EDGE_COUNT; position++) {
+                targets[move][moveCube.ep[position]] = position;
+                flips[move][moveCube.ep[position]] = moveCube.eo[position];
+            }
+        }
+
+        int[] positions = new int[EDGE_SET_SIZE];
+        int[] moved = new int[EDGE_SET_SIZE];
+        for (int i = 0; i < N_EDGE_POSITIONS; i++) {
+            unrankPositions(i, positions);
+            for (int move = 0; move < N_MOVES; move++) {
+                int toggled = 0;
+                for (int edge = 0; edge < EDGE_SET_SIZE; edge++) {
+                    moved[edge] = targets[move][positions[edge]];
+                    toggled |= flips[move][positions[edge]] << edge;
+                }
+                mEdgeMove.put(i * N_MOVES + move,
+                        (rankPositions(moved) << EDGE_SET_SIZE) | toggled);
+            }
+        }
+    }
+
+    private static int getNibble(ByteBuffer table, int index) {
+        return (table.get(index >>> 1) >> ((index & 1) << 2)) & 0xF;
+    }
+
+    private static void setNibble(ByteBuffer table, int index, int value) {
+        int shift = (index & 1) << 2;
+        int old = table.get(index >>> 1);
+        table.put(index >>> 1, (byte) ((old & ~(0xF << shift)) | (value << shift)));
+    }
+
+    /**
+     * Breadth first search from @goal. Once most of the table is filled, the search goes
+     * backwards: each unknown entry looks for a neighbour at the current depth, which is
+     * cheaper than expanding the huge last layers.
+     * */
+    private void createPruneTable(ByteBuffer table, int size, int goal, boolean edges) {
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < table.capacity(); i++) {
+            table.put(i, (byte) 0xFF);
+        }
+        setNibble(table, goal, 0);
+        int filled = 1;
+        for (int depth = 0; filled < size; depth++) {
+            boolean backward = filled > size / 3;
+            int found = 0;
+            for (int index = 0; index < size; index++) {
+                int distance = getNibble(table, index);
+                if (backward) {
+                    if (distance != UNKNOWN) continue;
+                    for (int move = 0; move < N_MOVES; move++) {
+                        if (getNibble(table, nextIndex(index, move, edges)) == depth) {
+                            setNibble(table, index, depth + 1);
+                            found++;
+                            break;
+                        }
+                    }
+                } else {
+                    if (distance != depth) continue;
+                    for (int move = 0; move < N_MOVES; move++) {
+                        int next = nextIndex(index, move, edges);
+                        if (getNibble(table, next) == UNKNOWN) {
+                            setNibble(table, next, depth + 1);
+                            found++;
+                        }
+                    }
+                }
+            }
+            if (found == 0) {
+                throw new AssertionError("Pattern database stuck at depth " + depth);
+            }
+            filled += found;
+        }
+        Log.d(tag, String.format("%s table: %d entries in %d ms", edges ? "Edge" : "Corner",
+                size, System.currentTimeMillis() - start));
+    }
+
+    private int nextIndex(int index, int move, boolean edges) {
+        if (edges) return edgeMove(index, move);
+        int cornerPerm = index / CubieCube.N_TWIST;
+        int twist = index % CubieCube.N_TWIST;
+        return cornerPermMove(cornerPerm, move) * CubieCube.N_TWIST + twistMove(twist, move);
+    }
+}
@@ -0,0 +1,327 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.Log;
+import com.amg.rubik.cube.FaceletCube;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Optimal solutions for the 2x2x2 from a table of the distance of every state.
+ *
+ * Turning only U, R and F leaves the DBL corner in place, so a state is the permutation of the
+ * other 7 corners and the twist of 6 of them: 7! * 3^6 = 3,674,160 states. The table stores
+ * each distance modulo 3 in 2 bits, which takes 900KB and is built by a breadth first search in
+ * well under a second on first use.
+ *
+ * Neighbouring states are at most one move apart, so the neighbour whose distance is one less
+ * modulo 3 is always one move closer to solved. Following those from any state gives a shortest
+ * solution (at most 11 moves) with at most 9 lookups per move and no search.
+ *
+ * The table is read only once built, so solving is thread safe.
+ * */
+public class PocketCubeSolver {
+
+    private static final String tag = "rubik-2x2x2";
+
+    public static final int N_MOVES = 9;    // U, R and F turns
+    public static final int N_PERM = 5040;  // 7!
+    public static final int N_TWIST = 729;  // 3^6
+    public static final int N_STATES = N_PERM * N_TWIST;
+
+    private static final int SIZE = 2;
+
+    // Every corner but DBL, which never moves
+    private static final int[] positions = {
+            CubieCube.URF, CubieCube.UFL, CubieCube.ULB, CubieCube.UBR,
+            CubieCube.DFR, CubieCube.DLF, CubieCube.DRB
+    };
+
+    private static final int UNKNOWN = 3;
+
+    private static char[] sPermMove;
+    private static short[] sTwistMove;
+    private static byte[] sDistances;
+
+    private PocketCubeSolver() {
+    }
+
+    /**
+     * Build the tables now instead of on the first solve
+     * */
+    public static synchronized void init() {
+        if (sDistances != null) return;
+        long start = System.currentTimeMillis();
+        char[] permMove = new char[N_PERM * N_MOVES];
+        short[] twistMove = new short[N_TWIST * N_MOVES];
+        CubieCube cube = new CubieCube();
+        for (int i = 0; i < N_PERM; i++) {
+            for (int move = 0; move < N_MOVES; move++) {
+                setPerm(cube, i);
+                cube.move(move);
+                permMove[i * N_MOVES + move] = (char) getPerm(cube);
+            }
+        }
+        cube.reset();
+        for (int i = 0; i < N_TWIST; i++) {
+            for (int move = 0; move < N_MOVES; move++) {
+                setTwist(cube, i);
+                cube.move(move);
+                twistMove[i * N_MOVES + move] = (short) getTwist(cube);
+            }
+        }
+        sPermMove = permMove;
+        sTwistMove = twistMove;
+        sDistances = createDistanceTable();
+        Log.d(tag, "Tables ready in " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    private static byte[] createDistanceTable() {
+        byte[] table = new byte[(N_STATES + 3) / 4];
+        for (int i = 0; i < table.length; i++) {
+            table[i] = (byte) 0xFF;
+        }
+        setDistance(table, 0, 0);
+        int filled = 1;
+        for (int depth = 0; filled < N_STATES; depth++) {
+            // States of depth - 3, depth - 6 ... look the same; their neighbours are all known
+            int value = depth % 3;
+            int next = (depth + 1) % 3;
+            int found = 0;
+            for (int state = 0; state < N_STATES; state++) {
+                if (getDistance(table, state) != value) continue;
+                for (int move = 0; move < N_MOVES; move++) {
+                    int neighbour = move(state, move);
+                    if (getDistance(table, neighbour) == UNKNOWN) {
+                        setDistance(table, neighbour, next);
+                        found++;
+                    }
+                }
+            }
+            if (found == 0) {
+                throw new AssertionError("Distance table stuck at depth " + depth);
+            }
+            filled += found;
+        }
+        return table;
+    }
+
+    private static int getDistance(byte[] table, int state) {
+        return (table[state >>> 2] >> ((state & 3) << 1)) & 3;
+    }
+
+    private static void setDistance(byte[] table, int state, int value) {
+        int shift = (state & 3) << 1;
+        table[state >>> 2] = (byte) ((table[state >>> 2] & ~(3 << shift)) | (value << shift));
+    }
+
+    private static int move(int state, int move) {
+        int perm = state / N_TWIST;
+        int twist = state % N_TWIST;
+        return sPermMove[perm * N_MOVES + move] * N_TWIST + sTwistMove[twist * N_MOVES + move];
+    }
+
+    /**
+     * Shortest solution of a cube whose DBL corner is solved.
+     *
+     * @return U, R and F moves in face * 3 + power notation
+     * @throws InvalidParameterException if the DBL corner isn't in place or the cube isn't
+     * solvable
+     * */
+    public static int[] solve(CubieCube cube) {
+        if (cube.cp[CubieCube.DBL] != CubieCube.DBL || cube.co[CubieCube.DBL] != 0) {
+            throw new InvalidParameterException("DBL corner not solved");
+        }
+        if (!isValid(cube)) {
+            throw new InvalidParameterException("Unsolvable 2x2x2 " + cube);
+        }
+        init();
+        int state = getPerm(cube) * N_TWIST + getTwist(cube);
+        int[] moves = new int[16];
+        int length = 0;
+        int distance = getDistance(sDistances, state);
+        while (state != 0) {
+            int closer = (distance + 2) % 3;
+            int move;
+            for (move = 0; move < N_MOVES; move++) {
+                int next = move(state, move);
+                if (getDistance(sDistances, next) == closer) {
+                    state = next;
+                    break;
+                }
+            }
+            if (move == N_MOVES) {
+                throw new AssertionError("No way down from state " + state);
+            }
+            moves[length++] = move;
+            distance = closer;
+        }
+        int[] solution = new int[length];
+        System.arraycopy(moves, 0, solution, 0, length);
+        return solution;
+    }
+
+    /**
+     * Shortest solution of a 2x2x2 facelet cube, solving it around its DBL corner. Colors are
+     * matched to faces using that corner, so any palette and orientation works.
+     *
+     * @throws InvalidParameterException if the colors don't form a solvable cube
+     * */
+    public static int[] solve(FaceletCube facelets) {
+        return solve(toCubieCube(facelets));
+    }
+
+    /**
+     * Corners of a 2x2x2 facelet cube, relative to its DBL corner. The edges are left solved.
+     * */
+    public static CubieCube toCubieCube(FaceletCube facelets) {
+        if (facelets.getSizeX() != SIZE || facelets.getSizeY() != SIZE ||
+                facelets.getSizeZ() != SIZE) {
+            throw new InvalidParameterException("Not a 2x2x2 cube");
+        }
+        byte[][] colors = new byte[CubieCube.CORNER_COUNT][3];
+        for (int i = 0; i < CubieCube.CORNER_COUNT; i++) {
+            for (int n = 0; n < 3; n++) {
+                colors[i][n] = getCornerColor(facelets, i, n);
+            }
+        }
+
+        // There are no centers; the DBL corner gives the D, L and B colors, and the faces
+        // opposite to them are the colors that never share a corner with them
+        byte[] faceColors = new byte[6];
+        byte[] dbl = colors[CubieCube.DBL];
+        faceColors[CubieCube.D] = dbl[0];
+        faceColors[CubieCube.B] = dbl[1];
+        faceColors[CubieCube.L] = dbl[2];
+        faceColors[CubieCube.U] = getOppositeColor(colors, dbl[0]);
+        faceColors[CubieCube.F] = getOppositeColor(colors, dbl[1]);
+        faceColors[CubieCube.R] = getOppositeColor(colors, dbl[2]);
+
+        CubieCube cube = new CubieCube();
+        int[] faces = new int[3];
+        for (int i = 0; i < CubieCube.CORNER_COUNT; i++) {
+            for (int n = 0; n < 3; n++) {
+                faces[n] = -1;
+                for (int face = 0; face < 6; face++) {
+                    if (faceColors[face] == colors[i][n]) faces[n] = face;
+                }
+            }
+            int ori;
+            for (ori = 0; ori < 3; ori++) {
+                if (faces[ori] == CubieCube.U || faces[ori] == CubieCube.D) break;
+            }
+            if (ori == 3) {
+                throw new InvalidParameterException("No U/D color on corner " + i);
+            }
+            int col1 = faces[(ori + 1) % 3];
+            int col2 = faces[(ori + 2) % 3];
+            int j;
+            for (j = 0; j < CubieCube.CORNER_COUNT; j++) {
+                if (col1 == CubieCube.cornerColor[j][1] && col2 == CubieCube.cornerColor[j][2]) {
+                    break;
+                }
+            }
+            if (j == CubieCube.CORNER_COUNT) {
+                throw new InvalidParameterException("Invalid corner at " + i);
+            }
+            cube.cp[i] = (byte) j;
+            cube.co[i] = (byte) ori;
+        }
+        return cube;
+    }
+
+    /**
+     * Color of facelet @n of corner position @i. The 2x2x2 squares are the corner squares of
+     * the 3x3x3 layout used by CubieCube.
+     * */
+    private static byte getCornerColor(FaceletCube facelets, int i, int n) {
+        int facelet = CubieCube.cornerFacelet[i][n];
+        int index = facelet % 9;
+        int row = index / 3 / 2;
+        int column = index % 3 / 2;
+        return facelets.getColor(CubieCube.cubeFaces[facelet / 9], row * SIZE + column);
+    }
+
+    private static byte getOppositeColor(byte[][] colors, byte color) {
+        boolean[] neighbour = new boolean[256];
+        for (byte[] corner: colors) {
+            if (corner[0] != color && corner[1] != color && corner[2] != color) continue;
+            for (byte other: corner) {
+                neighbour[other & 0xFF] = true;
+            }
+        }
+        for (byte[] corner: colors) {
+            for (byte other: corner) {
+                if (!neighbour[other & 0xFF]) return other;
+            }
+        }
+        throw new InvalidParameterException("No color opposite to " + color);
+    }
+
+    private static boolean isValid(CubieCube cube) {
+        int seen = 0;
+        int twist = 0;
+        for (int i = 0; i < CubieCube.CORNER_COUNT; i++) {
+            seen |= 1 << cube.cp[i];
+            twist += cube.co[i];
+        }
+        return seen == (1 << CubieCube.CORNER_COUNT) - 1 && twist % 3 == 0;
+    }
+
+    /**
+     * Rank of the permutation of the corners other than DBL
+     * */
+    private static int getPerm(CubieCube cube) {
+        int rank = 0;
+        for (int i = 0; i < positions.length; i++) {
+            int smaller = 0;
+            for (int j = i + 1; j < positions.length; j++) {
+                if (cube.cp[positions[j]] < cube.cp[positions[i]]) smaller++;
+            }
+            rank = rank * (positions.length - i) + smaller;
+        }
+        return rank;
+    }
+
+    private static void setPerm(CubieCube cube, int rank) {
+        int[] code = new int[positions.length];
+        for (int i = positions.length - 1; i >= 0; i--) {
+            code[i] = rank % (positions.length - i);
+            rank /= positions.length - i;
+        }
+        boolean[] used = new boolean[positions.length];
+        for (int i = 0; i < positions.length; i++) {
+            int k = code[i];
+            for (int v = 0; v < positions.length; v++) {
+                if (used[v]) continue;
+                if (k-- == 0) {
+                    used[v] = true;
+                    cube.cp[positions[i]] = (byte) positions[v];
+                    break;
+                }
+            }
+        }
+        cube.cp[CubieCube.DBL] = CubieCube.DBL;
+    }
+
+    /**
+     * Twist of the corners URF .. DLF; DRB makes up the rest, and DBL is never twisted
+     * */
+    private static int getTwist(CubieCube cube) {
+        int twist = 0;
+        for (int i = CubieCube.URF; i <= CubieCube.DLF; i++) {
+            twist = 3 * twist + cube.co[i];
+        }
+        return twist;
+    }
+
+    private static void setTwist(CubieCube cube, int twist) {
+        int sum = 0;
+        for (int i = CubieCube.DLF; i >= CubieCube.URF; i--) {
+            cube.co[i] = (byte) (twist % 3);
+            sum += cube.co[i];
+            twist /= 3;
+        }
+        cube.co[CubieCube.DBL] = 0;
+        cube.co[CubieCube.DRB] = (byte) ((3 - sum % 3) % 3);
+    }
+}
@@ -0,0 +1,126 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.Log;
+import com.amg.rubik.cube.Algorithm;
+
+import java.util.Random;
+
+/**
+ * Random state scrambles for the 3x3x3, the way competition scramblers make them.
+ *
+ * Instead of turning random layers, which needs a lot of moves to get anywhere near uniform,
+ * a legal cubie state is drawn uniformly at random: random corner and edge permutations of
+ * the same parity, and random twist and flip coordinates, which always add up. The two phase
+ * solver finds a short solution for the state, and the scramble is that solution reversed, so
+ * it has about 20 moves and leads exactly to the drawn state.
+ *
+ * States that are solved within MIN_DISTANCE moves are drawn again.
+ *
+ * Like TwoPhaseSolver, an instance is meant for one thread; the tables are shared.
+ * BatchScrambler makes many scrambles on all cores.
+ * */
+public class RandomStateScrambler {
+
+    private static final String tag = "rubik-scrambler";
+
+    public static final int MIN_DISTANCE = 2;
+
+    private final Random mRandom;
+    private final TwoPhaseSolver mSolver;
+    private final int mMaxLength;
+    private final long mTimeout;
+
+    public RandomStateScrambler() {
+        this(new Random());
+    }
+
+    public RandomStateScrambler(Random random) {
+        this(random, TwoPhaseTables.getInstance(),
+                TwoPhaseSolver.DEFAULT_MAX_LENGTH, TwoPhaseSolver.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * @param maxLength longest scramble accepted from the solver; shorter takes more time
+     * @param timeoutMillis time limit for each solver call, after which another state is drawn
+     * */
+    public RandomStateScrambler(Random random, TwoPhaseTables tables, int maxLength,
+                                long timeoutMillis) {
+        mRandom = random;
+        mSolver = new TwoPhaseSolver(tables);
+        mMaxLength = maxLength;
+        mTimeout = timeoutMillis;
+    }
+
+    /**
+     * Uniformly random state among the ones reachable by turning
+     * */
+    public static CubieCube getRandomState(Random random) {
+        CubieCube cube = new CubieCube();
+        shuffle(cube.cp, random);
+        shuffle(cube.ep, random);
+        if (CubieCube.getParity(cube.cp) != CubieCube.getParity(cube.ep)) {
+            // Swapping two edges pairs every odd permutation with an even one
+            byte edge = cube.ep[0];
+            cube.ep[0] = cube.ep[1];
+            cube.ep[1] = edge;
+        }
+        cube.setTwist(random.nextInt(CubieCube.N_TWIST));
+        cube.setFlip(random.nextInt(CubieCube.N_FLIP));
+        return cube;
+    }
+
+    /**
+     * Face moves leading from the solved cube to a random state, in face * 3 + power notation
+     * */
+    public int[] nextScramble() {
+        return nextScramble(mSolver, mRandom, mMaxLength, mTimeout);
+    }
+
+    /**
+     * Scramble for a state drawn from @random, solved with @solver
+     *
+     * @see BatchScrambler
+     * */
+    static int[] nextScramble(TwoPhaseSolver solver, Random random, int maxLength,
+                              long timeoutMillis) {
+        while (true) {
+            int[] solution = solver.solve(getRandomState(random), maxLength, timeoutMillis);
+            if (solution == null) {
+                Log.w(tag, "No solution in time, drawing another state");
+                continue;
+            }
+            if (solution.length < MIN_DISTANCE) continue;
+            return invert(solution);
+        }
+    }
+
+    /**
+     * Random state scramble as rotations of a 3x3x3 cube
+     * */
+    public Algorithm nextAlgorithm() {
+        return TwoPhaseSolver.toAlgorithm(nextScramble(), 3);
+    }
+
+    /**
+     * Moves that undo @moves: the same faces in reverse order, each turned the other way
+     * */
+    public static int[] invert(int[] moves) {
+        int[] inverse = new int[moves.length];
+        for (int i = 0; i < moves.length; i++) {
+            int move = moves[moves.length - 1 - i];
+            int face = move / 3;
+            int power = move % 3;
+            inverse[i] = face * 3 + (2 - power);
+        }
+        return inverse;
+    }
+
+    private static void shuffle(byte[] values, Random random) {
+        for (int i = values.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte value = values[i];
+            values[i] = values[j];
+            values[j] = value;
+        }
+    }
+}
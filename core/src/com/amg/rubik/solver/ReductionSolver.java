@@ -0,0 +1,662 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.Log;
+import com.amg.rubik.cube.Algorithm;
+import com.amg.rubik.cube.AlgorithmOptimizer;
+import com.amg.rubik.cube.FaceletCube;
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Reduction method for NxNxN cubes with 4 or more layers.
+ *
+ * The cube is solved from the outside in, so that every stage can use moves that leave the
+ * previous stages alone:
+ *
+ * 1. Corners, and on odd cubes the middle edges, are solved as a 2x2x2 with PocketCubeSolver
+ *    or as a 3x3x3 with TwoPhaseSolver, using only outer layer turns. This also decides the
+ *    color of every face.
+ * 2. Parity: the 24 edge wings at the same distance from a corner can only be permuted evenly
+ *    by the commutators below. Wing orbits with an odd permutation get one inner slice turn,
+ *    which is what causes the OLL parity of the usual method. There is no PLL parity, since
+ *    the corners are already solved.
+ * 3. Centers, orbit by orbit, with 3-cycles of center pieces.
+ * 4. Edges, by placing every wing with 3-cycles of wings.
+ *
+ * The 3-cycles are commutators [A, X B X'] of single layer turns whose two halves share
+ * exactly one piece, which makes them touch nothing but three pieces of that orbit, and their
+ * conjugates by an outer layer turn. The geometry is worked out once per size from the
+ * facelet permutations of FaceletCube, and every cycle is stored as the three facelets it
+ * moves. Solving a stage is then a greedy choice of cycles by looking up the colors at those
+ * facelets, without simulating anything but the chosen moves.
+ *
+ * Solvers are shared per size and don't keep any state while solving, so they are thread safe.
+ * */
+public class ReductionSolver {
+
+    private static final String tag = "rubik-reduction";
+
+    public static final int MIN_SIZE = 4;
+
+    private static final Axis[] axes = Axis.values();
+    private static final int FACE_COUNT = 6;
+
+    private static final HashMap<Integer, ReductionSolver> sSolvers = new HashMap<>();
+
+    private final int mSize;
+    private final int mFaceletCount;
+
+    // The facelet at i moves to mMoves[move][i], for move = getMove(axis, layer, turns)
+    private final int[][] mMoves;
+
+    // Facelets moved by each move
+    private final int[][] mMoved;
+
+    private final byte[] mFaces;
+    private final int[] mCubies;
+
+    // The other facelet of an edge piece, -1 for other pieces
+    private final int[] mPartners;
+
+    private final Orbit[] mOrbits;
+    private final ArrayList<Orbit> mCenterOrbits = new ArrayList<>();
+    private final ArrayList<Orbit> mWingOrbits = new ArrayList<>();
+
+    /**
+     * Center pieces, or one facelet of each wing, that can reach each other
+     * */
+    private static class Orbit {
+        final int[] facelets;
+        // Layer of the wings, for the parity slice turn
+        final int layer;
+        final HashMap<Long, Cycle> cycles = new HashMap<>();
+
+        Orbit(int[] facelets, int layer) {
+            this.facelets = facelets;
+            this.layer = layer;
+        }
+    }
+
+    /**
+     * Moves that take the piece at a to b, the one at b to c and the one at c to a
+     * */
+    private static class Cycle {
+        final int a;
+        final int b;
+        final int c;
+        final int[] moves;
+
+        Cycle(int a, int b, int c, int[] moves) {
+            this.a = a;
+            this.b = b;
+            this.c = c;
+            this.moves = moves;
+        }
+    }
+
+    /**
+     * Returns the shared solver for cubes of @size layers, creating it if needed
+     * */
+    public static ReductionSolver get(int size) {
+        if (size < MIN_SIZE) {
+            throw new InvalidParameterException("Reduction needs at least " + MIN_SIZE +
+                    " layers, not " + size);
+        }
+        synchronized (sSolvers) {
+            ReductionSolver solver = sSolvers.get(size);
+            if (solver == null) {
+                solver = new ReductionSolver(size);
+                sSolvers.put(size, solver);
+            }
+            return solver;
+        }
+    }
+
+    private ReductionSolver(int size) {
+        long start = System.currentTimeMillis();
+        mSize = size;
+        FaceletCube cube = new FaceletCube(size);
+        mFaceletCount = cube.getFaceletCount();
+
+        mMoves = new int[3 * size * 3][];
+        mMoved = new int[mMoves.length][];
+        for (int axis = 0; axis < 3; axis++) {
+            for (int layer = 0; layer < size; layer++) {
+                int move = getMove(axis, layer, 1);
+                int[] quarter = cube.getLayerPermutation(axes[axis], Direction.CLOCKWISE, layer);
+                mMoves[move] = quarter;
+                mMoves[move + 1] = new int[mFaceletCount];
+                for (int i = 0; i < mFaceletCount; i++) {
+                    mMoves[move + 1][i] = quarter[quarter[i]];
+                }
+                mMoves[move + 2] = cube.getLayerPermutation(axes[axis],
+                        Direction.COUNTER_CLOCKWISE, layer);
+            }
+        }
+        for (int move = 0; move < mMoves.length; move++) {
+            mMoved[move] = getMovedFacelets(mMoves[move]);
+        }
+
+        mFaces = new byte[mFaceletCount];
+        for (int face = 0; face < FACE_COUNT; face++) {
+            int offset = cube.getFaceOffset(face);
+            for (int i = 0; i < cube.getFaceSize(face); i++) {
+                mFaces[offset + i] = (byte) face;
+            }
+        }
+        mCubies = locateCubies(cube);
+        mPartners = findPartners();
+        mOrbits = new Orbit[mFaceletCount];
+        findOrbits();
+
+        ArrayList<Integer> outerQuarters = new ArrayList<>();
+        ArrayList<Integer> outer = new ArrayList<>();
+        ArrayList<Integer> inner = new ArrayList<>();
+        ArrayList<Integer> wingSlices = new ArrayList<>();
+        for (int axis = 0; axis < 3; axis++) {
+            for (int layer = 0; layer < size; layer++) {
+                for (int turns = 1; turns <= 3; turns++) {
+                    int move = getMove(axis, layer, turns);
+                    if (layer == 0 || layer == size - 1) {
+                        outer.add(move);
+                        if (turns != 2) outerQuarters.add(move);
+                    } else {
+                        inner.add(move);
+                        if (2 * layer != size - 1) wingSlices.add(move);
+                    }
+                }
+            }
+        }
+        createCycles(inner, outerQuarters, inner);
+        createCycles(wingSlices, outerQuarters, outer);
+        int count = 0;
+        for (Orbit orbit: mCenterOrbits) {
+            addConjugates(orbit);
+            count += orbit.cycles.size();
+        }
+        for (Orbit orbit: mWingOrbits) {
+            addConjugates(orbit);
+            count += orbit.cycles.size();
+        }
+        Log.d(tag, String.format("%d layers: %d center and %d wing orbits, %d cycles in %d ms",
+                size, mCenterOrbits.size(), mWingOrbits.size(), count,
+                System.currentTimeMillis() - start));
+    }
+
+    private int getMove(int axis, int layer, int turns) {
+        return (axis * mSize + layer) * 3 + turns - 1;
+    }
+
+    private static int getInverse(int move) {
+        return move - move % 3 + 2 - move % 3;
+    }
+
+    private int[] getMovedFacelets(int[] perm) {
+        int count = 0;
+        for (int i = 0; i < perm.length; i++) {
+            if (perm[i] != i) count++;
+        }
+        int[] moved = new int[count];
+        count = 0;
+        for (int i = 0; i < perm.length; i++) {
+            if (perm[i] != i) moved[count++] = i;
+        }
+        return moved;
+    }
+
+    /**
+     * Number the pieces by their layer along each axis. A facelet is in the layers whose
+     * turns move it; the center facelet of an odd face doesn't move with its own face, but
+     * shares that layer with the rest of the face.
+     * */
+    private int[] locateCubies(FaceletCube cube) {
+        int[][] layers = new int[3][mFaceletCount];
+        for (int axis = 0; axis < 3; axis++) {
+            for (int i = 0; i < mFaceletCount; i++) {
+                layers[axis][i] = -1;
+            }
+            for (int layer = 0; layer < mSize; layer++) {
+                for (int i: mMoved[getMove(axis, layer, 1)]) {
+                    layers[axis][i] = layer;
+                }
+            }
+        }
+        int[] cubies = new int[mFaceletCount];
+        for (int i = 0; i < mFaceletCount; i++) {
+            int cubie = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                int layer = layers[axis][i];
+                if (layer < 0) {
+                    // Any corner of the face is in the same layer
+                    layer = layers[axis][cube.getFaceOffset(mFaces[i])];
+                }
+                cubie = cubie * mSize + layer;
+            }
+            cubies[i] = cubie;
+        }
+        return cubies;
+    }
+
+    private int getLayer(int cubie, int axis) {
+        for (int i = axis; i < 2; i++) {
+            cubie /= mSize;
+        }
+        return cubie % mSize;
+    }
+
+    private int countOuterLayers(int cubie) {
+        int count = 0;
+        for (int axis = 0; axis < 3; axis++) {
+            int layer = getLayer(cubie, axis);
+            if (layer == 0 || layer == mSize - 1) count++;
+        }
+        return count;
+    }
+
+    private int[] findPartners() {
+        int[] partners = new int[mFaceletCount];
+        int[] first = new int[mSize * mSize * mSize];
+        for (int i = 0; i < first.length; i++) {
+            first[i] = -1;
+        }
+        for (int i = 0; i < mFaceletCount; i++) {
+            partners[i] = -1;
+            if (countOuterLayers(mCubies[i]) != 2) continue;
+            int other = first[mCubies[i]];
+            if (other < 0) {
+                first[mCubies[i]] = i;
+            } else {
+                partners[i] = other;
+                partners[other] = i;
+            }
+        }
+        return partners;
+    }
+
+    /**
+     * Split the center and wing facelets into the sets that moves can mix. Each wing shows up
+     * in two such sets, one for either of its facelets, since wings can't be flipped in place;
+     * only one of them is kept.
+     * */
+    private void findOrbits() {
+        int[] roots = new int[mFaceletCount];
+        for (int i = 0; i < mFaceletCount; i++) {
+            roots[i] = i;
+        }
+        for (int[] perm: mMoves) {
+            for (int i = 0; i < mFaceletCount; i++) {
+                int a = findRoot(roots, i);
+                int b = findRoot(roots, perm[i]);
+                if (a != b) roots[Math.max(a, b)] = Math.min(a, b);
+            }
+        }
+        HashMap<Integer, ArrayList<Integer>> groups = new HashMap<>();
+        for (int i = 0; i < mFaceletCount; i++) {
+            int root = findRoot(roots, i);
+            ArrayList<Integer> group = groups.get(root);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(root, group);
+            }
+            group.add(i);
+        }
+        for (int root = 0; root < mFaceletCount; root++) {
+            ArrayList<Integer> group = groups.get(root);
+            if (group == null) continue;
+            int[] facelets = new int[group.size()];
+            for (int i = 0; i < facelets.length; i++) {
+                facelets[i] = group.get(i);
+            }
+            int cubie = mCubies[root];
+            Orbit orbit;
+            switch (countOuterLayers(cubie)) {
+                case 1:
+                    // The centers of odd faces never leave their face
+                    if (facelets.length == FACE_COUNT) continue;
+                    orbit = new Orbit(facelets, -1);
+                    mCenterOrbits.add(orbit);
+                    break;
+
+                case 2:
+                    int partnerRoot = findRoot(roots, mPartners[root]);
+                    // Middle edges flip, so both their facelets are in one set
+                    if (partnerRoot == root) continue;
+                    if (partnerRoot < root) continue;
+                    int layer = -1;
+                    for (int axis = 0; axis < 3; axis++) {
+                        int l = getLayer(cubie, axis);
+                        if (l != 0 && l != mSize - 1) layer = l;
+                    }
+                    orbit = new Orbit(facelets, layer);
+                    mWingOrbits.add(orbit);
+                    break;
+
+                default:
+                    continue;
+            }
+            for (int i: facelets) {
+                mOrbits[i] = orbit;
+            }
+        }
+    }
+
+    private static int findRoot(int[] roots, int i) {
+        while (roots[i] != i) {
+            roots[i] = roots[roots[i]];
+            i = roots[i];
+        }
+        return i;
+    }
+
+    /**
+     * Add the commutators [A, X B X'] for every A in @first, X in @setups and B in @second
+     * that touch a single piece
+     * */
+    private void createCycles(ArrayList<Integer> first, ArrayList<Integer> setups,
+                              ArrayList<Integer> second) {
+        boolean[] movedByFirst = new boolean[mFaceletCount];
+        for (int a: first) {
+            for (int i: mMoved[a]) movedByFirst[i] = true;
+            for (int x: setups) {
+                int[] undoSetup = mMoves[getInverse(x)];
+                for (int b: second) {
+                    // X B X' moves the facelets that X takes to where B moves them
+                    int shared = -1;
+                    boolean single = true;
+                    for (int i: mMoved[b]) {
+                        int facelet = undoSetup[i];
+                        if (!movedByFirst[facelet]) continue;
+                        if (shared >= 0 && mCubies[shared] != mCubies[facelet]) {
+                            single = false;
+                            break;
+                        }
+                        if (shared < 0 || mOrbits[facelet] != null) shared = facelet;
+                    }
+                    if (!single || shared < 0 || mOrbits[shared] == null) continue;
+                    int[] moves = {a, x, b, getInverse(x), getInverse(a), x, getInverse(b),
+                            getInverse(x)};
+                    Cycle cycle = traceCycle(shared, moves);
+                    mOrbits[shared].cycles.put(getKey(cycle.a, cycle.b, cycle.c), cycle);
+                }
+            }
+            for (int i: mMoved[a]) movedByFirst[i] = false;
+        }
+    }
+
+    /**
+     * Conjugate the cycles of @orbit by single moves, then the new ones again, until there
+     * are no new cycles. Moves can permute an orbit in any way, so this ends with a sequence
+     * for every 3-cycle, as short as the commutators allow.
+     * */
+    private void addConjugates(Orbit orbit) {
+        ArrayList<Cycle> added = new ArrayList<>(orbit.cycles.values());
+        while (!added.isEmpty()) {
+            ArrayList<Cycle> cycles = added;
+            added = new ArrayList<>();
+            for (Cycle cycle: cycles) {
+                for (int s = 0; s < mMoves.length; s++) {
+                    // S C S' moves the piece that S takes to a, to where S' takes b
+                    int[] undo = mMoves[getInverse(s)];
+                    int a = undo[cycle.a];
+                    int b = undo[cycle.b];
+                    int c = undo[cycle.c];
+                    long key = getKey(a, b, c);
+                    if (orbit.cycles.containsKey(key)) continue;
+                    int[] moves = new int[cycle.moves.length + 2];
+                    moves[0] = s;
+                    System.arraycopy(cycle.moves, 0, moves, 1, cycle.moves.length);
+                    moves[moves.length - 1] = getInverse(s);
+                    Cycle conjugate = new Cycle(a, b, c, moves);
+                    orbit.cycles.put(key, conjugate);
+                    added.add(conjugate);
+                }
+            }
+        }
+    }
+
+    private Cycle traceCycle(int a, int[] moves) {
+        int b = apply(moves, a);
+        int c = apply(moves, b);
+        if (b == a || c == a || apply(moves, c) != a) {
+            throw new AssertionError("Not a 3-cycle at facelet " + a);
+        }
+        return new Cycle(a, b, c, moves);
+    }
+
+    private int apply(int[] moves, int facelet) {
+        for (int move: moves) {
+            facelet = mMoves[move][facelet];
+        }
+        return facelet;
+    }
+
+    /**
+     * The same cycle can start at any of its facelets
+     * */
+    private long getKey(int a, int b, int c) {
+        while (a > b || a > c) {
+            int t = a;
+            a = b;
+            b = c;
+            c = t;
+        }
+        return ((long) a * mFaceletCount + b) * mFaceletCount + c;
+    }
+
+    /**
+     * Solve a copy of @facelets.
+     *
+     * @return the moves, or null if the colors don't form a solvable cube
+     * @throws InvalidParameterException if the cube doesn't have the size of this solver
+     * */
+    public Algorithm solve(FaceletCube facelets) {
+        if (facelets.getSizeX() != mSize || facelets.getSizeY() != mSize ||
+                facelets.getSizeZ() != mSize) {
+            throw new InvalidParameterException("Solver is for " + mSize + " layers");
+        }
+        long start = System.currentTimeMillis();
+        FaceletCube cube = new FaceletCube(facelets);
+        Algorithm solution = new Algorithm();
+        if (!solveOuterLayers(cube, solution)) {
+            return null;
+        }
+
+        // Every face has its color on the corners now
+        byte[] faceColors = new byte[FACE_COUNT];
+        for (int face = 0; face < FACE_COUNT; face++) {
+            faceColors[face] = cube.getColor(face, 0);
+        }
+        if (!fixParity(cube, faceColors, solution) ||
+                !solveCenters(cube, faceColors, solution) ||
+                !solveWings(cube, faceColors, solution)) {
+            return null;
+        }
+        if (!cube.isSolved()) {
+            throw new AssertionError("Reduction left the cube unsolved");
+        }
+        Algorithm optimized = AlgorithmOptimizer.optimize(solution, mSize, false);
+        Log.d(tag, String.format("%d moves (%d before merging) in %d ms", optimized.size(),
+                solution.size(), System.currentTimeMillis() - start));
+        return optimized;
+    }
+
+    private boolean solveOuterLayers(FaceletCube cube, Algorithm solution) {
+        int[] moves;
+        try {
+            if (mSize % 2 == 0) {
+                moves = PocketCubeSolver.solve(getReducedCube(cube, 2));
+            } else {
+                moves = new TwoPhaseSolver().solve(new CubieCube(getReducedCube(cube, 3)));
+            }
+        } catch (InvalidParameterException e) {
+            Log.w(tag, "Invalid corners or middle edges: " + e.getMessage());
+            return false;
+        }
+        if (moves == null) {
+            return false;
+        }
+        Algorithm algo = TwoPhaseSolver.toAlgorithm(moves, mSize);
+        algo.applyTo(cube);
+        solution.append(algo);
+        return true;
+    }
+
+    /**
+     * The corners, middle rows and middle columns of every face, as a cube of @size layers
+     * */
+    private FaceletCube getReducedCube(FaceletCube cube, int size) {
+        FaceletCube reduced = new FaceletCube(size);
+        for (int face = 0; face < FACE_COUNT; face++) {
+            for (int row = 0; row < size; row++) {
+                for (int col = 0; col < size; col++) {
+                    int r = row * (mSize - 1) / (size - 1);
+                    int c = col * (mSize - 1) / (size - 1);
+                    reduced.setColor(face, row * size + col, cube.getColor(face, r * mSize + c));
+                }
+            }
+        }
+        return reduced;
+    }
+
+    private boolean fixParity(FaceletCube cube, byte[] faceColors, Algorithm solution) {
+        for (Orbit orbit: mWingOrbits) {
+            int[] homes = getWingHomes(cube, faceColors, orbit);
+            if (homes == null) {
+                return false;
+            }
+            boolean[] visited = new boolean[mFaceletCount];
+            int swaps = 0;
+            for (int i: orbit.facelets) {
+                if (visited[i]) continue;
+                for (int j = i; !visited[j]; j = homes[j]) {
+                    visited[j] = true;
+                    swaps++;
+                }
+                swaps--;
+            }
+            if ((swaps & 1) != 0) {
+                apply(cube, new int[] {getMove(0, orbit.layer, 1)}, solution);
+            }
+        }
+        return true;
+    }
+
+    private boolean solveCenters(FaceletCube cube, byte[] faceColors, Algorithm solution) {
+        for (Orbit orbit: mCenterOrbits) {
+            while (true) {
+                Cycle best = null;
+                int bestGain = 0;
+                for (Cycle cycle: orbit.cycles.values()) {
+                    byte a = cube.getFacelet(cycle.a);
+                    byte b = cube.getFacelet(cycle.b);
+                    byte c = cube.getFacelet(cycle.c);
+                    byte ta = faceColors[mFaces[cycle.a]];
+                    byte tb = faceColors[mFaces[cycle.b]];
+                    byte tc = faceColors[mFaces[cycle.c]];
+                    int gain = (a == tb ? 1 : 0) + (b == tc ? 1 : 0) + (c == ta ? 1 : 0) -
+                            (a == ta ? 1 : 0) - (b == tb ? 1 : 0) - (c == tc ? 1 : 0);
+                    if (isBetter(gain, cycle, bestGain, best)) {
+                        best = cycle;
+                        bestGain = gain;
+                    }
+                }
+                if (best == null) break;
+                apply(cube, best.moves, solution);
+            }
+            for (int i: orbit.facelets) {
+                if (cube.getFacelet(i) != faceColors[mFaces[i]]) {
+                    Log.w(tag, "Cannot solve centers at facelet " + i);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private boolean solveWings(FaceletCube cube, byte[] faceColors, Algorithm solution) {
+        for (Orbit orbit: mWingOrbits) {
+            while (true) {
+                int[] homes = getWingHomes(cube, faceColors, orbit);
+                if (homes == null) {
+                    return false;
+                }
+                Cycle best = null;
+                int bestGain = 0;
+                for (Cycle cycle: orbit.cycles.values()) {
+                    int a = homes[cycle.a];
+                    int b = homes[cycle.b];
+                    int c = homes[cycle.c];
+                    int gain = (a == cycle.b ? 1 : 0) + (b == cycle.c ? 1 : 0) +
+                            (c == cycle.a ? 1 : 0) - (a == cycle.a ? 1 : 0) -
+                            (b == cycle.b ? 1 : 0) - (c == cycle.c ? 1 : 0);
+                    if (isBetter(gain, cycle, bestGain, best)) {
+                        best = cycle;
+                        bestGain = gain;
+                    }
+                }
+                if (best == null) break;
+                apply(cube, best.moves, solution);
+            }
+            int[] homes = getWingHomes(cube, faceColors, orbit);
+            for (int i: orbit.facelets) {
+                if (homes[i] != i) {
+                    Log.w(tag, "Cannot solve wing at facelet " + i);
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private static boolean isBetter(int gain, Cycle cycle, int bestGain, Cycle best) {
+        if (gain <= 0) return false;
+        return gain > bestGain || (gain == bestGain && cycle.moves.length < best.moves.length);
+    }
+
+    /**
+     * Where the wing at each facelet of @orbit belongs, indexed by facelet. Every wing of an
+     * orbit has a different pair of colors in the order of its tracked facelet and partner.
+     *
+     * @return null if some wing doesn't belong anywhere
+     * */
+    private int[] getWingHomes(FaceletCube cube, byte[] faceColors, Orbit orbit) {
+        HashMap<Integer, Integer> slots = new HashMap<>();
+        for (int i: orbit.facelets) {
+            int key = (faceColors[mFaces[i]] & 0xFF) << 8 |
+                    (faceColors[mFaces[mPartners[i]]] & 0xFF);
+            slots.put(key, i);
+        }
+        int[] homes = new int[mFaceletCount];
+        for (int i: orbit.facelets) {
+            int key = (cube.getFacelet(i) & 0xFF) << 8 | (cube.getFacelet(mPartners[i]) & 0xFF);
+            Integer home = slots.remove(key);
+            if (home == null) {
+                Log.w(tag, "Invalid or duplicate wing at facelet " + i);
+                return null;
+            }
+            homes[i] = home;
+        }
+        return homes;
+    }
+
+    private void apply(FaceletCube cube, int[] moves, Algorithm solution) {
+        for (int move: moves) {
+            Axis axis = axes[move / 3 / mSize];
+            int layer = move / 3 % mSize;
+            int turns = move % 3 + 1;
+            if (turns == 3) {
+                cube.rotate(axis, Direction.COUNTER_CLOCKWISE, layer);
+                solution.addStep(axis, Direction.COUNTER_CLOCKWISE, layer);
+                continue;
+            }
+            for (int i = 0; i < turns; i++) {
+                cube.rotate(axis, Direction.CLOCKWISE, layer);
+                solution.addStep(axis, Direction.CLOCKWISE, layer);
+            }
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.amg.rubik.solver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Binary file holding named solver tables.
+ *
+ * Layout (little endian):
+ *  int magic, int format version, int section count,
+ *  for each section: short name length, name (UTF-8), long offset, long length,
+ *  followed by the section data, each section starting at a multiple of 8 bytes.
+ *
+ * Files are opened with FileChannel.map, so loading doesn't copy anything and every process
+ * using the same file shares its pages. Table sets should put their own version in the section
+ * names so that stale files are rejected instead of silently giving wrong results.
+ * */
+public class TableFile {
+
+    public static final int MAGIC = 0x544B4252;   // "RBKT"
+    public static final int FORMAT_VERSION = 1;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int ALIGNMENT = 8;
+
+    private final LinkedHashMap<String, ByteBuffer> mSections = new LinkedHashMap<>();
+
+    /**
+     * Empty table file, to be filled with addSection and written with write()
+     * */
+    public TableFile() {
+    }
+
+    public static TableFile map(File file) throws IOException {
+        TableFile tables = new TableFile();
+        MappedByteBuffer buffer;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // Mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a table file: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != FORMAT_VERSION) {
+                throw new IOException("Unsupported table file version " + version);
+            }
+            int count = buffer.getInt();
+            for (int i = 0; i < count; i++) {
+                byte[] name = new byte[buffer.getShort()];
+                buffer.get(name);
+                long offset = buffer.getLong();
+                long length = buffer.getLong();
+                if (offset < 0 || length < 0 || offset + length > buffer.capacity()) {
+                    throw new IOException("Corrupt section in " + file);
+                }
+                ByteBuffer section = buffer.duplicate();
+                section.limit((int) (offset + length));
+                section.position((int) offset);
+                tables.mSections.put(new String(name, UTF8),
+                        section.slice().order(ByteOrder.LITTLE_ENDIAN));
+            }
+        } catch (RuntimeException e) {
+            // Buffer underflows and the like mean the file was truncated
+            throw new IOException("Corrupt table file " + file, e);
+        }
+        return tables;
+    }
+
+    public void addSection(String name, ByteBuffer data) {
+        mSections.put(name, data);
+    }
+
+    /**
+     * Section with the given name, or null if there is none. The returned buffer is
+     * little endian and positioned at the start of the section.
+     * */
+    public ByteBuffer getSection(String name) {
+        ByteBuffer section = mSections.get(name);
+        if (section == null) return null;
+        ByteBuffer data = section.duplicate();
+        data.clear();
+        return data.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    public void write(File file) throws IOException {
+        int headerSize = 12;
+        for (String name: mSections.keySet()) {
+            headerSize += 2 + name.getBytes(UTF8).length + 16;
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC);
+        header.putInt(FORMAT_VERSION);
+        header.putInt(mSections.size());
+        long offset = align(headerSize);
+        for (Map.Entry<String, ByteBuffer> entry: mSections.entrySet()) {
+            byte[] name = entry.getKey().getBytes(UTF8);
+            long length = entry.getValue().capacity();
+            header.putShort((short) name.length);
+            header.put(name);
+            header.putLong(offset);
+            header.putLong(length);
+            offset = align(offset + length);
+        }
+        header.flip();
+
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Cannot create " + parent);
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            writeFully(channel, header, 0);
+            offset = align(headerSize);
+            for (ByteBuffer section: mSections.values()) {
+                ByteBuffer data = section.duplicate();
+                data.clear();
+                writeFully(channel, data, offset);
+                offset = align(offset + data.capacity());
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer data, long position)
+            throws IOException {
+        while (data.hasRemaining()) {
+            position += channel.write(data, position);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+}
@@ -0,0 +1,75 @@
+package com.amg.rubik.solver;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Offline generation of the solver tables. Run through the generateTables gradle task:
+ *
+ *  gradle :core:generateTables
+ *
+ * The optimal solver tables are much larger and go to their own file, with -optimal:
+ *
+ *  gradle :core:generateOptimalTables
+ *
+ * The desktop launcher maps the resulting files if they are passed in the rubik.tables and
+ * rubik.optimalTables properties.
+ * */
+public class TableGenerator {
+
+    public static final String TABLES_PROPERTY = "rubik.tables";
+    public static final String OPTIMAL_TABLES_PROPERTY = "rubik.optimalTables";
+
+    public static void main(String[] args) throws IOException {
+        boolean optimal = args.length == 2 && args[0].equals("-optimal");
+        if (args.length != 1 && !optimal) {
+            System.err.println("Usage: TableGenerator [-optimal] <output file>");
+            System.exit(1);
+        }
+        File output = new File(args[args.length - 1]);
+        long start = System.currentTimeMillis();
+
+        TableFile file = new TableFile();
+        if (optimal) {
+            OptimalTables.getInstance().save(file);
+        } else {
+            TwoPhaseTables.getInstance().save(file);
+        }
+        file.write(output);
+
+        System.out.println("Wrote " + output + " (" + output.length() + " bytes) in " +
+                (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * Load the tables from the files given in the rubik.tables and rubik.optimalTables system
+     * properties, if any. Solvers fall back to generating their tables in memory if this fails.
+     *
+     * @return true if the two phase tables were loaded
+     * */
+    public static boolean loadFromProperty() {
+        String optimalPath = System.getProperty(OPTIMAL_TABLES_PROPERTY);
+        // These are optional, so a missing file isn't worth a warning
+        if (optimalPath != null && new File(optimalPath).isFile()) {
+            try {
+                OptimalTables.load(TableFile.map(new File(optimalPath)));
+            } catch (IOException e) {
+                System.err.println("Cannot load optimal solver tables from " + optimalPath +
+                        ": " + e.getMessage());
+            }
+        }
+
+        String path = System.getProperty(TABLES_PROPERTY);
+        if (path == null) {
+            return false;
+        }
+        try {
+            TableFile file = TableFile.map(new File(path));
+            TwoPhaseTables.load(file);
+            return true;
+        } catch (IOException e) {
+            System.err.println("Cannot load solver tables from " + path + ": " + e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.Log;
+import com.amg.rubik.cube.Algorithm;
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+/**
+ * Kociemba's two phase algorithm for the 3x3x3.
+ *
+ * Phase 1 searches for move sequences that bring the cube into <U, D, R2, L2, F2, B2>,
+ * in order of increasing length. For each of them, phase 2 searches for the shortest way
+ * to solve the cube within the subgroup. The first solution that fits in the requested length
+ * is returned; that is usually 20 to 22 moves in a few milliseconds once the tables are ready.
+ *
+ * A solver instance keeps its own search state, so use one instance per thread.
+ * The tables are shared.
+ * */
+public class TwoPhaseSolver {
+
+    private static final String tag = "rubik-twophase";
+
+    public static final int DEFAULT_MAX_LENGTH = 22;
+    public static final long DEFAULT_TIMEOUT = 5000;
+
+    private static final int MAX_DEPTH = 31;
+
+    // Check the clock once in these many phase 1 nodes
+    private static final int TIMEOUT_CHECK_INTERVAL = 1 << 12;
+
+    private final TwoPhaseTables mTables;
+
+    private final int[] mMoves = new int[MAX_DEPTH];
+    private final CubieCube mScratch = new CubieCube();
+    private CubieCube mStart;
+    private int mMaxLength;
+    private int mSolutionLength;
+    private long mDeadline;
+    private int mNodeCount;
+    private boolean mTimedOut;
+
+    public TwoPhaseSolver() {
+        this(TwoPhaseTables.getInstance());
+    }
+
+    public TwoPhaseSolver(TwoPhaseTables tables) {
+        mTables = tables;
+    }
+
+    public int[] solve(CubieCube cube) {
+        return solve(cube, DEFAULT_MAX_LENGTH, DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Find a solution with at most @maxLength moves.
+     *
+     * @return moves in face * 3 + power notation, or null if the cube can't be solved or
+     * no solution was found before the timeout.
+     * */
+    public int[] solve(CubieCube cube, int maxLength, long timeoutMillis) {
+        if (!cube.verify()) {
+            Log.w(tag, "Unsolvable cube " + cube);
+            return null;
+        }
+        mStart = cube;
+        mMaxLength = Math.min(maxLength, MAX_DEPTH - 1);
+        mDeadline = System.currentTimeMillis() + timeoutMillis;
+        mNodeCount = 0;
+        mTimedOut = false;
+
+        int twist = cube.getTwist();
+        int flip = cube.getFlip();
+        int slice = cube.getSlice();
+        for (int depth = mTables.getPhase1Distance(twist, flip, slice);
+             depth <= mMaxLength; depth++) {
+            if (searchPhase1(0, depth, twist, flip, slice, -1)) {
+                int[] solution = new int[mSolutionLength];
+                System.arraycopy(mMoves, 0, solution, 0, mSolutionLength);
+                return solution;
+            }
+            if (mTimedOut) {
+                Log.w(tag, "Timed out at phase 1 depth " + depth);
+                break;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opposite faces commute, so only allow them in one order: U before D, R before L
+     * and F before B.
+     * */
+    private static boolean isRedundant(int face, int lastFace) {
+        return face == lastFace || face == lastFace - 3;
+    }
+
+    private boolean searchPhase1(int depth, int remaining, int twist, int flip, int slice,
+                                 int lastFace) {
+        if (remaining == 0) {
+            // Solutions ending with a phase 2 move were already tried at a lower depth
+            if (depth > 0) {
+                int last = mMoves[depth - 1];
+                if (last / 3 == CubieCube.U || last / 3 == CubieCube.D || last % 3 == 1) {
+                    return false;
+                }
+            }
+            return initPhase2(depth);
+        }
+
+        if (++mNodeCount % TIMEOUT_CHECK_INTERVAL == 0 &&
+                System.currentTimeMillis() > mDeadline) {
+            mTimedOut = true;
+        }
+        if (mTimedOut) return false;
+
+        for (int face = 0; face < 6; face++) {
+            if (isRedundant(face, lastFace)) continue;
+            for (int power = 0; power < 3; power++) {
+                int move = face * 3 + power;
+                int nextTwist = mTables.twistMove(twist, move);
+                int nextFlip = mTables.flipMove(flip, move);
+                int nextSlice = mTables.sliceMove(slice, move);
+                if (mTables.getPhase1Distance(nextTwist, nextFlip, nextSlice) >= remaining) {
+                    continue;
+                }
+                mMoves[depth] = move;
+                if (searchPhase1(depth + 1, remaining - 1, nextTwist, nextFlip, nextSlice, face)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean initPhase2(int phase1Length) {
+        CubieCube cube = mScratch;
+        cube.copyFrom(mStart);
+        for (int i = 0; i < phase1Length; i++) {
+            cube.move(mMoves[i]);
+        }
+        int cornerPerm = cube.getCornerPerm();
+        int edge8Perm = cube.getEdge8Perm();
+        int slicePerm = cube.getSlicePerm();
+        int lastFace = phase1Length > 0 ? mMoves[phase1Length - 1] / 3 : -1;
+
+        int maxPhase2 = mMaxLength - phase1Length;
+        for (int depth = mTables.getPhase2Distance(cornerPerm, edge8Perm, slicePerm);
+             depth <= maxPhase2; depth++) {
+            if (searchPhase2(phase1Length, depth, cornerPerm, edge8Perm, slicePerm, lastFace)) {
+                mSolutionLength = phase1Length + depth;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean searchPhase2(int depth, int remaining, int cornerPerm, int edge8Perm,
+                                 int slicePerm, int lastFace) {
+        if (remaining == 0) {
+            return cornerPerm == 0 && edge8Perm == 0 && slicePerm == 0;
+        }
+        for (int i = 0; i < TwoPhaseTables.N_PHASE2_MOVES; i++) {
+            int move = TwoPhaseTables.PHASE2_MOVES[i];
+            int face = move / 3;
+            if (isRedundant(face, lastFace)) continue;
+            int nextCorner = mTables.cornerPermMove(cornerPerm, i);
+            int nextSlice = mTables.slicePermMove(slicePerm, i);
+            // Look up the edges only if the corners don't prune the move already
+            if (mTables.getPhase2CornerDistance(nextCorner, nextSlice) >= remaining) {
+                continue;
+            }
+            int nextEdge = mTables.edge8PermMove(edge8Perm, i);
+            if (mTables.getPhase2EdgeDistance(nextCorner, nextEdge, nextSlice) >= remaining) {
+                continue;
+            }
+            mMoves[depth] = move;
+            if (searchPhase2(depth + 1, remaining - 1, nextCorner, nextEdge, nextSlice, face)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static String toString(int[] moves) {
+        StringBuilder builder = new StringBuilder();
+        for (int move: moves) {
+            if (builder.length() > 0) builder.append(' ');
+            builder.append(CubieCube.moveToString(move));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Convert face moves to rotations of the outer layers of a cube of the given size.
+     * Half turns become two quarter turns.
+     * */
+    public static Algorithm toAlgorithm(int[] moves, int size) {
+        Algorithm algo = new Algorithm();
+        for (int move: moves) {
+            int face = move / 3;
+            int power = move % 3;
+            Axis axis;
+            switch (face) {
+                case CubieCube.U:
+                case CubieCube.D:
+                    axis = Axis.Y_AXIS;
+                    break;
+                case CubieCube.R:
+                case CubieCube.L:
+                    axis = Axis.X_AXIS;
+                    break;
+                default:
+                    axis = Axis.Z_AXIS;
+                    break;
+            }
+            // U, R and F turn clockwise around the positive axis; D, L and B the other way
+            boolean positive = face < 3;
+            int layer = positive ? size - 1 : 0;
+            boolean clockwise = positive == (power != 2);
+            Direction direction = clockwise ? Direction.CLOCKWISE : Direction.COUNTER_CLOCKWISE;
+            algo.addStep(axis, direction, layer);
+            if (power == 1) {
+                algo.addStep(axis, direction, layer);
+            }
+        }
+        return algo;
+    }
+}
@@ -0,0 +1,400 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.Log;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Move and pruning tables for the two phase solver.
+ *
+ * Phase 1 brings the cube into the subgroup <U, D, R2, L2, F2, B2> using the twist, flip and
+ * slice coordinates. Phase 2 solves the cube within that subgroup using the corner permutation,
+ * U/D edge permutation and slice permutation coordinates. Phase 2 tables are indexed by the
+ * position of the move in PHASE2_MOVES and not by the move itself.
+ *
+ * Each permutation is also pruned together with the layers of the other kind of pieces, i.e.
+ * the corner permutation with the positions of the D layer edges and the other way around.
+ * Phase 2 searches most of the nodes and the slice tables alone see little of the cube.
+ *
+ * The tables take a noticeable time to build, so a single shared instance is created on first
+ * use, unless they were loaded from a TableFile generated by the generateTables task.
+ * They are read only afterwards and safe to share between threads.
+ * */
+public class TwoPhaseTables {
+
+    private static final String tag = "rubik-tables";
+
+    public static final int N_MOVES = CubieCube.MOVE_COUNT;
+
+    /**
+     * U, U2, U', D, D2, D', R2, L2, F2, B2
+     * */
+    public static final int[] PHASE2_MOVES = {0, 1, 2, 9, 10, 11, 4, 13, 7, 16};
+    public static final int N_PHASE2_MOVES = PHASE2_MOVES.length;
+
+    /**
+     * Bump this whenever the layout or the meaning of the tables change
+     * */
+    public static final int VERSION = 2;
+    private static final String SECTION_PREFIX = "twophase." + VERSION + ".";
+
+    private static final int TWIST_MOVE = 0;
+    private static final int FLIP_MOVE = 1;
+    private static final int SLICE_MOVE = 2;
+    private static final int CORNER_PERM_MOVE = 3;
+    private static final int EDGE8_PERM_MOVE = 4;
+    private static final int SLICE_PERM_MOVE = 5;
+    private static final int SLICE_TWIST_PRUNE = 6;
+    private static final int SLICE_FLIP_PRUNE = 7;
+    private static final int SLICE_CORNER_PRUNE = 8;
+    private static final int SLICE_EDGE_PRUNE = 9;
+    private static final int CORNER_COMB = 10;
+    private static final int EDGE8_COMB = 11;
+    private static final int COMB_CORNER_PRUNE = 12;
+    private static final int COMB_EDGE_PRUNE = 13;
+
+    private static final String[] sectionNames = {
+            "twist-move", "flip-move", "slice-move",
+            "corner-perm-move", "edge8-perm-move", "slice-perm-move",
+            "slice-twist-prune", "slice-flip-prune", "slice-corner-prune", "slice-edge-prune",
+            "corner-comb", "edge8-comb", "comb-corner-prune", "comb-edge-prune"
+    };
+
+    // Size of each section in bytes
+    private static final int[] sectionSizes = {
+            CubieCube.N_TWIST * N_MOVES * 2,
+            CubieCube.N_FLIP * N_MOVES * 2,
+            CubieCube.N_SLICE * N_MOVES * 2,
+            CubieCube.N_CORNER_PERM * N_PHASE2_MOVES * 2,
+            CubieCube.N_EDGE8_PERM * N_PHASE2_MOVES * 2,
+            CubieCube.N_SLICE_PERM * N_PHASE2_MOVES,
+            CubieCube.N_SLICE * CubieCube.N_TWIST,
+            CubieCube.N_SLICE * CubieCube.N_FLIP,
+            CubieCube.N_SLICE_PERM * CubieCube.N_CORNER_PERM,
+            CubieCube.N_SLICE_PERM * CubieCube.N_EDGE8_PERM,
+            CubieCube.N_CORNER_PERM,
+            CubieCube.N_EDGE8_PERM,
+            CubieCube.N_EDGE8_COMB * CubieCube.N_CORNER_PERM,
+            CubieCube.N_CORNER_COMB * CubieCube.N_EDGE8_PERM
+    };
+
+    private static final byte UNKNOWN = -1;
+
+    private static TwoPhaseTables sInstance;
+
+    private final ByteBuffer[] mSections = new ByteBuffer[sectionNames.length];
+
+    private final ShortBuffer mTwistMove;
+    private final ShortBuffer mFlipMove;
+    private final ShortBuffer mSliceMove;
+
+    private final CharBuffer mCornerPermMove;
+    private final CharBuffer mEdge8PermMove;
+    private final ByteBuffer mSlicePermMove;
+
+    private final ByteBuffer mSliceTwistPrune;
+    private final ByteBuffer mSliceFlipPrune;
+    private final ByteBuffer mSliceCornerPrune;
+    private final ByteBuffer mSliceEdgePrune;
+
+    // Comb coordinate of each permutation
+    private final ByteBuffer mCornerComb;
+    private final ByteBuffer mEdge8Comb;
+
+    // Corner permutation by edge comb and edge permutation by corner comb
+    private final ByteBuffer mCombCornerPrune;
+    private final ByteBuffer mCombEdgePrune;
+
+    // Moves of the comb coordinates, only while generating the tables
+    private byte[] mCornerCombMove;
+    private byte[] mEdge8CombMove;
+
+    /**
+     * Shared tables. If none were loaded, they are generated in memory, which takes
+     * a couple of seconds on a desktop.
+     * */
+    public static synchronized TwoPhaseTables getInstance() {
+        if (sInstance == null) {
+            long start = System.currentTimeMillis();
+            try {
+                sInstance = new TwoPhaseTables(null);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+            Log.d(tag, "Tables ready in " + (System.currentTimeMillis() - start) + "ms");
+        }
+        return sInstance;
+    }
+
+    /**
+     * Use the tables stored in @file instead of generating them
+     *
+     * @throws IOException if the file doesn't have tables of the current version
+     * */
+    public static synchronized void load(TableFile file) throws IOException {
+        sInstance = new TwoPhaseTables(file);
+    }
+
+    /**
+     * Add the tables to @file so that they can be written out and loaded later
+     * */
+    public void save(TableFile file) {
+        for (int i = 0; i < mSections.length; i++) {
+            file.addSection(SECTION_PREFIX + sectionNames[i], mSections[i]);
+        }
+    }
+
+    /**
+     * Map the tables from @file, or generate them if @file is null
+     * */
+    private TwoPhaseTables(TableFile file) throws IOException {
+        for (int i = 0; i < mSections.length; i++) {
+            if (file == null) {
+                mSections[i] = ByteBuffer.allocateDirect(sectionSizes[i])
+                        .order(ByteOrder.LITTLE_ENDIAN);
+                continue;
+            }
+            ByteBuffer section = file.getSection(SECTION_PREFIX + sectionNames[i]);
+            if (section == null || section.capacity() != sectionSizes[i]) {
+                throw new IOException("Missing or invalid table " + sectionNames[i] +
+                        " for version " + VERSION);
+            }
+            mSections[i] = section;
+        }
+
+        mTwistMove = mSections[TWIST_MOVE].asShortBuffer();
+        mFlipMove = mSections[FLIP_MOVE].asShortBuffer();
+        mSliceMove = mSections[SLICE_MOVE].asShortBuffer();
+        mCornerPermMove = mSections[CORNER_PERM_MOVE].asCharBuffer();
+        mEdge8PermMove = mSections[EDGE8_PERM_MOVE].asCharBuffer();
+        mSlicePermMove = mSections[SLICE_PERM_MOVE];
+        mSliceTwistPrune = mSections[SLICE_TWIST_PRUNE];
+        mSliceFlipPrune = mSections[SLICE_FLIP_PRUNE];
+        mSliceCornerPrune = mSections[SLICE_CORNER_PRUNE];
+        mSliceEdgePrune = mSections[SLICE_EDGE_PRUNE];
+        mCornerComb = mSections[CORNER_COMB];
+        mEdge8Comb = mSections[EDGE8_COMB];
+        mCombCornerPrune = mSections[COMB_CORNER_PRUNE];
+        mCombEdgePrune = mSections[COMB_EDGE_PRUNE];
+
+        if (file == null) {
+            createMoveTables();
+            createPruneTable(mSliceTwistPrune, CubieCube.N_TWIST, false);
+            createPruneTable(mSliceFlipPrune, CubieCube.N_FLIP, false);
+            createPruneTable(mSliceCornerPrune, CubieCube.N_CORNER_PERM, true);
+            createPruneTable(mSliceEdgePrune, CubieCube.N_EDGE8_PERM, true);
+            createCombTables();
+            createPruneTable(mCombCornerPrune, CubieCube.N_CORNER_PERM, true);
+            createPruneTable(mCombEdgePrune, CubieCube.N_EDGE8_PERM, true);
+            mCornerCombMove = null;
+            mEdge8CombMove = null;
+        }
+    }
+
+    public int twistMove(int twist, int move) {
+        return mTwistMove.get(twist * N_MOVES + move);
+    }
+
+    public int flipMove(int flip, int move) {
+        return mFlipMove.get(flip * N_MOVES + move);
+    }
+
+    public int sliceMove(int slice, int move) {
+        return mSliceMove.get(slice * N_MOVES + move);
+    }
+
+    /**
+     * @param move index into PHASE2_MOVES
+     * */
+    public int cornerPermMove(int perm, int move) {
+        return mCornerPermMove.get(perm * N_PHASE2_MOVES + move);
+    }
+
+    /**
+     * @param move index into PHASE2_MOVES
+     * */
+    public int edge8PermMove(int perm, int move) {
+        return mEdge8PermMove.get(perm * N_PHASE2_MOVES + move);
+    }
+
+    /**
+     * @param move index into PHASE2_MOVES
+     * */
+    public int slicePermMove(int perm, int move) {
+        return mSlicePermMove.get(perm * N_PHASE2_MOVES + move);
+    }
+
+    /**
+     * Lower bound of the number of moves needed to finish phase 1
+     * */
+    public int getPhase1Distance(int twist, int flip, int slice) {
+        return Math.max(mSliceTwistPrune.get(slice * CubieCube.N_TWIST + twist),
+                mSliceFlipPrune.get(slice * CubieCube.N_FLIP + flip));
+    }
+
+    /**
+     * Lower bound of the number of phase 2 moves needed to solve the cube
+     * */
+    public int getPhase2Distance(int cornerPerm, int edge8Perm, int slicePerm) {
+        return Math.max(getPhase2CornerDistance(cornerPerm, slicePerm),
+                getPhase2EdgeDistance(cornerPerm, edge8Perm, slicePerm));
+    }
+
+    /**
+     * Lower bound from the corners and the slice alone, cheaper than getPhase2Distance()
+     * */
+    public int getPhase2CornerDistance(int cornerPerm, int slicePerm) {
+        return mSliceCornerPrune.get(slicePerm * CubieCube.N_CORNER_PERM + cornerPerm);
+    }
+
+    /**
+     * Lower bound from the tables that include the edge permutation
+     * */
+    public int getPhase2EdgeDistance(int cornerPerm, int edge8Perm, int slicePerm) {
+        int distance = mSliceEdgePrune.get(slicePerm * CubieCube.N_EDGE8_PERM + edge8Perm);
+        distance = Math.max(distance, mCombCornerPrune.get(
+                mEdge8Comb.get(edge8Perm) * CubieCube.N_CORNER_PERM + cornerPerm));
+        return Math.max(distance, mCombEdgePrune.get(
+                mCornerComb.get(cornerPerm) * CubieCube.N_EDGE8_PERM + edge8Perm));
+    }
+
+    private void createMoveTables() {
+        CubieCube cube = new CubieCube();
+        for (int i = 0; i < CubieCube.N_TWIST; i++) {
+            for (int move = 0; move < N_MOVES; move++) {
+                cube.setTwist(i);
+                cube.move(move);
+                mTwistMove.put(i * N_MOVES + move, (short) cube.getTwist());
+            }
+        }
+
+        cube.reset();
+        for (int i = 0; i < CubieCube.N_FLIP; i++) {
+            for (int move = 0; move < N_MOVES; move++) {
+                cube.setFlip(i);
+                cube.move(move);
+                mFlipMove.put(i * N_MOVES + move, (short) cube.getFlip());
+            }
+        }
+
+        cube.reset();
+        for (int i = 0; i < CubieCube.N_SLICE; i++) {
+            for (int move = 0; move < N_MOVES; move++) {
+                cube.setSlice(i);
+                cube.move(move);
+                mSliceMove.put(i * N_MOVES + move, (short) cube.getSlice());
+            }
+        }
+
+        cube.reset();
+        for (int i = 0; i < CubieCube.N_CORNER_PERM; i++) {
+            for (int move = 0; move < N_PHASE2_MOVES; move++) {
+                cube.setCornerPerm(i);
+                cube.move(PHASE2_MOVES[move]);
+                mCornerPermMove.put(i * N_PHASE2_MOVES + move, (char) cube.getCornerPerm());
+            }
+        }
+
+        cube.reset();
+        for (int i = 0; i < CubieCube.N_EDGE8_PERM; i++) {
+            for (int move = 0; move < N_PHASE2_MOVES; move++) {
+                cube.setEdge8Perm(i);
+                cube.move(PHASE2_MOVES[move]);
+                mEdge8PermMove.put(i * N_PHASE2_MOVES + move, (char) cube.getEdge8Perm());
+            }
+        }
+
+        cube.reset();
+        for (int i = 0; i < CubieCube.N_SLICE_PERM; i++) {
+            for (int move = 0; move < N_PHASE2_MOVES; move++) {
+                cube.setSlicePerm(i);
+                cube.move(PHASE2_MOVES[move]);
+                mSlicePermMove.put(i * N_PHASE2_MOVES + move, (byte) cube.getSlicePerm());
+            }
+        }
+    }
+
+    /**
+     * Comb coordinate of every permutation, and the moves of the comb coordinates for
+     * generating the pruning tables. A move takes all the permutations with the same comb
+     * to the same comb, so any of them stands for the others.
+     * */
+    private void createCombTables() {
+        CubieCube cube = new CubieCube();
+        for (int i = 0; i < CubieCube.N_CORNER_PERM; i++) {
+            cube.setCornerPerm(i);
+            mCornerComb.put(i, (byte) cube.getCornerComb());
+        }
+        cube.reset();
+        for (int i = 0; i < CubieCube.N_EDGE8_PERM; i++) {
+            cube.setEdge8Perm(i);
+            mEdge8Comb.put(i, (byte) cube.getEdge8Comb());
+        }
+
+        mCornerCombMove = new byte[CubieCube.N_CORNER_COMB * N_PHASE2_MOVES];
+        mEdge8CombMove = new byte[CubieCube.N_EDGE8_COMB * N_PHASE2_MOVES];
+        for (int i = 0; i < CubieCube.N_CORNER_PERM; i++) {
+            int comb = mCornerComb.get(i);
+            for (int move = 0; move < N_PHASE2_MOVES; move++) {
+                mCornerCombMove[comb * N_PHASE2_MOVES + move] =
+                        mCornerComb.get(cornerPermMove(i, move));
+            }
+        }
+        for (int i = 0; i < CubieCube.N_EDGE8_PERM; i++) {
+            int comb = mEdge8Comb.get(i);
+            for (int move = 0; move < N_PHASE2_MOVES; move++) {
+                mEdge8CombMove[comb * N_PHASE2_MOVES + move] =
+                        mEdge8Comb.get(edge8PermMove(i, move));
+            }
+        }
+    }
+
+    /**
+     * Breadth first search over the product of the row coordinate (the slice, slice
+     * permutation or comb) and the coordinate used by the table.
+     * */
+    private void createPruneTable(ByteBuffer table, int columns, boolean phase2) {
+        int size = table.capacity();
+        for (int index = 0; index < size; index++) {
+            table.put(index, UNKNOWN);
+        }
+        table.put(0, (byte) 0);
+        int filled = 1;
+        int moveCount = phase2 ? N_PHASE2_MOVES : N_MOVES;
+        for (byte depth = 0; filled < size; depth++) {
+            for (int index = 0; index < size; index++) {
+                if (table.get(index) != depth) continue;
+                int row = index / columns;
+                int column = index % columns;
+                for (int move = 0; move < moveCount; move++) {
+                    int next = nextRow(table, row, move) * columns +
+                            nextColumn(table, column, move);
+                    if (table.get(next) == UNKNOWN) {
+                        table.put(next, (byte) (depth + 1));
+                        filled++;
+                    }
+                }
+            }
+        }
+    }
+
+    private int nextRow(ByteBuffer table, int row, int move) {
+        if (table == mSliceTwistPrune || table == mSliceFlipPrune) return sliceMove(row, move);
+        if (table == mCombCornerPrune) return mEdge8CombMove[row * N_PHASE2_MOVES + move];
+        if (table == mCombEdgePrune) return mCornerCombMove[row * N_PHASE2_MOVES + move];
+        return slicePermMove(row, move);
+    }
+
+    private int nextColumn(ByteBuffer table, int column, int move) {
+        if (table == mSliceTwistPrune) return twistMove(column, move);
+        if (table == mSliceFlipPrune) return flipMove(column, move);
+        if (table == mSliceCornerPrune || table == mCombCornerPrune) {
+            return cornerPermMove(column, move);
+        }
+        return edge8PermMove(column, move);
+    }
+}
@@ -0,0 +1,174 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.solver.TwoPhaseSolver;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.InvalidParameterException;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CubeCodecTest {
+
+    private static final String SOLVED =
+            "UUUUUUUUURRRRRRRRRFFFFFFFFFDDDDDDDDDLLLLLLLLLBBBBBBBBB";
+
+    // R U R' U' from solved
+    private static final String SEXY_MOVE =
+            "UULUUFUUFRRUBRRURRFFDFFUFFFDDRDDDDDDBLLLLLLLLBRRBBBBBB";
+
+    /**
+     * Random palette indices, not necessarily a reachable state
+     * */
+    private static FaceletCube createRandomFacelets(int sizeX, int sizeY, int sizeZ,
+                                                    int paletteSize) {
+        FaceletCube facelets = new FaceletCube(sizeX, sizeY, sizeZ);
+        Random random = new Random(paletteSize);
+        for (int i = 0; i < facelets.getFaceletCount(); i++) {
+            facelets.setFacelet(i, (byte) random.nextInt(paletteSize));
+        }
+        return facelets;
+    }
+
+    private static void assertSameFacelets(FaceletCube expected, FaceletCube actual) {
+        assertEquals(expected.getSizeX(), actual.getSizeX());
+        assertEquals(expected.getSizeY(), actual.getSizeY());
+        assertEquals(expected.getSizeZ(), actual.getSizeZ());
+        for (int i = 0; i < expected.getFaceletCount(); i++) {
+            assertEquals("facelet " + i, expected.getFacelet(i), actual.getFacelet(i));
+        }
+    }
+
+    private static RubiksCube createScrambledCube(int sizeX, int sizeY, int sizeZ) {
+        RubiksCube cube = sizeX == 3 && sizeY == 3 && sizeZ == 3 ?
+                new RubiksCube3x3x3() : new RubiksCube(sizeX, sizeY, sizeZ);
+        cube.randomize(40);
+        return cube;
+    }
+
+    @Test
+    public void binaryRoundTrip() {
+        int[][] sizes = {{1, 1, 1}, {2, 2, 2}, {3, 3, 3}, {2, 3, 4}, {7, 7, 7}, {1, 5, 9}};
+        int[] paletteSizes = {1, 2, 6, 7, 16, 255};
+        for (int[] size: sizes) {
+            for (int paletteSize: paletteSizes) {
+                FaceletCube facelets = createRandomFacelets(size[0], size[1], size[2],
+                        paletteSize);
+                int[] palette = new int[paletteSize];
+                for (int i = 0; i < paletteSize; i++) {
+                    palette[i] = 0xFF000000 | i * 0x010203;
+                }
+                byte[] data = CubeCodec.encode(facelets, palette, paletteSize);
+                assertEquals(CubeCodec.getEncodedLength(facelets, paletteSize), data.length);
+
+                CubeCodec.Snapshot snapshot = CubeCodec.decode(data);
+                assertSameFacelets(facelets, snapshot.facelets);
+                assertArrayEquals(palette, snapshot.palette);
+            }
+        }
+    }
+
+    @Test
+    public void decodesSnapshotsBackToBack() {
+        FaceletCube first = createRandomFacelets(3, 3, 3, 6);
+        FaceletCube second = createRandomFacelets(2, 3, 4, 7);
+        int[] palette = {1, 2, 3, 4, 5, 6, 7};
+        ByteBuffer buffer = ByteBuffer.allocate(CubeCodec.getEncodedLength(first, 6) +
+                CubeCodec.getEncodedLength(second, 7));
+        CubeCodec.encode(first, palette, 6, buffer);
+        CubeCodec.encode(second, palette, 7, buffer);
+
+        buffer.flip();
+        assertSameFacelets(first, CubeCodec.decode(buffer).facelets);
+        assertSameFacelets(second, CubeCodec.decode(buffer).facelets);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void rejectsTruncatedSnapshot() {
+        FaceletCube facelets = createRandomFacelets(3, 3, 3, 6);
+        byte[] data = CubeCodec.encode(facelets, new int[6], 6);
+        byte[] truncated = new byte[data.length - 1];
+        System.arraycopy(data, 0, truncated, 0, truncated.length);
+        CubeCodec.decode(truncated);
+    }
+
+    @Test
+    public void faceletStringRoundTrip() {
+        FaceletCube solved = new FaceletCube(3);
+        assertEquals(SOLVED, CubeCodec.toFaceletString(solved));
+        assertSameFacelets(solved, CubeCodec.fromFaceletString(SOLVED));
+
+        FaceletCube cube = CubeCodec.fromFaceletString(SEXY_MOVE);
+        assertEquals(SEXY_MOVE, CubeCodec.toFaceletString(cube));
+        assertFalse(cube.isSolved());
+
+        FaceletCube turned = new FaceletCube(3);
+        TwoPhaseSolver.toAlgorithm(new int[] {3, 0, 5, 2}, 3).applyTo(turned);
+        assertEquals(SEXY_MOVE, CubeCodec.toFaceletString(turned));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void rejectsWrongLetterCount() {
+        // Ten R and eight U
+        CubeCodec.fromFaceletString("R" + SOLVED.substring(1));
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void rejectsRepeatedCenter() {
+        // Swap the U center with a B facelet: the counts are right but two centers are B
+        char[] colors = SOLVED.toCharArray();
+        colors[4] = 'B';
+        colors[45] = 'U';
+        CubeCodec.fromFaceletString(new String(colors));
+    }
+
+    @Test
+    public void rejectsMalformedString() {
+        assertFalse(CubeCodec.isFaceletString(SOLVED.substring(1)));
+        assertFalse(CubeCodec.isFaceletString(SOLVED.replace('U', 'X')));
+        assertTrue(CubeCodec.isFaceletString(SEXY_MOVE));
+    }
+
+    @Test
+    public void colorStringRoundTrip() {
+        int[][] sizes = {{2, 2, 2}, {3, 3, 3}, {4, 4, 4}, {2, 3, 4}, {1, 2, 3}};
+        for (int[] size: sizes) {
+            RubiksCube cube = createScrambledCube(size[0], size[1], size[2]);
+            String colors = cube.getColorString();
+
+            RubiksCube restored = new RubiksCube(size[0], size[1], size[2]);
+            restored.restoreColors(colors);
+            assertSameFacelets(cube.getFacelets(), restored.getFacelets());
+            assertArrayEquals(cube.getPalette(), restored.getPalette());
+            assertEquals(colors, restored.getColorString());
+        }
+    }
+
+    @Test
+    public void restoresFaceletString() {
+        RubiksCube3x3x3 cube = (RubiksCube3x3x3) createScrambledCube(3, 3, 3);
+        String facelets = cube.getFaceletString();
+
+        RubiksCube3x3x3 restored = new RubiksCube3x3x3();
+        restored.restoreColors(facelets);
+        assertEquals(facelets, restored.getFaceletString());
+        assertSameFacelets(cube.getFacelets(), restored.getFacelets());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void restoreRejectsOtherSize() {
+        RubiksCube cube = createScrambledCube(4, 4, 4);
+        new RubiksCube(3).restoreColors(cube.getColorString());
+    }
+
+    @Test(expected = InvalidParameterException.class)
+    public void restoreRejectsInvalidFaceletString() {
+        new RubiksCube3x3x3().restoreColors("R" + SOLVED.substring(1));
+    }
+}
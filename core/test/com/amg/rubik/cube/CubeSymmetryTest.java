@@ -0,0 +1,173 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+import com.amg.rubik.solver.CubieCube;
+import com.amg.rubik.solver.CubieSymmetry;
+import com.amg.rubik.solver.TwoPhaseSolver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CubeSymmetryTest {
+
+    private static FaceletCube scramble(int size, Random random) {
+        FaceletCube cube = new FaceletCube(size);
+        createScramble(size, random, 40).applyTo(cube);
+        return cube;
+    }
+
+    private static Algorithm createScramble(int size, Random random, int count) {
+        Algorithm algo = new Algorithm();
+        Axis[] axes = Axis.values();
+        for (int i = 0; i < count; i++) {
+            Axis axis = axes[random.nextInt(axes.length)];
+            Direction direction = random.nextBoolean() ? Direction.CLOCKWISE :
+                    Direction.COUNTER_CLOCKWISE;
+            // Some turns of several layers, which must map to a range of layers too
+            int faceCount = random.nextInt(4) == 0 ? 2 : 1;
+            algo.addStep(axis, direction, random.nextInt(size - faceCount + 1), faceCount);
+        }
+        return algo;
+    }
+
+    private static FaceletCube getImage(FaceletCube cube, int symmetry) {
+        int[] perm = CubeSymmetry.getPermutation(cube.getSizeX(), symmetry);
+        FaceletCube image = new FaceletCube(cube.getSizeX());
+        for (int i = 0; i < perm.length; i++) {
+            image.setFacelet(i, cube.getFacelet(perm[i]));
+        }
+        return image;
+    }
+
+    private static FaceletCube recolor(FaceletCube cube, Random random) {
+        byte[] colors = new byte[Cube.FACE_COUNT];
+        for (int i = 0; i < colors.length; i++) {
+            colors[i] = (byte) (i + 10);
+        }
+        for (int i = colors.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            byte color = colors[i];
+            colors[i] = colors[j];
+            colors[j] = color;
+        }
+        FaceletCube recolored = new FaceletCube(cube);
+        for (int i = 0; i < cube.getFaceletCount(); i++) {
+            recolored.setFacelet(i, colors[cube.getFacelet(i)]);
+        }
+        return recolored;
+    }
+
+    @Test
+    public void keyIgnoresSymmetriesAndColors() {
+        Random random = new Random(1);
+        for (int size = 2; size <= 5; size++) {
+            CubeSymmetry symmetry = new CubeSymmetry(size);
+            for (int n = 0; n < 5; n++) {
+                FaceletCube cube = scramble(size, random);
+                long key = symmetry.getKey(cube);
+                for (int s = 0; s < CubeSymmetry.SYMMETRY_COUNT; s++) {
+                    FaceletCube image = recolor(getImage(cube, s), random);
+                    assertEquals("size " + size + ", symmetry " + s, key,
+                            symmetry.getKey(image));
+                    assertTrue(symmetry.isEquivalent(cube, image));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keySeparatesStates() {
+        Random random = new Random(2);
+        for (int size = 2; size <= 4; size++) {
+            CubeSymmetry symmetry = new CubeSymmetry(size);
+            FaceletCube cube = scramble(size, random);
+            FaceletCube other = new FaceletCube(cube);
+            other.rotate(Axis.X_AXIS, Direction.CLOCKWISE, 0);
+            assertNotEquals(symmetry.getKey(cube), symmetry.getKey(other));
+        }
+    }
+
+    @Test
+    public void cubieKeyMatchesColors() {
+        Random random = new Random(3);
+        CubeSymmetry symmetry = new CubeSymmetry(3);
+        for (int n = 0; n < 20; n++) {
+            FaceletCube cube = scramble(3, random);
+            assertEquals(symmetry.getKey(cube), symmetry.getKey(new CubieCube(cube)));
+        }
+    }
+
+    /**
+     * The image under getSymmetry() is the same state for all the equivalent cubes, which is
+     * what lets them share one solution
+     * */
+    @Test
+    public void imageUnderSymmetryIsCanonical() {
+        Random random = new Random(4);
+        CubeSymmetry symmetry = new CubeSymmetry(3);
+        for (int n = 0; n < 5; n++) {
+            FaceletCube cube = scramble(3, random);
+            symmetry.getKey(cube);
+            String canonical = new CubieCube(getImage(cube, symmetry.getSymmetry()))
+                    .toFaceletString();
+            for (int s = 0; s < CubeSymmetry.SYMMETRY_COUNT; s++) {
+                FaceletCube image = recolor(getImage(cube, s), random);
+                symmetry.getKey(image);
+                assertEquals(canonical, new CubieCube(getImage(image, symmetry.getSymmetry()))
+                        .toFaceletString());
+            }
+        }
+    }
+
+    @Test
+    public void transformCommutesWithImage() {
+        Random random = new Random(5);
+        for (int size = 2; size <= 4; size++) {
+            CubeSymmetry symmetry = new CubeSymmetry(size);
+            FaceletCube start = scramble(size, random);
+            Algorithm algo = createScramble(size, random, 20);
+            FaceletCube turned = new FaceletCube(start);
+            algo.applyTo(turned);
+            for (int s = 0; s < CubeSymmetry.SYMMETRY_COUNT; s++) {
+                FaceletCube image = getImage(start, s);
+                symmetry.transform(algo, s).applyTo(image);
+                assertArrayEquals("size " + size + ", symmetry " + s,
+                        getImage(turned, s).getFaceletArray(), image.getFaceletArray());
+            }
+        }
+    }
+
+    @Test
+    public void inverseUndoesSymmetry() {
+        Random random = new Random(6);
+        FaceletCube cube = scramble(4, random);
+        for (int s = 0; s < CubeSymmetry.SYMMETRY_COUNT; s++) {
+            FaceletCube back = getImage(getImage(cube, s), CubeSymmetry.getInverse(s));
+            assertArrayEquals(cube.getFaceletArray(), back.getFaceletArray());
+        }
+    }
+
+    @Test
+    public void cubieMovesMatchRotations() {
+        CubeSymmetry symmetry = new CubeSymmetry(3);
+        for (int s = 0; s < CubeSymmetry.SYMMETRY_COUNT; s++) {
+            for (int move = 0; move < CubieCube.MOVE_COUNT; move++) {
+                // Half turns are two rotations, which may go either way
+                FaceletCube expected = new FaceletCube(3);
+                symmetry.transform(TwoPhaseSolver.toAlgorithm(new int[] {move}, 3), s)
+                        .applyTo(expected);
+                FaceletCube actual = new FaceletCube(3);
+                TwoPhaseSolver.toAlgorithm(new int[] {CubieSymmetry.getMove(move, s)}, 3)
+                        .applyTo(actual);
+                assertArrayEquals(expected.getFaceletArray(), actual.getFaceletArray());
+            }
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FaceletCubeTest {
+
+    private static final Axis[] axes = Axis.values();
+    private static final Direction[] directions = Direction.values();
+
+    /**
+     * Palette index of every facelet, face by face
+     * */
+    private static String getColors(FaceletCube cube) {
+        StringBuilder builder = new StringBuilder(cube.getFaceletCount());
+        for (int i = 0; i < cube.getFaceletCount(); i++) {
+            builder.append(cube.getFacelet(i));
+        }
+        return builder.toString();
+    }
+
+    private static Direction reverse(Direction direction) {
+        return direction == Direction.CLOCKWISE ? Direction.COUNTER_CLOCKWISE :
+                Direction.CLOCKWISE;
+    }
+
+    /**
+     * Seeded random layer turns, with one in ten turning the whole cube
+     * */
+    private static FaceletCube scramble(int sizeX, int sizeY, int sizeZ, int count) {
+        FaceletCube cube = new FaceletCube(sizeX, sizeY, sizeZ);
+        Random random = new Random(sizeX * 100 + sizeY * 10 + sizeZ);
+        for (int i = 0; i < count; i++) {
+            Axis axis = axes[random.nextInt(axes.length)];
+            Direction direction = directions[random.nextInt(directions.length)];
+            if (random.nextInt(10) == 0) {
+                cube.rotate(axis, direction);
+            } else {
+                cube.rotate(axis, direction, random.nextInt(cube.getAxisSize(axis)));
+            }
+        }
+        return cube;
+    }
+
+    private static void assertScramble(int sizeX, int sizeY, int sizeZ, String expected,
+                                       int endX, int endY, int endZ) {
+        FaceletCube cube = scramble(sizeX, sizeY, sizeZ, 200);
+        assertEquals(endX, cube.getSizeX());
+        assertEquals(endY, cube.getSizeY());
+        assertEquals(endZ, cube.getSizeZ());
+        assertEquals(expected, getColors(cube));
+        assertFalse(cube.isSolved());
+    }
+
+    /**
+     * The expected states were recorded with the Square based rotations that FaceletCube
+     * replaced
+     * */
+    @Test
+    public void matchesKnownStates() {
+        assertScramble(3, 3, 3,
+                "424015334" +
+                "030004253" +
+                "322232541" +
+                "100523514" +
+                "535454311" +
+                "251041012",
+                3, 3, 3);
+        assertScramble(4, 4, 4,
+                "4501513031054140" +
+                "0005301324535312" +
+                "3245225044004244" +
+                "2442515114250230" +
+                "1232143305311155" +
+                "1223420552343013",
+                4, 4, 4);
+    }
+
+    @Test
+    public void matchesKnownCuboidStates() {
+        assertScramble(2, 3, 4,
+                "54544554" +
+                "333313131111" +
+                "45455445" +
+                "313313131131" +
+                "222000" +
+                "002022",
+                2, 4, 3);
+        assertScramble(1, 2, 3,
+                "111313" +
+                "02" +
+                "333131" +
+                "02" +
+                "455" +
+                "544",
+                3, 2, 1);
+    }
+
+    @Test
+    public void reverseUndoesEveryMove() {
+        int[][] sizes = {{3, 3, 3}, {5, 5, 5}, {2, 3, 4}};
+        Random random = new Random(7);
+        for (int[] size: sizes) {
+            FaceletCube cube = scramble(size[0], size[1], size[2], 50);
+            for (int i = 0; i < 200; i++) {
+                String before = getColors(cube);
+                Axis axis = axes[random.nextInt(axes.length)];
+                Direction direction = directions[random.nextInt(directions.length)];
+                if (random.nextInt(10) == 0) {
+                    cube.rotate(axis, direction);
+                    cube.rotate(axis, reverse(direction));
+                } else {
+                    int layer = random.nextInt(cube.getAxisSize(axis));
+                    cube.rotate(axis, direction, layer);
+                    cube.rotate(axis, reverse(direction), layer);
+                }
+                assertEquals(before, getColors(cube));
+                cube.rotate(axis, direction, random.nextInt(cube.getAxisSize(axis)));
+            }
+        }
+    }
+
+    @Test
+    public void fourQuarterTurnsAreIdentity() {
+        FaceletCube cube = scramble(4, 4, 4, 50);
+        String before = getColors(cube);
+        for (Axis axis: axes) {
+            for (int layer = 0; layer < 4; layer++) {
+                for (int i = 0; i < 4; i++) {
+                    cube.rotate(axis, Direction.CLOCKWISE, layer);
+                }
+                assertEquals(before, getColors(cube));
+            }
+            for (int i = 0; i < 4; i++) {
+                cube.rotate(axis, Direction.COUNTER_CLOCKWISE);
+            }
+            assertEquals(before, getColors(cube));
+        }
+    }
+
+    /**
+     * (R U R' U') has order 6
+     * */
+    @Test
+    public void sexyMoveHasOrderSix() {
+        FaceletCube cube = new FaceletCube(3);
+        for (int i = 1; i <= 6; i++) {
+            cube.rotate(Axis.X_AXIS, Direction.CLOCKWISE, 2);
+            cube.rotate(Axis.Y_AXIS, Direction.CLOCKWISE, 2);
+            cube.rotate(Axis.X_AXIS, Direction.COUNTER_CLOCKWISE, 2);
+            cube.rotate(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, 2);
+            assertEquals(i == 6, cube.isSolved());
+        }
+    }
+
+    @Test
+    public void wholeCubeRotationKeepsItSolved() {
+        FaceletCube cube = new FaceletCube(2, 3, 4);
+        for (Axis axis: axes) {
+            cube.rotate(axis, Direction.CLOCKWISE);
+            assertTrue(cube.isSolved());
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class MoveJournalTest {
+
+    private static final int SIZE = 4;
+    private static final int[] palette = {0x10, 0x20, 0x30, 0x40, 0x50, 0x60};
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    /**
+     * States after every move of the journal, starting with the checkpoint
+     * */
+    private final ArrayList<FaceletCube> mStates = new ArrayList<>();
+    private final ArrayList<Rotation> mMoves = new ArrayList<>();
+
+    private static Rotation createRandomMove(Random random) {
+        return Rotation.get(Axis.values()[random.nextInt(3)],
+                Direction.values()[random.nextInt(2)], random.nextInt(SIZE));
+    }
+
+    private static void assertSameState(FaceletCube expected, FaceletCube actual) {
+        assertEquals(expected.getFaceletCount(), actual.getFaceletCount());
+        for (int i = 0; i < expected.getFaceletCount(); i++) {
+            assertEquals(expected.getFacelet(i), actual.getFacelet(i));
+        }
+    }
+
+    private void record(MoveJournal journal, FaceletCube cube, Random random, int count)
+            throws Exception {
+        for (int i = 0; i < count; i++) {
+            Rotation move = createRandomMove(random);
+            journal.append(move);
+            cube.rotate(move);
+            mMoves.add(move);
+            mStates.add(new FaceletCube(cube));
+        }
+    }
+
+    private void assertJournal(MoveJournal journal) throws Exception {
+        assertEquals(mMoves.size(), journal.getMoveCount());
+        for (int i = 0; i < mStates.size(); i++) {
+            CubeCodec.Snapshot snapshot = journal.getState(i);
+            assertArrayEquals(palette, snapshot.palette);
+            assertSameState(mStates.get(i), snapshot.facelets);
+        }
+        for (int i = 0; i < mMoves.size(); i++) {
+            assertEquals(mMoves.get(i), journal.getMove(i));
+        }
+    }
+
+    @Test
+    public void getStateAfterReopen() throws Exception {
+        File file = new File(mFolder.getRoot(), "moves.journal");
+        Random random = new Random(1);
+        FaceletCube cube = new FaceletCube(SIZE);
+        MoveJournal journal = new MoveJournal(file, 16);
+        journal.checkpoint(cube, palette, palette.length);
+        mStates.add(new FaceletCube(cube));
+        record(journal, cube, random, 100);
+        assertJournal(journal);
+        journal.close();
+
+        journal = new MoveJournal(file, 16);
+        // One checkpoint at the start and one after every 16 moves
+        assertEquals(1 + 100 / 16, journal.getCheckpointCount());
+        assertJournal(journal);
+
+        // New moves go after the old ones, from the state at the end
+        journal.checkpoint(cube, palette, palette.length);
+        record(journal, cube, random, 40);
+        journal.close();
+        journal = new MoveJournal(file, 16);
+        assertJournal(journal);
+        journal.close();
+    }
+
+    @Test
+    public void dropsTruncatedMove() throws Exception {
+        File file = new File(mFolder.getRoot(), "moves.journal");
+        FaceletCube cube = new FaceletCube(SIZE);
+        MoveJournal journal = new MoveJournal(file);
+        journal.checkpoint(cube, palette, palette.length);
+        mStates.add(new FaceletCube(cube));
+        record(journal, cube, new Random(2), 10);
+        journal.close();
+
+        // Cut off the first byte of the last move, which is all of it for the smaller ids
+        mMoves.remove(mMoves.size() - 1);
+        mStates.remove(mStates.size() - 1);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 1);
+        }
+        journal = new MoveJournal(file);
+        assertJournal(journal);
+        journal.close();
+    }
+}
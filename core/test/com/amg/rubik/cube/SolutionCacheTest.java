@@ -0,0 +1,144 @@
+package com.amg.rubik.cube;
+
+import com.amg.rubik.graphics.Axis;
+import com.amg.rubik.graphics.Direction;
+import com.amg.rubik.solver.OptimalTables;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+
+public class SolutionCacheTest {
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    private static Algorithm createAlgorithm(int... ids) {
+        Algorithm algo = new Algorithm();
+        for (int id: ids) {
+            algo.addStepId(id);
+        }
+        return algo;
+    }
+
+    private static RubiksCube3x3x3 createScrambledCube(long seed) {
+        RubiksCube3x3x3 cube = new RubiksCube3x3x3();
+        cube.setRandom(new SplitMix64(seed));
+        cube.randomize(30);
+        return cube;
+    }
+
+    private static boolean solves(RubiksCube cube, Algorithm solution) {
+        FaceletCube facelets = cube.getFacelets();
+        solution.applyTo(facelets);
+        return facelets.isSolved();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        SolutionCache cache = new SolutionCache(2);
+        cache.put("a", createAlgorithm(1));
+        cache.put("b", createAlgorithm(2));
+        assertNotNull(cache.get("a"));
+        cache.put("c", createAlgorithm(3));
+
+        assertNull(cache.get("b"));
+        assertNotNull(cache.get("a"));
+        assertNotNull(cache.get("c"));
+        assertEquals(2, cache.size());
+        assertEquals(3, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void savesAndLoads() throws Exception {
+        SolutionCache cache = new SolutionCache();
+        cache.put("solved", new Algorithm());
+        cache.put("turned", createAlgorithm(
+                Rotation.getId(Axis.X_AXIS, Direction.CLOCKWISE, 0, 1),
+                Rotation.getId(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, 2, 1)));
+        File file = new File(mFolder.getRoot(), "solutions.txt");
+        cache.save(file);
+
+        SolutionCache loaded = new SolutionCache();
+        assertEquals(2, loaded.load(file));
+        assertEquals(0, loaded.get("solved").size());
+        Algorithm turned = loaded.get("turned");
+        assertEquals(2, turned.size());
+        assertEquals(Rotation.get(Axis.Y_AXIS, Direction.COUNTER_CLOCKWISE, 2),
+                turned.getStep(1));
+        assertEquals(0, loaded.load(new File(mFolder.getRoot(), "missing.txt")));
+    }
+
+    @Test
+    public void repeatedSolveIsCached() {
+        RubiksCube3x3x3 cube = createScrambledCube(1);
+        SolutionCache cache = new SolutionCache();
+        cube.setSolutionCache(cache);
+
+        Algorithm first = cube.computeSolution();
+        Algorithm second = cube.computeSolution();
+        assertEquals(1, cache.getHitCount());
+        assertEquals(first.size(), second.size());
+        assertTrue(solves(cube, second));
+
+        // A two phase solution doesn't answer an optimal request
+        cube.setSolveMethod(RubiksCube3x3x3.SolveMethod.OPTIMAL);
+        assertNull(cache.get(cube.getSolutionKey()));
+    }
+
+    /**
+     * Rotated and mirrored versions of a state share its entry, with the solution mapped to
+     * each of them
+     * */
+    @Test
+    public void symmetricStateIsCached() {
+        RubiksCube3x3x3 cube = createScrambledCube(3);
+        SolutionCache cache = new SolutionCache();
+        cube.setSolutionCache(cache);
+        cube.computeSolution();
+
+        int[] symmetries = {1, 6, 17, 30, 47};
+        for (int s: symmetries) {
+            int[] perm = CubeSymmetry.getPermutation(3, s);
+            FaceletCube facelets = cube.getFacelets();
+            FaceletCube image = new FaceletCube(3);
+            for (int i = 0; i < perm.length; i++) {
+                image.setFacelet(i, facelets.getFacelet(perm[i]));
+            }
+            RubiksCube3x3x3 other = new RubiksCube3x3x3();
+            other.restoreColors(CubeCodec.toFaceletString(image));
+            other.setSolutionCache(cache);
+            assertTrue(solves(other, other.computeSolution()));
+        }
+        assertEquals(symmetries.length, cache.getHitCount());
+        assertEquals(1, cache.size());
+    }
+
+    /**
+     * Without tables the optimal search gives up right away, the same way it does when it times
+     * out. The two phase fallback must not be cached for OPTIMAL, so that a retry searches again.
+     * */
+    @Test
+    public void optimalFallbackIsNotCached() {
+        assumeFalse(OptimalTables.isLoaded());
+        RubiksCube3x3x3 cube = createScrambledCube(2);
+        cube.setSolveMethod(RubiksCube3x3x3.SolveMethod.OPTIMAL);
+        SolutionCache cache = new SolutionCache();
+        cube.setSolutionCache(cache);
+
+        assertTrue(solves(cube, cube.computeSolution()));
+        assertEquals(0, cache.size());
+        assertTrue(solves(cube, cube.computeSolution()));
+        assertEquals(0, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+    }
+}
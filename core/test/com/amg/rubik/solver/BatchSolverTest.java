@@ -0,0 +1,78 @@
+package com.amg.rubik.solver;
+
+import com.amg.rubik.cube.CubeSymmetry;
+import com.amg.rubik.cube.FaceletCube;
+
+import org.junit.Test;
+
+import java.security.InvalidParameterException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchSolverTest {
+
+    private static CubieCube getImage(CubieCube cube, int symmetry) {
+        FaceletCube facelets = cube.toFaceletCube();
+        int[] perm = CubeSymmetry.getPermutation(3, symmetry);
+        FaceletCube image = new FaceletCube(3);
+        for (int i = 0; i < perm.length; i++) {
+            image.setFacelet(i, facelets.getFacelet(perm[i]));
+        }
+        return new CubieCube(image);
+    }
+
+    private static boolean solves(CubieCube cube, int[] moves) {
+        CubieCube copy = new CubieCube(cube);
+        for (int move: moves) {
+            copy.move(move);
+        }
+        return copy.isSolved();
+    }
+
+    /**
+     * Rotated versions of a cube get the solution of the first one, mapped to each of them
+     * */
+    @Test
+    public void solvesSymmetricCubes() {
+        Random random = new Random(1);
+        ArrayList<CubieCube> cubes = new ArrayList<>();
+        for (int n = 0; n < 4; n++) {
+            CubieCube cube = new CubieCube();
+            for (int i = 0; i < 30; i++) {
+                cube.move(random.nextInt(CubieCube.MOVE_COUNT));
+            }
+            cubes.add(cube);
+            for (int s = 1; s < CubeSymmetry.SYMMETRY_COUNT; s += 5) {
+                try {
+                    cubes.add(getImage(cube, s));
+                } catch (InvalidParameterException e) {
+                    // A mirror image, which isn't made of cubies
+                }
+            }
+        }
+        CubieCube unsolvable = new CubieCube();
+        unsolvable.eo[CubieCube.UF] = 1;
+        cubes.add(unsolvable);
+
+        BatchSolver solver = new BatchSolver(new ForkJoinPool(2),
+                TwoPhaseSolver.DEFAULT_MAX_LENGTH, TwoPhaseSolver.DEFAULT_TIMEOUT);
+        try {
+            List<int[]> solutions = solver.solve(cubes);
+            assertEquals(cubes.size(), solutions.size());
+            for (int i = 0; i < cubes.size() - 1; i++) {
+                assertNotNull(solutions.get(i));
+                assertTrue(solves(cubes.get(i), solutions.get(i)));
+            }
+            assertNull(solutions.get(cubes.size() - 1));
+        } finally {
+            solver.shutdown();
+        }
+    }
+}
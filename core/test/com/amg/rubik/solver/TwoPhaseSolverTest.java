@@ -0,0 +1,63 @@
+package com.amg.rubik.solver;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TwoPhaseSolverTest {
+
+    private static CubieCube createRandomCube(Random random) {
+        CubieCube cube = new CubieCube();
+        for (int i = 0; i < 60; i++) {
+            cube.move(random.nextInt(CubieCube.MOVE_COUNT));
+        }
+        return cube;
+    }
+
+    @Test
+    public void solvesRandomStatesWithin22Moves() {
+        TwoPhaseSolver solver = new TwoPhaseSolver();
+        Random random = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            CubieCube cube = createRandomCube(random);
+            int[] solution = solver.solve(cube);
+            assertNotNull(solution);
+            assertTrue(solution.length <= TwoPhaseSolver.DEFAULT_MAX_LENGTH);
+            for (int move: solution) {
+                cube.move(move);
+            }
+            assertTrue(cube.isSolved());
+        }
+    }
+
+    @Test
+    public void solvedCubeNeedsNoMoves() {
+        assertEquals(0, new TwoPhaseSolver().solve(new CubieCube()).length);
+    }
+
+    /**
+     * The first solution is not the shortest one, unless the length limit leaves no choice
+     * */
+    @Test
+    public void findsShortSolutionWithinLimit() {
+        CubieCube cube = new CubieCube();
+        // R U F'
+        cube.move(CubieCube.R * 3);
+        cube.move(CubieCube.U * 3);
+        cube.move(CubieCube.F * 3 + 2);
+        int[] solution = new TwoPhaseSolver().solve(cube, 3, TwoPhaseSolver.DEFAULT_TIMEOUT);
+        assertEquals("F U' R'", TwoPhaseSolver.toString(solution));
+    }
+
+    @Test
+    public void rejectsUnsolvableCube() {
+        CubieCube cube = createRandomCube(new Random(2));
+        cube.eo[CubieCube.UF] ^= 1;
+        assertNull(new TwoPhaseSolver().solve(cube));
+    }
+}
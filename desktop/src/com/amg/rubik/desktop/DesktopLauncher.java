@@ -3,9 +3,13 @@ package com.amg.rubik.desktop;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
 import com.amg.rubik.CubeApp;
+import com.amg.rubik.solver.TableGenerator;
 
 public class DesktopLauncher {
 	public static void main (String[] arg) {
+		// Map pre-generated solver tables (-Drubik.tables=<file>, -Drubik.optimalTables=<file>)
+		// to avoid computing them
+		TableGenerator.loadFromProperty();
 		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
 		new LwjglApplication(new CubeApp(), config);
 	}